@@ -0,0 +1,44 @@
+package cc.corentin.util;
+
+import java.util.function.LongFunction;
+
+/**
+ * Reports the memory used by each layout of the entries, measured from the heap used by a large number of instances.
+ * It is not part of the tests: the benchmark profile adds it to the test classes, run {@code mvn -Pbenchmark test-compile}
+ * then {@code java -cp target/classes:target/test-classes cc.corentin.util.EntryFootprint} with the options of the production JVM,
+ * the sizes depend on the compressed references and the object alignment.
+ */
+public class EntryFootprint {
+    private static final int INSTANCES = 2_000_000;
+    private static final Integer VALUE = 1;
+
+    public static void main(String[] args) {
+        report("ValueWithTime", i -> new ValueWithTime<>(VALUE, 1000, 1000, i));
+        report("WeightedValue", i -> new WeightedValue<>(VALUE, 1000, 1000, i, 1));
+        report("DeadlineAccessValue", i -> new DeadlineAccessValue<>(VALUE, 1000, 1000, i));
+        report("DeadlineValue", i -> new DeadlineValue<>(VALUE, 1000, i));
+    }
+
+    private static void report(String layout, LongFunction<TimedValue<Integer>> factory) {
+        Object[] instances = new Object[INSTANCES];
+        long before = usedMemory();
+        for (int i = 0; i < INSTANCES; i++) {
+            instances[i] = factory.apply(i);
+        }
+        long after = usedMemory();
+        System.out.printf("%-19s %.1f bytes per entry, %.2f GB for 30M entries%n", layout,
+                (double) (after - before) / INSTANCES, (after - before) * 30_000_000.0 / INSTANCES / (1L << 30));
+        // The instances must still be reachable when the memory is measured
+        if (instances[INSTANCES - 1] == null) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,39 @@
+package cc.corentin.util;
+
+import java.util.Map;
+
+/**
+ * Measures the cost of the get method of the map with each ticker.
+ * It is not part of the tests: the benchmark profile adds it to the test classes,
+ * run {@code mvn -Pbenchmark test-compile} then {@code java -cp target/classes:target/test-classes cc.corentin.util.TickerBenchmark}.
+ */
+public class TickerBenchmark {
+    private static final int KEYS = 1024;
+    private static final int OPERATIONS = 20_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Map<String, Ticker> tickers = Map.of(
+                "system", Ticker.system(),
+                "coarse", Ticker.coarse(),
+                "monotonic", Ticker.monotonic());
+        for (Map.Entry<String, Ticker> entry : tickers.entrySet()) {
+            ConcurrentHashMapAutoCleaning<Integer, Integer> map = new ConcurrentHashMapAutoCleaning<>(60 * 60 * 1000);
+            map.setTicker(entry.getValue());
+            for (int i = 0; i < KEYS; i++) {
+                map.put(i, i);
+            }
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                long sum = 0;
+                for (int i = 0; i < OPERATIONS; i++) {
+                    sum += map.get(i & (KEYS - 1));
+                }
+                long elapsed = System.nanoTime() - start;
+                // The sum is printed so the loop is not removed by the JIT compiler
+                System.out.printf("%-9s round %d: %.2f ns/get (%d)%n", entry.getKey(), round, (double) elapsed / OPERATIONS, sum);
+            }
+            map.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package cc.corentin.util;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This interface starts the loading of the value of a key missing from an {@link AsyncConcurrentHashMapAutoCleaning},
+ * for example with a non-blocking database client. It must not block, the value is given through the returned future.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of mapped values
+ */
+@FunctionalInterface
+public interface AsyncCacheLoader<K, V> {
+
+    /**
+     * Starts the loading of the value of a key. It is called by a single thread at a time for a given key,
+     * the other threads missing the same key get the same future.
+     *
+     * @param key the key to load
+     * @return the future value of the key, completed with null if the key has no value
+     */
+    CompletableFuture<? extends V> load(K key);
+}
@@ -0,0 +1,218 @@
+package cc.corentin.util;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <h2>Overview</h2>
+ * An asynchronous view of a ConcurrentHashMapAutoCleaning whose values are futures, for the callers that cannot block on a load.
+ * getAsync(K key) returns the future value of the key, and starts its loading with an {@link AsyncCacheLoader} if the key is missing.
+ * The threads missing the same key while it is loading get the same future, so the key is loaded once.
+ * <p>
+ * A future is stored without lifetime while it is not completed, and the lifetimes of the map start when it completes:
+ * a slow load does not shorten the time during which its value is used.
+ * The futures that complete exceptionally, are cancelled or complete with null are removed from the map,
+ * so the next call to getAsync(K key) loads the key again.
+ * <h2>Usage</h2>
+ * The underlying map is returned by getMap(), it can be used to configure the cleaning, the ticker or the maximum size.
+ * Like ConcurrentHashMapAutoCleaning, this class must be closed to stop the cleaning.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of the values of the futures
+ */
+public class AsyncConcurrentHashMapAutoCleaning<K, V> implements Closeable {
+    /**
+     * The map storing the futures
+     */
+    private final ConcurrentHashMapAutoCleaning<K, CompletableFuture<V>> map;
+    /**
+     * The lifetime of the completed futures in milliseconds
+     */
+    private final long lifeTimeMillis;
+    /**
+     * The extra lifetime after use of the completed futures in milliseconds
+     */
+    private final long extraLifeTimeAfterUseMillis;
+    /**
+     * The loader used by getAsync(K key) and getAllAsync(Iterable keys)
+     */
+    private final AsyncCacheLoader<? super K, ? extends V> loader;
+
+    /**
+     * The constructor launches the cleaning process upon the creation of the object, provided that the time between each cleaning is greater than 0.
+     *
+     * @param lifeTimeMillis              the lifetime of the entries in milliseconds, from the completion of their future
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @param cleanPeriodMillis           the time between each cleaning in milliseconds
+     * @param loader                      the loader of the missing values
+     * @throws IllegalArgumentException if lifeTimeMillis is negative
+     * @throws NullPointerException     if loader is null
+     */
+    public AsyncConcurrentHashMapAutoCleaning(long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long cleanPeriodMillis,
+                                              AsyncCacheLoader<? super K, ? extends V> loader) {
+        if (lifeTimeMillis < 0) {
+            throw new IllegalArgumentException("an asynchronous map needs a default life time");
+        }
+        this.loader = Objects.requireNonNull(loader);
+        this.lifeTimeMillis = lifeTimeMillis;
+        this.extraLifeTimeAfterUseMillis = extraLifeTimeAfterUseMillis;
+        this.map = new ConcurrentHashMapAutoCleaning<>(lifeTimeMillis, extraLifeTimeAfterUseMillis, cleanPeriodMillis);
+    }
+
+    /**
+     * The cleaning process is disabled, it can be enabled with getMap().setCleanPeriod(long cleanPeriodMillis).
+     *
+     * @param lifeTimeMillis the lifetime of the entries in milliseconds, from the completion of their future
+     * @param loader         the loader of the missing values
+     * @throws IllegalArgumentException if lifeTimeMillis is negative
+     * @throws NullPointerException     if loader is null
+     */
+    public AsyncConcurrentHashMapAutoCleaning(long lifeTimeMillis, AsyncCacheLoader<? super K, ? extends V> loader) {
+        this(lifeTimeMillis, 0, -1, loader);
+    }
+
+    /**
+     * @return the map storing the futures
+     */
+    public ConcurrentHashMapAutoCleaning<K, CompletableFuture<V>> getMap() {
+        return map;
+    }
+
+    /**
+     * Returns the future value of a key if the key is loading or has a valid value.
+     *
+     * @param key the key whose associated future is to be returned
+     * @return the future value of the key, or null if the key has no valid value and is not loading
+     */
+    public CompletableFuture<V> getIfPresent(K key) {
+        return map.get(key);
+    }
+
+    /**
+     * Returns the future value of a key, and loads it with the loader of the map if the key has no valid value and is not loading.
+     *
+     * @param key the key whose associated future is to be returned
+     * @return the future value of the key
+     */
+    public CompletableFuture<V> getAsync(K key) {
+        return getAsync(key, loader);
+    }
+
+    /**
+     * Returns the future value of a key, and loads it with the given loader if the key has no valid value and is not loading.
+     *
+     * @param key         the key whose associated future is to be returned
+     * @param asyncLoader the loader of the value, called at most once
+     * @return the future value of the key, completed exceptionally if the loader throws an exception or returns a null future
+     */
+    public CompletableFuture<V> getAsync(K key, AsyncCacheLoader<? super K, ? extends V> asyncLoader) {
+        Objects.requireNonNull(asyncLoader);
+        CompletableFuture<V> future = map.get(key);
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<V> created = new CompletableFuture<>();
+        // The future has no lifetime until it completes
+        CompletableFuture<V> current = map.putIfAbsent(key, created, Long.MAX_VALUE, 0);
+        if (current != null) {
+            return current;
+        }
+        CompletableFuture<? extends V> loaded;
+        try {
+            loaded = Objects.requireNonNull(asyncLoader.load(key), "the loader returned a null future");
+        } catch (Throwable e) {
+            // The future would never complete, it is removed so the next call loads the key again
+            map.remove(key, created);
+            created.completeExceptionally(e);
+            return created;
+        }
+        register(key, created);
+        loaded.whenComplete((value, exception) -> {
+            if (exception != null) {
+                created.completeExceptionally(exception);
+            } else {
+                created.complete(value);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Returns the values of several keys, the keys without valid value that are not loading are loaded with the loader of the map.
+     * The returned future fails if one of the loads fails.
+     *
+     * @param keys the keys whose values are to be returned
+     * @return the future values of the keys, the keys whose value is null are not in the map
+     */
+    public CompletableFuture<Map<K, V>> getAllAsync(Iterable<? extends K> keys) {
+        List<K> requested = new ArrayList<>();
+        List<CompletableFuture<V>> futures = new ArrayList<>();
+        for (K key : keys) {
+            requested.add(key);
+            futures.add(getAsync(key));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<K, V> values = new HashMap<>();
+            for (int i = 0; i < requested.size(); i++) {
+                V value = futures.get(i).join();
+                if (value != null) {
+                    values.put(requested.get(i), value);
+                }
+            }
+            return values;
+        });
+    }
+
+    /**
+     * Associates a future value with a key, the lifetimes of the map start when the future completes.
+     *
+     * @param key    key with which the specified future is to be associated
+     * @param future future value to be associated with the specified key
+     */
+    public void put(K key, CompletableFuture<V> future) {
+        Objects.requireNonNull(future);
+        if (future.isDone()) {
+            map.put(key, future);
+        } else {
+            map.put(key, future, Long.MAX_VALUE, 0);
+        }
+        register(key, future);
+    }
+
+    /**
+     * Removes the future value of a key.
+     *
+     * @param key the key whose future is to be removed
+     * @return the removed future, or null if the key had no valid future
+     */
+    public CompletableFuture<V> remove(K key) {
+        return map.remove(key);
+    }
+
+    /**
+     * Starts the lifetimes of a future stored in the map when it completes, or removes it if it fails or completes with null.
+     * Nothing is done if the future has been replaced or removed in the meantime.
+     *
+     * @param key    the key of the future
+     * @param future the stored future
+     */
+    private void register(K key, CompletableFuture<V> future) {
+        future.whenComplete((value, exception) -> {
+            if (exception != null || value == null) {
+                map.remove(key, future);
+            } else {
+                map.replace(key, future, future, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        map.close();
+    }
+}
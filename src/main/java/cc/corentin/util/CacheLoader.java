@@ -0,0 +1,22 @@
+package cc.corentin.util;
+
+/**
+ * This interface computes the value of a key missing from a {@link LoadingConcurrentHashMapAutoCleaning},
+ * for example by reading it from a database.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of mapped values
+ */
+@FunctionalInterface
+public interface CacheLoader<K, V> {
+
+    /**
+     * Loads the value of a key. It is called by a single thread at a time for a given key,
+     * the other threads missing the same key wait for its result.
+     *
+     * @param key the key to load
+     * @return the value of the key, or null if the key has no value, in which case nothing is stored
+     * @throws Exception if the value cannot be loaded, it is thrown to all the threads waiting for the value
+     */
+    V load(K key) throws Exception;
+}
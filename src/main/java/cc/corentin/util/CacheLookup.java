@@ -0,0 +1,79 @@
+package cc.corentin.util;
+
+/**
+ * The result of a lookup in a {@link LoadingConcurrentHashMapAutoCleaning}: the value of the key and whether it is fresh or stale.
+ * A stale value has reached its expiration time but is still served during the grace period of the map,
+ * see {@link LoadingConcurrentHashMapAutoCleaning#setStaleWhileRevalidate(long, long, java.util.concurrent.Executor)}.
+ *
+ * @param <V> the type of the value
+ */
+public final class CacheLookup<V> {
+
+    /**
+     * Where the value of a lookup comes from
+     */
+    public enum Status {
+        /**
+         * The value was stored in the map and has not reached its expiration time
+         */
+        FRESH,
+        /**
+         * The value has been loaded by the lookup, or by another thread the lookup waited for
+         */
+        LOADED,
+        /**
+         * The value has reached its expiration time, it is served while it is reloaded in the background
+         */
+        STALE,
+        /**
+         * The value has reached its expiration time and its reload failed, it is served until its maximum staleness
+         */
+        STALE_ON_ERROR
+    }
+
+    /**
+     * The value, null if the key has no value
+     */
+    private final V value;
+    /**
+     * Where the value comes from
+     */
+    private final Status status;
+
+    /**
+     * Constructor
+     *
+     * @param value  the value, null if the key has no value
+     * @param status where the value comes from
+     */
+    CacheLookup(V value, Status status) {
+        this.value = value;
+        this.status = status;
+    }
+
+    /**
+     * @return the value, or null if the key has no value
+     */
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * @return where the value comes from
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if the value has reached its expiration time
+     */
+    public boolean isStale() {
+        return status == Status.STALE || status == Status.STALE_ON_ERROR;
+    }
+
+    @Override
+    public String toString() {
+        return status + "=" + value;
+    }
+}
@@ -0,0 +1,69 @@
+package cc.corentin.util;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class creates the schedulers that run the cleaning process of the ConcurrentHashMapAutoCleaning class.
+ * The threads of the schedulers are daemon threads with the minimum priority.
+ */
+final class CleaningSchedulers {
+    /**
+     * Name of the threads of the shared scheduler, followed by the number of the thread
+     */
+    static final String SHARED_THREAD_NAME = "ConcurrentHashMapAutoCleaning-shared-";
+
+    private CleaningSchedulers() {
+        throw new IllegalStateException("Utility class");
+    }
+
+    /**
+     * Holder of the shared scheduler, so it is only created when it is used for the first time
+     */
+    private static final class SharedHolder {
+        private static final ScheduledExecutorService SHARED = createShared();
+
+        private static ScheduledExecutorService createShared() {
+            AtomicInteger threadNumber = new AtomicInteger();
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 4),
+                    runnable -> createThread(runnable, SHARED_THREAD_NAME + threadNumber.incrementAndGet()));
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+
+    /**
+     * Returns the scheduler shared by all the maps that use it.
+     * It has one thread for every 4 processors, its threads are never stopped.
+     *
+     * @return the shared scheduler
+     */
+    static ScheduledExecutorService shared() {
+        return SharedHolder.SHARED;
+    }
+
+    /**
+     * Creates a scheduler with a single thread, the thread is started immediately.
+     *
+     * @param threadName the name of the thread
+     * @return a scheduler that must be shut down once it is no longer used
+     */
+    static ScheduledExecutorService createNamedScheduler(String threadName) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> createThread(runnable, threadName));
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.prestartAllCoreThreads();
+        return scheduler;
+    }
+
+    /**
+     * Creates a daemon thread with the minimum priority.
+     */
+    private static Thread createThread(Runnable runnable, String threadName) {
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+}
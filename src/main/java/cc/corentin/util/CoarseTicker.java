@@ -0,0 +1,46 @@
+package cc.corentin.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ticker reading a timestamp published every millisecond by a daemon thread.
+ * Reading a volatile field is cheaper than reading the clock of the system, which matters when the time is read for each entry.
+ * The thread is started when the ticker is used for the first time and never stopped.
+ */
+final class CoarseTicker implements Ticker {
+    /**
+     * Name of the thread publishing the timestamp
+     */
+    static final String THREAD_NAME = "ConcurrentHashMapAutoCleaning-ticker";
+    /**
+     * The only instance of the class, created when it is used for the first time
+     */
+    static final CoarseTicker INSTANCE = new CoarseTicker();
+
+    /**
+     * The last published time in milliseconds
+     */
+    private volatile long currentTimeMillis = TimeHelper.currentTimeMillis();
+
+    private CoarseTicker() {
+        Thread thread = new Thread(this::run, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Publishes the time of the system every millisecond.
+     */
+    private void run() {
+        while (true) {
+            currentTimeMillis = TimeHelper.currentTimeMillis();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+}
@@ -3,8 +3,23 @@ package cc.corentin.util;
 
 import java.io.Closeable;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
 
@@ -18,8 +33,11 @@ import java.util.concurrent.ConcurrentMap;
  * <h2>Usage</h2>
  * To clean up the map of entries that have exceeded the predefined lifespan,
  * the setCleanPeriodMillis method must be called with a value greater than 0 in the constructor or using the setCleanPeriod(long cleanPeriodMillis) method.
- * A thread will be launched to clean up the map every cleanPeriodMillis milliseconds. If cleanPeriodMillis is set to 0, the thread will be stopped.
+ * A thread will be launched to clean up the map when entries expire, at most every cleanPeriodMillis milliseconds. If cleanPeriodMillis is set to 0, the thread will be stopped.
  * The cleanBlocking() method can be used to clean up the map manually without using a thread.
+ * By default, each map has its own cleaning thread. When many maps are used, they can share the threads of a scheduler
+ * given to the setCleaningScheduler(ScheduledExecutorService cleaningScheduler) method, for example the one returned by sharedCleaningScheduler().
+ * Without any thread, the setAmortizedCleaning(int writesPerSweep, int entriesPerSweep) method makes the reads and the writes of the map remove the expired entries.
  *
  * <h2>Key Concepts</h2>
  * This class is designed to store a value along with its creation time and time of last use.
@@ -35,9 +53,9 @@ import java.util.concurrent.ConcurrentMap;
 public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>, Closeable {
 
     /**
-     * A concurrent map that associates keys with a {@link ValueWithTime} object that stores the creation time and the last usage time of the associated value.
+     * A concurrent map that associates keys with a {@link TimedValue} object that stores the creation time and the last usage time of the associated value.
      */
-    private final ConcurrentMap<K, ValueWithTime<V>> map;
+    private final ConcurrentHashMap<K, TimedValue<V>> map;
 
     /**
      * The lifespan of entries is measured in milliseconds
@@ -56,17 +74,158 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
      */
     private long cleanPeriodMillis = -1;
     /**
-     * TimerTask is used to clean up the map
+     * Default maximum number of expired entries visited by a cleaning pass, the pass is scheduled again immediately if some are left,
+     * so the maps sharing a scheduler take turns
      */
-    private TimerTask timerTask;
+    static final int CLEANING_SLICE = 10_000;
     /**
-     * Timer to clean up the map
+     * Maximum number of expired entries visited by a cleaning pass
      */
-    private Timer timer;
+    private volatile int cleanBudget = CLEANING_SLICE;
     /**
-     * List of listeners for removed entries
+     * Maximum duration of a cleaning pass in nanoseconds, 0 if the duration is not limited
      */
-    private final List<OnEntryRemovedListener<K, V>> listeners = new LinkedList<>();
+    private volatile long cleanBudgetNanos;
+    /**
+     * The scheduler given by the user, null if the map uses its own thread
+     */
+    private ScheduledExecutorService cleaningScheduler;
+    /**
+     * The scheduler running the cleaning process, null if the cleaning is disabled
+     */
+    private ScheduledExecutorService scheduler;
+    /**
+     * The next cleaning task, null if no cleaning is scheduled
+     */
+    private ScheduledFuture<?> cleaningTask;
+    /**
+     * The time at which the next cleaning is scheduled in milliseconds, Long.MAX_VALUE if no cleaning is scheduled
+     */
+    private volatile long nextCleaningTimeMillis = Long.MAX_VALUE;
+    /**
+     * The time at which the last cleaning started in milliseconds
+     */
+    private volatile long lastCleaningTimeMillis = Long.MIN_VALUE;
+    /**
+     * Lock protecting the schedulers, the cleaning task and the cleaning times
+     */
+    private final Object cleaningLock = new Object();
+    /**
+     * List of listeners for removed entries, copied on write so the cleaning can iterate it while listeners are added
+     */
+    private final List<OnEntryRemovedListener<K, V>> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * The pool cleaning the map in parallel, null if the map is cleaned by a single thread
+     */
+    private volatile ForkJoinPool cleaningPool;
+    /**
+     * The maximum number of entries visited by a task of the cleaning pool without being split
+     */
+    private volatile int parallelismThreshold;
+    /**
+     * Average number of writes between two sweeps of the amortized cleaning, 0 if the amortized cleaning is disabled
+     */
+    private volatile int writesPerSweep;
+    /**
+     * Number of entries visited by a sweep of the amortized cleaning
+     */
+    private volatile int entriesPerSweep;
+    /**
+     * Lock taken by the thread sweeping the map, the other threads skip their sweep instead of waiting
+     */
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    /**
+     * Position of the amortized cleaning in the map, the next sweep resumes from it, guarded by sweepLock
+     */
+    private Iterator<Entry<K, TimedValue<V>>> sweepIterator;
+    /**
+     * Minimum time in milliseconds between two updates of the time of last use of an entry, 0 to update it on every use
+     */
+    private volatile long accessTimeGranularityMillis;
+    /**
+     * Whether the entries created with the default lifetimes use a compact layout, see {@link TimedValue}
+     */
+    private volatile boolean compactEntries;
+    /**
+     * Maximum absolute value of the default lifetimes for which the compact layouts are used,
+     * so the creation time can be computed back from the expiration time without overflow
+     */
+    static final long MAX_COMPACT_LIFETIME_MILLIS = Long.MAX_VALUE / 4;
+    /**
+     * The store of the values kept outside the heap, null if the values are kept on the heap
+     */
+    private volatile OffHeapStore<K, V> offHeapStore;
+    /**
+     * Number of entries compared to choose the evicted entry
+     */
+    static final int EVICTION_SAMPLE_SIZE = 8;
+    /**
+     * Maximum number of entries stored in the map, Long.MAX_VALUE if the size of the map is not bounded
+     */
+    private volatile long maximumSize = Long.MAX_VALUE;
+    /**
+     * The policy choosing the evicted entries
+     */
+    private volatile EvictionPolicy evictionPolicy = EvictionPolicy.EARLIEST_EXPIRATION;
+    /**
+     * Lock taken by the thread evicting entries, the other threads do not wait for it
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    /**
+     * Position of the eviction in the map, the next sample starts from it, guarded by evictionLock
+     */
+    private Iterator<Entry<K, TimedValue<V>>> evictionIterator;
+    /**
+     * Set while an eviction task is submitted to the cleaning scheduler and has not started yet
+     */
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+    /**
+     * Maximum total weight of the entries, Long.MAX_VALUE if the weight of the map is not bounded
+     */
+    private volatile long maximumWeight = Long.MAX_VALUE;
+    /**
+     * The weigher giving the weight of the new entries, null if the entries are not weighed
+     */
+    private volatile Weigher<? super K, ? super V> weigher;
+    /**
+     * Total weight of the entries stored in the map, including the expired entries not removed yet.
+     * The counter is striped, so the writing threads do not contend on it.
+     */
+    private final LongAdder totalWeight = new LongAdder();
+    /**
+     * Number of expired entries kept in the map during their grace period, once the expiration index has reached them,
+     * see {@link GraceValue}. They are not counted by {@link #size()}.
+     */
+    private final LongAdder retainedEntries = new LongAdder();
+    /**
+     * Number of keys written while the map exceeds its bounds that wait to be compared with a victim by the eviction
+     */
+    static final int ADMISSION_CANDIDATES = 1024;
+    /**
+     * The frequencies of use of the keys, null unless the eviction policy is {@link EvictionPolicy#TINY_LFU}
+     */
+    private volatile FrequencySketch frequencySketch;
+    /**
+     * The keys written while the map exceeds its bounds, oldest first, null unless the eviction policy is {@link EvictionPolicy#TINY_LFU}.
+     * The candidates are dropped when the queue is full, they can still be evicted later as the other entries.
+     */
+    private volatile ArrayBlockingQueue<K> admissionCandidates;
+    /**
+     * Maximum fraction of the lifetime of the new entries removed at random, 0 if the lifetimes are not jittered
+     */
+    private volatile double lifeTimeJitter;
+    /**
+     * Lower bound of the expiration times of the entries, it is maintained even if the cleaning process is disabled
+     */
+    private final ExpirationWatermark expirationWatermark = new ExpirationWatermark();
+    /**
+     * The clock used to create, use and expire the entries
+     */
+    private volatile Ticker ticker = Ticker.system();
+    /**
+     * Index of the entries by expiration time, it is only maintained while the cleaning process is enabled
+     */
+    private volatile ExpiryWheel<K, V> expiryWheel;
 
 
     /**
@@ -181,7 +340,10 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
 
 
     /**
-     * Adds a listener function that will be invoked whenever an entry is removed by the cleaning thread of the ConcurrentHashMapAutoCleaning.
+     * Adds a listener function that will be invoked whenever an entry is removed by the cleaning or the eviction of the ConcurrentHashMapAutoCleaning.
+     * The cleaning thread calls the listeners one entry at a time, even with {@link #setParallelCleaning(ForkJoinPool, int)},
+     * but the threads using the map also call them when they evict entries or with {@link #setAmortizedCleaning(int, int)},
+     * so the listener can be called concurrently by several threads and must be thread-safe.
      *
      * @param listener the listener to add
      */
@@ -189,181 +351,1108 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
         listeners.add(listener);
     }
 
-
+
+    /**
+     * Sets the clock used to create, use and expire the entries, by default the clock of the system is read on each call.
+     * {@link Ticker#coarse()} avoids reading the clock of the system for each operation, at the cost of a precision of a few milliseconds.
+     * {@link Ticker#monotonic()} is not affected by the changes of the clock of the system.
+     * The times given and returned by the methods of the map are always times of the clock of the system,
+     * but the ticker should be set before adding entries, because the entries store the times of the ticker.
+     *
+     * @param ticker the clock of the map
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker = Objects.requireNonNull(ticker);
+    }
+
+    /**
+     * @return the current time of the clock of the map in milliseconds
+     */
+    long currentTimeMillis() {
+        return ticker.currentTimeMillis();
+    }
+
+    /**
+     * @return the default lifetime of the entries in milliseconds, -1 if no default lifetime is set
+     */
+    long getDefaultLifeTimeMillis() {
+        return lifeTimeMillis;
+    }
+
+    /**
+     * Returns the duration during which the new entries are kept in the map after their expiration time, for the subclasses that serve
+     * the expired values. The entries are still absent for the methods of the map once they are expired.
+     *
+     * @return the grace period of the new entries in milliseconds, 0 if they are removed once they are expired
+     */
+    long getGracePeriodMillis() {
+        return 0;
+    }
+
+    /**
+     * Returns the value stored for a key, even if it is expired, for the subclasses that need its times.
+     *
+     * @param key the key of the entry
+     * @return the value stored for the key, or null if there is no entry for the key
+     */
+    TimedValue<V> getTimedValue(Object key) {
+        return map.get(key);
+    }
+
+    /**
+     * Returns the creation time of a stored value in the time of the ticker, without copying the compact layouts.
+     *
+     * @param valueWithTime the value stored in the map
+     * @return the creation time of the value in milliseconds
+     */
+    long getCreationTimeMillis(TimedValue<V> valueWithTime) {
+        return valueWithTime.getCreationTimeMillis(lifeTimeMillis);
+    }
+
+    /**
+     * Replaces the value of a key with a new value with the default lifetimes, if the key is still associated with the given instance.
+     * The instance is compared by identity in the compute function, so a value written in the meantime is never overwritten.
+     *
+     * @param key      the key of the entry
+     * @param expected the value that was stored for the key
+     * @param value    the new value, or null to remove the entry
+     * @return true if the value has been replaced or removed
+     */
+    boolean replaceIfSame(K key, TimedValue<V> expected, V value) {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        @SuppressWarnings("unchecked")
+        TimedValue<V>[] created = (TimedValue<V>[]) new TimedValue<?>[2];
+        boolean[] replaced = new boolean[1];
+        map.computeIfPresent(key, (k, current) -> {
+            if (current != expected) {
+                return current;
+            }
+            replaced[0] = true;
+            if (value != null) {
+                created[0] = newValue(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, currentTimeMillis);
+            }
+            created[1] = current;
+            updateWeight(created[0], current);
+            return created[0];
+        });
+        afterCompute(key, created[0], created[1]);
+        return replaced[0];
+    }
+
+    /**
+     * Returns the creation time of the entry associated with the specified key, in milliseconds.
+     *
+     * @param key the key associated with the entry whose creation time to retrieve.
+     * @return The creation time of the entry in milliseconds, or -1 if the entry does not exist
+     * @throws ClassCastException if the key is of an inappropriate type for this map
+     */
+    public long getCreationTimeMillis(Object key) {
+        TimedValue<V> valueWithTime = map.get(key);
+        if (valueWithTime == null) {
+            return -1;
+        }
+        return ticker.toWallClockMillis(valueWithTime.toValueWithTime(lifeTimeMillis, extraLifeTimeAfterUseMillis).getCreationTimeMillis());
+    }
+
+    /**
+     * Sets the creation time of the entry associated with the specified key.
+     *
+     * @param key                the key associated with the entry whose creation time to set.
+     * @param creationTimeMillis the creation time of the entry, in milliseconds.
+     * @return the old creation time in milliseconds or -1 if the entry does not exist or is no longer valid.
+     */
+    public long setCreationTimeMillis(Object key, long creationTimeMillis) {
+        ValueWithTime<V> valueWithTime = getValueWithTime(key);
+        if (valueWithTime == null || !valueWithTime.isValid(ticker.currentTimeMillis())) {
+            return -1;
+        }
+        long oldExpirationTimeMillis = valueWithTime.getExpirationTimeMillis();
+        Ticker ticker = this.ticker;
+        long oldCreationTimeMillis = valueWithTime.setCreationTimeMillis(ticker.fromWallClockMillis(creationTimeMillis));
+        rescheduleExpiryIfEarlier(key, valueWithTime, oldExpirationTimeMillis);
+        return ticker.toWallClockMillis(oldCreationTimeMillis);
+    }
+
+    /**
+     * Sets the lifespan of the entry associated with the specified key.
+     *
+     * @param key            the key associated with the entry whose lifespan to set.
+     * @param lifeTimeMillis the lifespan of the entry, in milliseconds.
+     * @return The previous lifeTime of the entry in milliseconds or -1 if the entry does not exist or is no longer valid.
+     */
+    public long setLifeTimeMillis(Object key, long lifeTimeMillis) {
+        ValueWithTime<V> valueWithTime = getValueWithTime(key);
+        if (valueWithTime == null || !valueWithTime.isValid(ticker.currentTimeMillis())) {
+            return -1;
+        }
+        long oldExpirationTimeMillis = valueWithTime.getExpirationTimeMillis();
+        long oldLifeTimeMillis = valueWithTime.setLifeTimeMillis(lifeTimeMillis);
+        rescheduleExpiryIfEarlier(key, valueWithTime, oldExpirationTimeMillis);
+        return oldLifeTimeMillis;
+    }
+
+    /**
+     * Returns the time in milliseconds since the last use of the entry with the specified key.
+     *
+     * @param key the key associated with the entry whose last usage time to retrieve.
+     * @return The time in milliseconds since the last use of the entry, or -1 if the entry does not exist.
+     */
+    public long getLastTimeUsedMillis(Object key) {
+        TimedValue<V> valueWithTime = map.get(key);
+        if (valueWithTime == null) {
+            return -1;
+        }
+        return ticker.toWallClockMillis(valueWithTime.toValueWithTime(lifeTimeMillis, extraLifeTimeAfterUseMillis).getLastTimeUsedMillis());
+    }
+
+    /**
+     * Sets the additional lifespan of the entry associated with the specified key after its last usage
+     *
+     * @param key                            the key associated with the entry whose additional lifespan to set.
+     * @param setExtraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the old ExtraLifeTimeAfterUseMillis in milliseconds, or -1 if the entry does not exist or is no longer valid.
+     */
+    public long setExtraLifeTimeAfterUseMillis(Object key, long setExtraLifeTimeAfterUseMillis) {
+        ValueWithTime<V> valueWithTime = getValueWithTime(key);
+        if (valueWithTime == null || !valueWithTime.isValid(ticker.currentTimeMillis())) {
+            return -1;
+        }
+        long oldExpirationTimeMillis = valueWithTime.getExpirationTimeMillis();
+        long oldExtraLifeTimeAfterUseMillis = valueWithTime.setExtraLifeTimeAfterUseMillis(setExtraLifeTimeAfterUseMillis);
+        rescheduleExpiryIfEarlier(key, valueWithTime, oldExpirationTimeMillis);
+        return oldExtraLifeTimeAfterUseMillis;
+    }
+
+    /**
+     * Creates the value stored for an entry, with the smallest layout that can store its lifetimes.
+     *
+     * The entries weighed by a weigher use the full layout, or the off-heap storage which keeps their weight in their OffHeapValue.
+     *
+     * @param key                         the key of the entry
+     * @param value                       the value of the entry
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis the extra lifetime after use of the entry in milliseconds
+     * @param creationTimeMillis          the creation time of the entry in milliseconds
+     * @return the value to store in the map
+     * @throws IllegalArgumentException if the weigher returns a negative weight
+     */
+    private TimedValue<V> newValue(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long creationTimeMillis) {
+        double jitter = lifeTimeJitter;
+        if (jitter > 0 && lifeTimeMillis > 0 && lifeTimeMillis != Long.MAX_VALUE) {
+            lifeTimeMillis -= (long) (lifeTimeMillis * jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        Weigher<? super K, ? super V> weigher = this.weigher;
+        int weight = weigher == null ? 0 : weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("the weight of an entry cannot be negative");
+        }
+        long graceMillis = getGracePeriodMillis();
+        if (graceMillis > 0) {
+            return new GraceValue<>(value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis, weight, graceMillis);
+        }
+        OffHeapStore<K, V> store = offHeapStore;
+        if (store != null) {
+            return store.write(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis, weight);
+        }
+        if (weight != 0) {
+            return new WeightedValue<>(value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis, weight);
+        }
+        if (compactEntries && lifeTimeMillis == this.lifeTimeMillis && extraLifeTimeAfterUseMillis == this.extraLifeTimeAfterUseMillis
+                && Math.abs(lifeTimeMillis) <= MAX_COMPACT_LIFETIME_MILLIS && Math.abs(extraLifeTimeAfterUseMillis) <= MAX_COMPACT_LIFETIME_MILLIS) {
+            if (extraLifeTimeAfterUseMillis == 0) {
+                return new DeadlineValue<>(value, lifeTimeMillis, creationTimeMillis);
+            }
+            return new DeadlineAccessValue<>(value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis);
+        }
+        return new ValueWithTime<>(value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis);
+    }
+
+    /**
+     * Returns the full layout of the value stored for a key, so its times can be changed.
+     * A value stored with a compact layout is replaced in the map by a copy with the full layout,
+     * unless it has been replaced or removed in the meantime.
+     *
+     * @param key the key of the entry
+     * @return the value stored for the key with the full layout, or null if there is no entry for the key
+     */
+    @SuppressWarnings("unchecked")
+    private ValueWithTime<V> getValueWithTime(Object key) {
+        while (true) {
+            TimedValue<V> current = map.get(key);
+            if (current == null || current instanceof ValueWithTime<V>) {
+                return (ValueWithTime<V>) current;
+            }
+            ValueWithTime<V> valueWithTime = current.toValueWithTime(lifeTimeMillis, extraLifeTimeAfterUseMillis);
+            // The instance is compared in the compute function because TimedValue#equals only compares the values
+            if (map.computeIfPresent((K) key, (k, stored) -> stored == current ? valueWithTime : stored) == valueWithTime) {
+                // The copy has the expiration time of the compact value, the node of the compact value is reused for it
+                ExpiryWheel<K, V> wheel = expiryWheel;
+                if (wheel != null) {
+                    wheel.schedule((K) key, valueWithTime, current);
+                    onExpiryScheduled(valueWithTime);
+                }
+                return valueWithTime;
+            }
+        }
+    }
+
+    /**
+     * Schedules the removal of a new entry in the expiration index, if the index is maintained.
+     * The entries created with the default lifetimes of the map expire in their insertion order,
+     * they are scheduled in a queue, the entries with a custom lifetime are scheduled in the timing wheel.
+     *
+     * @param key           the key of the entry
+     * @param valueWithTime the value stored for the key, just created
+     * @param previous      the value replaced by the new one, or null if the key was not in the map
+     */
+    private void scheduleExpiry(K key, TimedValue<V> valueWithTime, TimedValue<V> previous) {
+        expirationWatermark.lower(valueWithTime.getExpirationTimeMillis());
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel == null) {
+            return;
+        }
+        if (valueWithTime.hasLifeTimes(lifeTimeMillis, extraLifeTimeAfterUseMillis)) {
+            wheel.scheduleInOrder(key, valueWithTime, previous);
+        } else {
+            wheel.schedule(key, valueWithTime, previous);
+        }
+        onExpiryScheduled(valueWithTime);
+    }
+
+    /**
+     * Schedules again the removal of an entry whose expiration time has been changed.
+     * A later expiration time does not need to be scheduled, the entry is scheduled again when its old expiration time is reached.
+     *
+     * @param key                     the key of the entry, it is associated with valueWithTime in the map
+     * @param valueWithTime           the value stored for the key
+     * @param oldExpirationTimeMillis the expiration time before the change
+     */
+    @SuppressWarnings("unchecked")
+    private void rescheduleExpiryIfEarlier(Object key, ValueWithTime<V> valueWithTime, long oldExpirationTimeMillis) {
+        long expirationTimeMillis = valueWithTime.getExpirationTimeMillis();
+        if (expirationTimeMillis >= oldExpirationTimeMillis) {
+            return;
+        }
+        expirationWatermark.lower(expirationTimeMillis);
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            wheel.reschedule((K) key, valueWithTime);
+            onExpiryScheduled(valueWithTime);
+        }
+    }
+
+    /**
+     * Records the replacement of a value of the map in the total weight, and in the count of the retained entries if it was one.
+     * It is called by the thread that changed the mapping, in the compute function when the mapping is changed by one.
+     *
+     * @param added   the value stored in the map, or null if the entry has been removed
+     * @param removed the value previously stored in the map, or null if there was no entry
+     */
+    private void updateWeight(TimedValue<V> added, TimedValue<V> removed) {
+        long delta = (added == null ? 0 : added.getWeight()) - (removed == null ? 0 : removed.getWeight());
+        if (delta != 0) {
+            totalWeight.add(delta);
+        }
+        if (removed != null && removed.isMarkedRetained()) {
+            retainedEntries.decrement();
+        }
+    }
+
+    /**
+     * Records the removal of a value of the map in the total weight.
+     *
+     * @param removed the value removed from the map, or null if there was no entry
+     */
+    private void releaseWeight(TimedValue<V> removed) {
+        updateWeight(null, removed);
+    }
+
+    /**
+     * Removes an entry from the map if the key is still associated with the given instance and if the entry is expired,
+     * the entries in their grace period are kept. The instance is compared by identity, because {@link TimedValue#equals(Object)} only compares the values.
+     *
+     * @param map               the map from which the entry is removed
+     * @param key               the key of the entry
+     * @param expected          the value expected to be stored for the key
+     * @param currentTimeMillis the current time in milliseconds
+     * @return true if the entry has been removed
+     */
+    static <K, V> boolean removeIfExpired(ConcurrentMap<K, TimedValue<V>> map, K key, TimedValue<V> expected, long currentTimeMillis) {
+        return removeIfExpired(map, key, expected, currentTimeMillis, null);
+    }
+
+    /**
+     * Removes an entry from the map if the key is still associated with the given instance and if the entry is expired,
+     * the entries in their grace period are kept and marked as retained instead.
+     *
+     * @param map               the map from which the entry is removed
+     * @param key               the key of the entry
+     * @param expected          the value expected to be stored for the key
+     * @param currentTimeMillis the current time in milliseconds
+     * @param retainedEntries   the counter of the retained entries of the map, incremented when an entry is marked, or null to only keep them
+     * @return true if the entry has been removed
+     */
+    static <K, V> boolean removeIfExpired(ConcurrentMap<K, TimedValue<V>> map, K key, TimedValue<V> expected, long currentTimeMillis,
+                                          LongAdder retainedEntries) {
+        boolean[] removed = new boolean[1];
+        map.computeIfPresent(key, (k, current) -> {
+            if (current != expected || current.isValid(currentTimeMillis)) {
+                return current;
+            }
+            if (!current.isRetained(currentTimeMillis)) {
+                removed[0] = true;
+                return null;
+            }
+            // The mark is set under the lock of the entry, so the thread that removes the entry sees it and decrements the counter
+            if (retainedEntries != null && current.markRetained()) {
+                retainedEntries.increment();
+            }
+            return current;
+        });
+        return removed[0];
+    }
+
+
+    /**
+     * This method provides a way to manually clean the map of entries that have exceeded their lifespan. It is a blocking method that
+     * removes all invalid entries. However, it is recommended to use the {@link #setCleanPeriod(long)} method instead,
+     * which automatically cleans the map at defined intervals.
+     * While the automatic cleaning is enabled, only the entries whose expiration time has been reached are visited,
+     * otherwise the whole map is iterated, in parallel if a pool is set with {@link #setParallelCleaning(ForkJoinPool, int)}.
+     */
+    public void cleanBlocking() {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            wheel.expire(currentTimeMillis, (key, value) -> releaseWeight(value));
+        } else {
+            removeExpiredEntries(currentTimeMillis);
+        }
+        releaseOffHeapSlabs(currentTimeMillis, (key, value) -> releaseWeight(value));
+    }
+
+    /**
+     * Browses all the entries and removes the invalid ones, the earliest expiration time of the entries left is computed
+     * at the same time and becomes the expiration watermark, so the map is not browsed again before this time.
+     * The removed entries are not reported to the listeners.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     */
+    private void removeExpiredEntries(long currentTimeMillis) {
+        boolean scan = expirationWatermark.tryBeginScan();
+        LongAccumulator earliestExpirationTimeMillis = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        try {
+            forEachEntry((key, valueWithTime) -> {
+                if (valueWithTime.isValid(currentTimeMillis) || !removeIfExpired(map, key, valueWithTime, currentTimeMillis)) {
+                    earliestExpirationTimeMillis.accumulate(valueWithTime.getExpirationTimeMillis());
+                } else {
+                    releaseWeight(valueWithTime);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (scan) {
+                expirationWatermark.abortScan();
+            }
+            throw e;
+        }
+        if (scan) {
+            expirationWatermark.endScan(earliestExpirationTimeMillis.get());
+        }
+    }
+
+    /**
+     * Performs the given action for each entry of the underlying map, including the invalid entries.
+     * If a cleaning pool is set, the entries are split between the workers of the pool.
+     *
+     * @param action the action, it must be thread-safe if a cleaning pool is set
+     */
+    private void forEachEntry(BiConsumer<K, TimedValue<V>> action) {
+        ForkJoinPool pool = cleaningPool;
+        if (pool == null) {
+            map.forEach(action);
+            return;
+        }
+        // The tasks forked by the bulk operation run in the pool of the worker that starts it
+        long threshold = parallelismThreshold;
+        pool.submit(() -> map.forEach(threshold, action)).join();
+    }
+
+    /**
+     * Enables the parallel cleaning of the map, for maps too large to be cleaned by a single thread.
+     * The expired entries found by a cleaning pass are removed by the workers of the pool, and the listeners are called
+     * by the cleaning thread once the workers are done. The listeners must still be thread-safe: the entries removed
+     * by the eviction or by the amortized cleaning are reported by the threads using the map, concurrently with the cleaning thread.
+     * The pool is also used when the whole map is iterated: by {@link #cleanBlocking()} when the automatic cleaning is disabled,
+     * and when the automatic cleaning is enabled on a map that already has entries.
+     *
+     * @param pool                 the pool cleaning the map, for example ForkJoinPool.commonPool(), or null to clean the map with a single thread
+     * @param parallelismThreshold the maximum number of entries visited by a task of the pool without being split
+     * @throws IllegalArgumentException if parallelismThreshold is not positive
+     */
+    public void setParallelCleaning(ForkJoinPool pool, int parallelismThreshold) {
+        if (parallelismThreshold <= 0) {
+            throw new IllegalArgumentException("the parallelism threshold must be positive");
+        }
+        this.parallelismThreshold = parallelismThreshold;
+        this.cleaningPool = pool;
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            wheel.setParallelism(pool, parallelismThreshold);
+        }
+    }
+
+    /**
+     * This method removes entries from the map that have exceeded their specified lifetime.
+     * This method is used to clean the map by the scheduler, it only visits the entries whose expiration time has been reached.
+     * A pass is limited by the budget set with {@link #setCleanBudget(int)} and {@link #setCleanBudgetNanos(long)},
+     * if expired entries are left the next pass starts with them and is scheduled immediately, behind the tasks of the other maps that are already due.
+     */
+    private void cleanTimer() {
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel == null) {
+            return;
+        }
+        long currentTimeMillis = ticker.currentTimeMillis();
+        synchronized (cleaningLock) {
+            // The running task is no longer scheduled, the entries scheduled from now on program the next cleaning themselves
+            cleaningTask = null;
+            nextCleaningTimeMillis = Long.MAX_VALUE;
+            lastCleaningTimeMillis = currentTimeMillis;
+        }
+        try {
+            wheel.expire(currentTimeMillis, cleanBudget, cleanBudgetNanos, this::onEntryRemoved);
+            releaseOffHeapSlabs(currentTimeMillis, this::onEntryRemoved);
+        } finally {
+            // The next cleaning is programmed even if a listener fails
+            if (wheel.isBudgetExhausted()) {
+                programCleaning(currentTimeMillis);
+            } else {
+                programCleaning(getCleaningTimeMillis(wheel.nextExpirationTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Releases the weight of an entry removed by the cleaning or the eviction and calls the listeners.
+     *
+     * @param key           the key of the removed entry
+     * @param valueWithTime the value that was stored for the key
+     */
+    private void onEntryRemoved(K key, TimedValue<V> valueWithTime) {
+        releaseWeight(valueWithTime);
+        if (!listeners.isEmpty()) {
+            V value = valueWithTime.getValue();
+            listeners.forEach(listener -> listener.onEntryRemoved(key, value));
+        }
+    }
+
+    /**
+     * Enables the amortized cleaning, which removes the expired entries without any thread.
+     * The reads and the writes that find an expired entry remove it, and on average every writesPerSweep writes,
+     * the writing thread also visits the next entriesPerSweep entries of the map and removes the expired ones.
+     * The sweeps resume where the previous one stopped, so the whole map is visited over time.
+     * In this mode, the listeners are also called by the threads using the map.
+     *
+     * @param writesPerSweep  the average number of writes between two sweeps, 0 to disable the amortized cleaning
+     * @param entriesPerSweep the number of entries visited by a sweep
+     * @throws IllegalArgumentException if writesPerSweep is negative or entriesPerSweep is not positive
+     */
+    public void setAmortizedCleaning(int writesPerSweep, int entriesPerSweep) {
+        if (writesPerSweep < 0 || entriesPerSweep <= 0) {
+            throw new IllegalArgumentException("writesPerSweep must not be negative and entriesPerSweep must be positive");
+        }
+        this.entriesPerSweep = entriesPerSweep;
+        this.writesPerSweep = writesPerSweep;
+    }
+
+    /**
+     * Removes an expired entry found by a read or a write, if the amortized cleaning is enabled.
+     *
+     * @param key           the key of the entry
+     * @param valueWithTime the value found for the key, it is only removed if it is still associated with the key
+     */
+    @SuppressWarnings("unchecked")
+    private void expireOnAccess(Object key, TimedValue<V> valueWithTime) {
+        if (writesPerSweep > 0 && removeIfExpired(map, (K) key, valueWithTime, ticker.currentTimeMillis())) {
+            onEntryRemoved((K) key, valueWithTime);
+        }
+    }
+
+    /**
+     * Records the use of the written key, requests the eviction if the map exceeds its bounds
+     * and sweeps a slice of the map, on average every writesPerSweep writes.
+     * The writes are sampled with a thread-local random number, a shared counter would be contended by all the writing threads.
+     *
+     * @param key the key of the written entry
+     */
+    private void afterWrite(K key) {
+        FrequencySketch sketch = frequencySketch;
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        if (exceedsBounds()) {
+            ArrayBlockingQueue<K> candidates = admissionCandidates;
+            if (candidates != null) {
+                candidates.offer(key);
+            }
+            requestEviction();
+        }
+        int writesPerSweep = this.writesPerSweep;
+        if (writesPerSweep <= 0 || ThreadLocalRandom.current().nextInt(writesPerSweep) != 0 || !sweepLock.tryLock()) {
+            return;
+        }
+        try {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            Iterator<Entry<K, TimedValue<V>>> iterator = sweepIterator;
+            if (iterator == null) {
+                iterator = map.entrySet().iterator();
+            }
+            for (int i = entriesPerSweep; i > 0 && iterator.hasNext(); i--) {
+                Entry<K, TimedValue<V>> entry = iterator.next();
+                TimedValue<V> valueWithTime = entry.getValue();
+                if (!valueWithTime.isValid(currentTimeMillis) && removeIfExpired(map, entry.getKey(), valueWithTime, currentTimeMillis)) {
+                    onEntryRemoved(entry.getKey(), valueWithTime);
+                }
+            }
+            // The next sweep starts again from the beginning of the map once it has been fully visited
+            sweepIterator = iterator.hasNext() ? iterator : null;
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries of the map. Once it is exceeded, the expired entries and then the entries chosen by the policy are evicted,
+     * the listeners are called for each evicted entry. The eviction runs in the cleaning scheduler if the cleaning is enabled,
+     * otherwise in the writing thread that exceeds the maximum size, unless another thread is already evicting entries.
+     * The size can exceed the maximum size until the eviction has run.
+     * Each evicted entry is the best candidate of a sample of {@value #EVICTION_SAMPLE_SIZE} entries.
+     *
+     * @param maximumSize    the maximum number of entries, Long.MAX_VALUE to not bound the size of the map
+     * @param evictionPolicy the policy choosing the evicted entries
+     * @throws IllegalArgumentException if maximumSize is negative
+     * @throws NullPointerException     if evictionPolicy is null
+     */
+    public void setMaximumSize(long maximumSize, EvictionPolicy evictionPolicy) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("the maximum size cannot be negative");
+        }
+        this.evictionPolicy = Objects.requireNonNull(evictionPolicy);
+        this.maximumSize = maximumSize;
+        updateFrequencySketch();
+        if (exceedsBounds()) {
+            requestEviction();
+        }
+    }
+
+    /**
+     * Sets the maximum total weight of the entries of the map, the weight of an entry is given by the weigher when it is written
+     * and stored with it. Once the maximum weight is exceeded, the entries are evicted as with {@link #setMaximumSize(long, EvictionPolicy)}.
+     * Only the entries written after this call are weighed, the entries already stored weigh 0.
+     * A weighed entry does not use the compact layout of {@link #setCompactEntries(boolean)}.
+     *
+     * @param maximumWeight  the maximum total weight, Long.MAX_VALUE to weigh the entries without bounding their weight
+     * @param weigher        the weigher of the entries, or null to stop weighing the new entries
+     * @param evictionPolicy the policy choosing the evicted entries
+     * @throws IllegalArgumentException if maximumWeight is negative
+     * @throws NullPointerException     if evictionPolicy is null
+     */
+    public void setMaximumWeight(long maximumWeight, Weigher<? super K, ? super V> weigher, EvictionPolicy evictionPolicy) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("the maximum weight cannot be negative");
+        }
+        this.evictionPolicy = Objects.requireNonNull(evictionPolicy);
+        this.weigher = weigher;
+        this.maximumWeight = weigher == null ? Long.MAX_VALUE : maximumWeight;
+        updateFrequencySketch();
+        if (exceedsBounds()) {
+            requestEviction();
+        }
+    }
+
+    /**
+     * Creates the frequency sketch of the {@link EvictionPolicy#TINY_LFU} policy, or drops it for the other policies.
+     * The sketch tracks as many keys as the maximum size of the map, or as the current number of entries if only the weight is bounded.
+     * The frequencies recorded before are forgotten.
+     */
+    private void updateFrequencySketch() {
+        if (evictionPolicy == EvictionPolicy.TINY_LFU) {
+            frequencySketch = new FrequencySketch(maximumSize != Long.MAX_VALUE ? maximumSize : map.mappingCount());
+            if (admissionCandidates == null) {
+                admissionCandidates = new ArrayBlockingQueue<>(ADMISSION_CANDIDATES);
+            }
+        } else {
+            frequencySketch = null;
+            admissionCandidates = null;
+        }
+    }
+
+    /**
+     * Returns the total weight of the entries of the map, see {@link #setMaximumWeight(long, Weigher, EvictionPolicy)}.
+     * The expired entries that are not removed yet are included.
+     *
+     * @return the total weight of the entries
+     */
+    public long weightedSize() {
+        return totalWeight.sum();
+    }
+
+    /**
+     * @return true if the map has more entries than its maximum size or a total weight greater than its maximum weight
+     */
+    private boolean exceedsBounds() {
+        long maximumWeight = this.maximumWeight;
+        return map.mappingCount() > maximumSize || (maximumWeight != Long.MAX_VALUE && totalWeight.sum() > maximumWeight);
+    }
+
+    /**
+     * Runs the eviction in the cleaning scheduler, or in the calling thread if the cleaning is disabled.
+     */
+    private void requestEviction() {
+        if (!evictionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (cleaningLock) {
+            if (scheduler != null) {
+                try {
+                    scheduler.execute(() -> {
+                        evictionScheduled.set(false);
+                        evict();
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // The scheduler has been shut down, the entries are evicted by the calling thread
+                }
+            }
+        }
+        evictionScheduled.set(false);
+        evict();
+    }
+
+    /**
+     * Evicts entries until the size and the weight of the map no longer exceed their maximums.
+     * The expired entries met in the samples are removed first.
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Entry<K, TimedValue<V>>[] sample = (Entry<K, TimedValue<V>>[]) new Entry<?, ?>[EVICTION_SAMPLE_SIZE];
+            while (exceedsBounds()) {
+                long currentTimeMillis = ticker.currentTimeMillis();
+                Iterator<Entry<K, TimedValue<V>>> iterator = evictionIterator;
+                if (iterator == null) {
+                    iterator = map.entrySet().iterator();
+                    if (!iterator.hasNext()) {
+                        return;
+                    }
+                }
+                // A sample stops at the end of the map, so it does not contain the same entry twice
+                int sampled = 0;
+                while (sampled < sample.length && iterator.hasNext()) {
+                    Entry<K, TimedValue<V>> entry = iterator.next();
+                    TimedValue<V> valueWithTime = entry.getValue();
+                    if (!valueWithTime.isValid(currentTimeMillis)) {
+                        if (removeIfExpired(map, entry.getKey(), valueWithTime, currentTimeMillis)) {
+                            onEntryRemoved(entry.getKey(), valueWithTime);
+                        }
+                    } else {
+                        sample[sampled++] = entry;
+                    }
+                }
+                evictionIterator = iterator.hasNext() ? iterator : null;
+                if (sampled > 0 && exceedsBounds()) {
+                    evictOne(sample, sampled);
+                }
+                Arrays.fill(sample, null);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the best candidate of a sample according to the eviction policy.
+     * The entry is not evicted if it has been replaced or removed since it was sampled.
+     *
+     * @param sample  the sampled entries
+     * @param sampled the number of sampled entries
+     */
+    private void evictOne(Entry<K, TimedValue<V>>[] sample, int sampled) {
+        EvictionPolicy policy = evictionPolicy;
+        FrequencySketch sketch = frequencySketch;
+        if (policy == EvictionPolicy.TINY_LFU && sketch != null) {
+            evictLeastFrequent(sample, sampled, sketch);
+            return;
+        }
+        Entry<K, TimedValue<V>> victim = null;
+        long victimRank = Long.MAX_VALUE;
+        for (int i = 0; i < sampled; i++) {
+            TimedValue<V> valueWithTime = sample[i].getValue();
+            long rank = policy == EvictionPolicy.LEAST_RECENTLY_USED
+                    ? valueWithTime.getLastTimeUsedMillis(lifeTimeMillis, extraLifeTimeAfterUseMillis)
+                    : valueWithTime.getExpirationTimeMillis();
+            if (victim == null || rank < victimRank) {
+                victim = sample[i];
+                victimRank = rank;
+            }
+        }
+        evictIfSame(victim.getKey(), victim.getValue());
+    }
+
+    /**
+     * Evicts the least frequently used entry of a sample, or the oldest admission candidate if it is not used more frequently.
+     * The entries used as frequently are ranked by their time of last use.
+     *
+     * @param sample  the sampled entries
+     * @param sampled the number of sampled entries
+     * @param sketch  the frequencies of use of the keys
+     */
+    private void evictLeastFrequent(Entry<K, TimedValue<V>>[] sample, int sampled, FrequencySketch sketch) {
+        Entry<K, TimedValue<V>> victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        long victimLastUse = Long.MAX_VALUE;
+        for (int i = 0; i < sampled; i++) {
+            int frequency = sketch.frequency(sample[i].getKey());
+            long lastUse = sample[i].getValue().getLastTimeUsedMillis(lifeTimeMillis, extraLifeTimeAfterUseMillis);
+            if (victim == null || frequency < victimFrequency || (frequency == victimFrequency && lastUse < victimLastUse)) {
+                victim = sample[i];
+                victimFrequency = frequency;
+                victimLastUse = lastUse;
+            }
+        }
+        // The candidate is the oldest key written while the map was full that is still in the map
+        ArrayBlockingQueue<K> candidates = admissionCandidates;
+        K candidate;
+        while (candidates != null && (candidate = candidates.poll()) != null) {
+            TimedValue<V> candidateValue = map.get(candidate);
+            if (candidateValue == null || candidate.equals(victim.getKey())) {
+                continue;
+            }
+            if (sketch.frequency(candidate) <= victimFrequency) {
+                // The candidate is rejected, the victim stays in the map
+                evictIfSame(candidate, candidateValue);
+                return;
+            }
+            break;
+        }
+        evictIfSame(victim.getKey(), victim.getValue());
+    }
+
+    /**
+     * Evicts an entry if the key is still associated with the given instance, and calls the listeners.
+     *
+     * @param key      the key of the entry
+     * @param expected the value that was stored for the key
+     */
+    private void evictIfSame(K key, TimedValue<V> expected) {
+        boolean[] removed = new boolean[1];
+        map.computeIfPresent(key, (k, current) -> {
+            if (current == expected) {
+                removed[0] = true;
+                return null;
+            }
+            return current;
+        });
+        if (removed[0]) {
+            onEntryRemoved(key, expected);
+        }
+    }
+
+    /**
+     * Programs the cleaning process at the given time if it is earlier than the next cleaning.
+     *
+     * @param cleaningTimeMillis the time at which the cleaning must run in milliseconds
+     */
+    private void programCleaning(long cleaningTimeMillis) {
+        if (cleaningTimeMillis >= nextCleaningTimeMillis) {
+            return;
+        }
+        synchronized (cleaningLock) {
+            if (scheduler == null || cleaningTimeMillis >= nextCleaningTimeMillis) {
+                return;
+            }
+            if (cleaningTask != null) {
+                cleaningTask.cancel(false);
+            }
+            nextCleaningTimeMillis = cleaningTimeMillis;
+            cleaningTask = scheduler.schedule(this::cleanTimer, Math.max(0, cleaningTimeMillis - ticker.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param expirationTimeMillis the time at which an entry expires in milliseconds
+     * @return the time at which the cleaning process can remove the entry, given the minimum time between two cleanings
+     */
+    private long getCleaningTimeMillis(long expirationTimeMillis) {
+        long lastCleaningTimeMillis = this.lastCleaningTimeMillis;
+        if (lastCleaningTimeMillis == Long.MIN_VALUE) {
+            return expirationTimeMillis;
+        }
+        return Math.max(expirationTimeMillis, lastCleaningTimeMillis + cleanPeriodMillis);
+    }
+
+    /**
+     * Programs the cleaning process for an entry that has just been scheduled in the expiration index.
+     * The entry is scheduled before this call, so a concurrent cleaning either sees it or has already reset the next cleaning time.
+     *
+     * @param valueWithTime the value that has been scheduled
+     */
+    private void onExpiryScheduled(TimedValue<V> valueWithTime) {
+        long expirationTimeMillis = valueWithTime.getExpirationTimeMillis();
+        if (expirationTimeMillis < nextCleaningTimeMillis) {
+            programCleaning(getCleaningTimeMillis(expirationTimeMillis));
+        }
+    }
+
+    /**
+     * Creates the expiration index and schedules the entries already in the map.
+     * The index is published before the map is iterated, so the entries added concurrently are scheduled by the put methods
+     * or found by the iteration. The entries are scheduled even if they are marked as indexed: their nodes were in
+     * the index of a previous cleaning period, which has been dropped.
+     */
+    private void enableExpiryWheel() {
+        if (expiryWheel != null) {
+            return;
+        }
+        ExpiryWheel<K, V> wheel = new ExpiryWheel<>(map, ticker.currentTimeMillis(), retainedEntries);
+        wheel.setParallelism(cleaningPool, parallelismThreshold);
+        expiryWheel = wheel;
+        forEachEntry(wheel::reschedule);
+    }
+
+
+    /**
+     * Returns a scheduler whose threads can be shared by any number of maps, see {@link #setCleaningScheduler(ScheduledExecutorService)}.
+     * It has one daemon thread for every 4 processors, its threads are never stopped.
+     *
+     * @return the shared cleaning scheduler
+     */
+    public static ScheduledExecutorService sharedCleaningScheduler() {
+        return CleaningSchedulers.shared();
+    }
+
+    /**
+     * Sets the scheduler running the cleaning process of this map.
+     * By default, each map creates its own thread, named after the threadName given to the constructor.
+     * A scheduler can be shared by many maps: the cleaning passes are short and the maps with many expired entries take turns with the others.
+     * Closing the map only cancels its cleaning task, the given scheduler is not shut down.
+     *
+     * @param cleaningScheduler the scheduler running the cleaning process, or null to use a thread of its own
+     */
+    public void setCleaningScheduler(ScheduledExecutorService cleaningScheduler) {
+        synchronized (cleaningLock) {
+            if (cleaningScheduler == this.cleaningScheduler) {
+                return;
+            }
+            this.cleaningScheduler = cleaningScheduler;
+            if (scheduler != null) {
+                stopScheduler();
+                reprogramCleaningProcess();
+            }
+        }
+    }
+
     /**
-     * Returns the creation time of the entry associated with the specified key, in milliseconds.
+     * This method allows changing the time between each map cleanup or disabling the cleanup by setting the value to 0.
+     * The cleaning only runs when an entry can actually be expired: it sleeps until the earliest expiration time of the entries,
+     * and two cleanings are separated by at least cleanPeriodMillis.
      *
-     * @param key the key associated with the entry whose creation time to retrieve.
-     * @return The creation time of the entry in milliseconds, or -1 if the entry does not exist
-     * @throws ClassCastException if the key is of an inappropriate type for this map
+     * @param cleanPeriodMillis The minimum time between each cleanup in milliseconds
      */
-    public long getCreationTimeMillis(Object key) {
-        ValueWithTime<V> valueWithTime = map.get(key);
-        if (valueWithTime == null) {
-            return -1;
+    public void setCleanPeriod(long cleanPeriodMillis) {
+        if (cleanPeriodMillis <= 0) {
+            disableCleaning();
+            return;
+        }
+        if (cleanPeriodMillis == this.cleanPeriodMillis) {
+            return;
         }
-        return valueWithTime.getCreationTimeMillis();
+        this.cleanPeriodMillis = cleanPeriodMillis;
+        enableExpiryWheel();
+        reprogramCleaningProcess();
     }
 
     /**
-     * Sets the creation time of the entry associated with the specified key.
+     * Sets the maximum number of expired entries visited by a cleaning pass of the cleaning thread, 10 000 by default.
+     * A smaller budget spreads the removal of many expired entries, and the calls to the listeners, over several short passes,
+     * at the cost of removing them later.
      *
-     * @param key                the key associated with the entry whose creation time to set.
-     * @param creationTimeMillis the creation time of the entry, in milliseconds.
-     * @return the old creation time in milliseconds or -1 if the entry does not exist or is no longer valid.
+     * @param maxEntries the maximum number of expired entries visited by a cleaning pass
+     * @throws IllegalArgumentException if maxEntries is not positive
      */
-    public long setCreationTimeMillis(Object key, long creationTimeMillis) {
-        ValueWithTime<V> valueWithTime = map.get(key);
-        if (valueWithTime == null || !valueWithTime.isValid()) {
-            return -1;
+    public void setCleanBudget(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("the clean budget must be positive");
         }
-        return valueWithTime.setCreationTimeMillis(creationTimeMillis);
+        this.cleanBudget = maxEntries;
     }
 
     /**
-     * Sets the lifespan of the entry associated with the specified key.
+     * Sets the maximum duration of a cleaning pass of the cleaning thread, the duration is not limited by default.
+     * The pass stops once the duration is exceeded, the next pass resumes with the expired entries left.
      *
-     * @param key            the key associated with the entry whose lifespan to set.
-     * @param lifeTimeMillis the lifespan of the entry, in milliseconds.
-     * @return The previous lifeTime of the entry in milliseconds or -1 if the entry does not exist or is no longer valid.
+     * @param maxNanos the maximum duration of a cleaning pass in nanoseconds, 0 to not limit the duration
      */
-    public long setLifeTimeMillis(Object key, long lifeTimeMillis) {
-        ValueWithTime<V> valueWithTime = map.get(key);
-        if (valueWithTime == null || !valueWithTime.isValid()) {
-            return -1;
-        }
-        return valueWithTime.setLifeTimeMillis(lifeTimeMillis);
+    public void setCleanBudgetNanos(long maxNanos) {
+        this.cleanBudgetNanos = Math.max(0, maxNanos);
     }
 
     /**
-     * Returns the time in milliseconds since the last use of the entry with the specified key.
+     * Sets the minimum time between two updates of the time of last use of an entry by getAndUpdateTimeSinceLastUse(Object key).
+     * The time of last use is only written when it is older than the granularity, so the entries read very often
+     * by many threads are no longer written on each read.
+     * The time of last use can then be up to granularityMillis behind the real one, so an entry can expire up to granularityMillis earlier.
      *
-     * @param key the key associated with the entry whose last usage time to retrieve.
-     * @return The time in milliseconds since the last use of the entry, or -1 if the entry does not exist.
+     * @param granularityMillis the minimum time in milliseconds between two updates, 0 to update the time on every use
+     * @throws IllegalArgumentException if granularityMillis is negative
      */
-    public long getLastTimeUsedMillis(Object key) {
-        ValueWithTime<V> valueWithTime = map.get(key);
-        if (valueWithTime == null) {
-            return -1;
+    public void setAccessTimeGranularity(long granularityMillis) {
+        if (granularityMillis < 0) {
+            throw new IllegalArgumentException("the access time granularity cannot be negative");
         }
-        return valueWithTime.getLastTimeUsedMillis();
+        this.accessTimeGranularityMillis = granularityMillis;
     }
 
     /**
-     * Sets the additional lifespan of the entry associated with the specified key after its last usage
+     * Stores the values of the new entries outside the heap, in slabs of slabSizeBytes bytes allocated with ByteBuffer.allocateDirect.
+     * The values and their times are written in the slabs with the serializer, and read back each time they are used,
+     * so the heap only holds a small object per entry. Each slab records the latest expiration time of its values
+     * and the cleaning releases the slabs whose values are all expired: the entries still referencing them are removed,
+     * then the slabs are recycled and their memory is reused by the next values, instead of waiting for the garbage collector.
+     * The values are never moved between slabs: an entry that lives longer than the others of its slab keeps the whole slab allocated,
+     * so this storage suits values with close lifetimes, and smaller slabs when the lifetimes differ.
+     * Changing the times of an entry with setLifeTimeMillis, setCreationTimeMillis or setExtraLifeTimeAfterUseMillis moves its value back to the heap.
      *
-     * @param key                            the key associated with the entry whose additional lifespan to set.
-     * @param setExtraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
-     * @return the old ExtraLifeTimeAfterUseMillis in milliseconds, or -1 if the entry does not exist or is no longer valid.
+     * @param serializer    the serializer of the values, null to keep the new values on the heap
+     * @param slabSizeBytes the size of the slabs in bytes, a larger value gets its own slab
+     * @throws IllegalArgumentException if slabSizeBytes is not positive
      */
-    public long setExtraLifeTimeAfterUseMillis(Object key, long setExtraLifeTimeAfterUseMillis) {
-        ValueWithTime<V> valueWithTime = map.get(key);
-        if (valueWithTime == null || !valueWithTime.isValid()) {
-            return -1;
+    public void setOffHeapStorage(ValueSerializer<V> serializer, int slabSizeBytes) {
+        if (serializer == null) {
+            this.offHeapStore = null;
+            return;
+        }
+        if (slabSizeBytes <= 0) {
+            throw new IllegalArgumentException("the size of the slabs must be positive");
         }
-        return valueWithTime.setExtraLifeTimeAfterUseMillis(setExtraLifeTimeAfterUseMillis);
+        this.offHeapStore = new OffHeapStore<>(serializer, slabSizeBytes);
     }
 
+    /**
+     * @return the number of slabs of the off-heap storage that are not released, 0 if the values are kept on the heap
+     */
+    int offHeapSlabCount() {
+        OffHeapStore<K, V> store = offHeapStore;
+        return store == null ? 0 : store.slabCount();
+    }
 
     /**
-     * This method provides a way to manually clean the map of entries that have exceeded their lifespan. It is a blocking method that
-     * iterates over the map and removes all invalid entries. However, it is recommended to use the {@link #setCleanPeriod(long)} method instead,
-     * which automatically cleans the map at defined intervals.
+     * @return the number of slabs allocated by the off-heap storage, 0 if the values are kept on the heap
      */
-    public void cleanBlocking() {
-        Iterator<K> iterator = map.keySet().iterator();
-        // Browse all keys and remove invalid entries.
-        while (iterator.hasNext()) {
-            K key = iterator.next();
-            ValueWithTime<V> valueWithTime = map.get(key);
-            if (!valueWithTime.isValid()) {
-                iterator.remove();
-            }
-        }
+    int offHeapAllocatedSlabCount() {
+        OffHeapStore<K, V> store = offHeapStore;
+        return store == null ? 0 : store.allocatedSlabCount();
     }
 
     /**
-     * This method removes entries from the map that have exceeded their specified lifetime.
-     * This method is used to clean the map by the Timer.
+     * Releases the slabs of the off-heap storage whose values are all expired, after removing the expired entries referencing them.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     * @param onRemoved         called for each entry removed from the map
      */
-    private void cleanTimer() {
-        Iterator<K> iterator = map.keySet().iterator();
-        // Iterate through all keys in the view and remove invalid entries
-        while (iterator.hasNext()) {
-            K key = iterator.next();
-            ValueWithTime<V> valueWithTime = map.get(key);
-            if (!valueWithTime.isValid()) {
-                listeners.forEach(listener -> listener.onEntryRemoved(key, valueWithTime.getValue()));
-                iterator.remove();
-            }
+    private void releaseOffHeapSlabs(long currentTimeMillis, BiConsumer<K, TimedValue<V>> onRemoved) {
+        OffHeapStore<K, V> store = offHeapStore;
+        if (store != null) {
+            store.release(currentTimeMillis, (key, value) -> {
+                if (removeIfExpired(map, key, value, currentTimeMillis)) {
+                    onRemoved.accept(key, value);
+                    return true;
+                }
+                return map.get(key) != value;
+            });
         }
     }
 
-
     /**
-     * Creates a named Timer with a specified thread name and sets the thread's priority to minimum.
+     * Shortens the lifetime of each new entry by a random duration, up to the given fraction of its lifetime, it is disabled by default.
+     * The entries written at the same time with the same lifetime, for example when the map is filled at startup,
+     * then expire over a period instead of all at once, and so do the reloads of their values.
+     * The extra lifetime after use is not changed. The jittered entries no longer have the default lifetimes of the map,
+     * so they use the full layout even if {@link #setCompactEntries(boolean)} is enabled.
      *
-     * @return a Timer object
+     * @param jitter the maximum fraction of the lifetime removed, from 0 to disable the jitter to 1 excluded
+     * @throws IllegalArgumentException if jitter is negative or not lower than 1
      */
-    private Timer createNamedTimer() {
-        Timer timer = new Timer(threadName, true);
-        timer.schedule(new TimerTask() {
-            public void run() {
-                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-            }
-        }, 0);
-        return timer;
+    public void setLifeTimeJitter(double jitter) {
+        if (!(jitter >= 0 && jitter < 1)) {
+            throw new IllegalArgumentException("the jitter must be between 0 included and 1 excluded");
+        }
+        this.lifeTimeJitter = jitter;
     }
 
-
     /**
-     * This method allows changing the time between each map cleanup or disabling the cleanup by setting the value to 0.
+     * Makes the entries created with the default lifetimes of the map use a compact layout, it is disabled by default.
+     * These entries only store their expiration times: 24 bytes per entry instead of 48 bytes without extra lifetime after use,
+     * 32 bytes with an extra lifetime after use, with compressed references.
+     * The entries created with their own lifetimes keep the full layout. Changing the times of an entry with a compact layout
+     * replaces it with a copy with the full layout.
+     * Without extra lifetime after use, the time of last use of the compact entries is not recorded.
+     * The compact layouts are not used if a default lifetime is greater than Long.MAX_VALUE / 4.
      *
-     * @param cleanPeriodMillis The time between each cleanup in milliseconds
+     * @param compactEntries true to use the compact layouts for the new entries
      */
-    public void setCleanPeriod(long cleanPeriodMillis) {
-        if (cleanPeriodMillis <= 0) {
-            disableCleaning();
-            return;
-        }
-        if (cleanPeriodMillis == this.cleanPeriodMillis) {
-            return;
-        }
-        this.cleanPeriodMillis = cleanPeriodMillis;
-        reprogramCleaningProcess();
+    public void setCompactEntries(boolean compactEntries) {
+        this.compactEntries = compactEntries;
     }
 
     /**
      * This method disables the cleaning process, note that the Thread is removed
      */
     private void disableCleaning() {
-        if (timerTask != null) {
-            timerTask.cancel();
-            timerTask = null;
+        synchronized (cleaningLock) {
+            expiryWheel = null;
+            cleanPeriodMillis = -1;
+            stopScheduler();
+        }
+    }
+
+    /**
+     * Cancels the cleaning task and shuts down the scheduler if it is owned by this map.
+     * Must be called while holding the cleaning lock.
+     */
+    private void stopScheduler() {
+        nextCleaningTimeMillis = Long.MAX_VALUE;
+        if (cleaningTask != null) {
+            cleaningTask.cancel(false);
+            cleaningTask = null;
         }
-        if (timer != null) {
-            timer.cancel();
-            timer = null;
+        if (scheduler != null && scheduler != cleaningScheduler) {
+            scheduler.shutdownNow();
         }
+        scheduler = null;
     }
 
     /**
      * This method reprograms the cleaning process for a new period.
      */
     private void reprogramCleaningProcess() {
-        if (timerTask != null) {
-            timerTask.cancel();
+        synchronized (cleaningLock) {
+            if (cleaningTask != null) {
+                cleaningTask.cancel(false);
+                cleaningTask = null;
+            }
+            if (scheduler == null) {
+                scheduler = cleaningScheduler != null ? cleaningScheduler : CleaningSchedulers.createNamedScheduler(threadName);
+            }
+            nextCleaningTimeMillis = Long.MAX_VALUE;
         }
-        if (timer == null) {
-            timer = createNamedTimer();
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            programCleaning(getCleaningTimeMillis(wheel.nextExpirationTimeMillis()));
         }
-        timerTask = new TimerTask() {
-            @Override
-            public void run() {
-                cleanTimer();
-            }
-        };
-        timer.schedule(timerTask, 0, cleanPeriodMillis);
     }
 
 
@@ -377,23 +1466,59 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     }
 
     /**
-     * <strong>/!\ This function may take a while to execute if the map is large. /!\</strong>
-     * The reason why this function is slow is that it is not possible to know how many invalid values are in the map.
-     * And there is no solution that does not increase the complexity of the put.
-     * Returns the size of the map.
+     * Returns the number of valid entries in the map, this method never removes entries.
+     * The number of entries stored in the map is returned in constant time when no entry can be expired.
+     * While the cleaning process is enabled, the expired entries that it has not removed yet are found with its expiration index
+     * and subtracted from that number, so the cost depends on the number of entries expired since the last cleaning pass.
+     * The expired entries kept during a grace period are counted apart and subtracted too.
+     * Otherwise the whole map is browsed to count the valid entries, until {@link #cleanBlocking()} removes the expired ones.
      * {@inheritDoc}
      */
     @Override
     public int size() {
-        int size = 0;
-        for (ValueWithTime<V> valueWithTime : map.values()) {
-            if (valueWithTime.isValid()) {
+        return (int) Math.min(mappingCount(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of valid entries in the map, like {@link #size()}.
+     * This method should be used instead of size() because the map may contain more mappings than can be represented as an int.
+     *
+     * @return the number of valid entries
+     */
+    public long mappingCount() {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        if (hasNoExpiredEntry(currentTimeMillis)) {
+            return map.mappingCount();
+        }
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            return Math.max(map.mappingCount() - wheel.countExpired(currentTimeMillis) - retainedEntries.sum(), 0);
+        }
+        long size = 0;
+        for (TimedValue<V> valueWithTime : map.values()) {
+            if (valueWithTime.isValid(currentTimeMillis)) {
                 size++;
             }
         }
         return size;
     }
 
+    /**
+     * Checks whether all the entries stored in the map are valid, in which case the counters of the underlying map are exact.
+     * While the cleaning process is enabled, the expiration index knows when the next entry expires and counts the expired entries
+     * kept during their grace period, otherwise the expiration watermark is a lower bound of the expiration times of the entries.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     * @return true if no entry stored in the map is expired
+     */
+    private boolean hasNoExpiredEntry(long currentTimeMillis) {
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            return currentTimeMillis < wheel.nextExpirationTimeMillis() && retainedEntries.sum() == 0;
+        }
+        return currentTimeMillis < expirationWatermark.get();
+    }
+
     /**
      * @return the size of the map, invalid entries are also include.
      */
@@ -402,17 +1527,26 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     }
 
     /**
-     * <strong>/!\ This function may take a while if the map is large. /!\</strong>
-     * Returns true if the map is empty.
-     * This method manually iterates through the values of the map instead of using the size() method of the ConcurrentHashMap class,
+     * Returns true if the map is empty, this method never removes entries.
+     * Like {@link #size()}, it runs in constant time when no entry can be expired,
+     * and uses the expiration index of the cleaning process when it is enabled.
+     * Otherwise it iterates through the values of the map until it finds a valid one,
      * because it is possible that some invalid entries might not have been removed from the map yet.
      * The isEmptyWithInvalid() function exists to check if the map is empty with invalid entries.
      * {@inheritDoc}
      */
     @Override
     public boolean isEmpty() {
-        for (ValueWithTime<V> valueWithTime : map.values()) {
-            if (valueWithTime.isValid()) {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        if (hasNoExpiredEntry(currentTimeMillis)) {
+            return map.isEmpty();
+        }
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            return map.mappingCount() <= wheel.countExpired(currentTimeMillis) + retainedEntries.sum();
+        }
+        for (TimedValue<V> valueWithTime : map.values()) {
+            if (valueWithTime.isValid(currentTimeMillis)) {
                 return false;
             }
         }
@@ -431,16 +1565,24 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     public boolean containsKey(Object key) {
         if (key == null)
             throw new NullPointerException();
-        ValueWithTime<V> valueWithTime = map.get(key);
-        return valueWithTime != null && valueWithTime.isValid();
+        TimedValue<V> valueWithTime = map.get(key);
+        if (valueWithTime == null) {
+            return false;
+        }
+        if (valueWithTime.isValid(ticker.currentTimeMillis())) {
+            return true;
+        }
+        expireOnAccess(key, valueWithTime);
+        return false;
     }
 
     @Override
     public boolean containsValue(Object value) {
         if (value == null)
             throw new NullPointerException();
-        for (ValueWithTime<V> valueWithTime : map.values()) {
-            if (valueWithTime.isValid() && valueWithTime.getValue().equals(value)) {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        for (TimedValue<V> valueWithTime : map.values()) {
+            if (valueWithTime.isValid(currentTimeMillis) && valueWithTime.getValue().equals(value)) {
                 return true;
             }
         }
@@ -451,11 +1593,29 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     public V get(Object key) {
         if (key == null)
             throw new NullPointerException();
-        ValueWithTime<V> valueWithTime = map.get(key);
+        recordRead(key);
+        TimedValue<V> valueWithTime = map.get(key);
         if (valueWithTime == null) {
             return null;
         }
-        return valueWithTime.getValueIfValid();
+        V value = valueWithTime.getValueIfValid(ticker.currentTimeMillis());
+        if (value == null) {
+            expireOnAccess(key, valueWithTime);
+        }
+        return value;
+    }
+
+    /**
+     * Records a read of a key in the frequency sketch of the {@link EvictionPolicy#TINY_LFU} policy, even if the key is absent,
+     * so a key that is often missed is admitted when it is written.
+     *
+     * @param key the key read
+     */
+    private void recordRead(Object key) {
+        FrequencySketch sketch = frequencySketch;
+        if (sketch != null) {
+            sketch.increment(key);
+        }
     }
 
     /**
@@ -467,14 +1627,18 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     public V getAndUpdateTimeSinceLastUse(Object key) {
         if (key == null)
             throw new NullPointerException();
-        ValueWithTime<V> valueWithTime = map.get(key);
+        recordRead(key);
+        TimedValue<V> valueWithTime = map.get(key);
         if (valueWithTime == null) {
             return null;
         }
-        if (valueWithTime.isValid()) {
-            valueWithTime.updateLastTimeUsedMillis();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        if (valueWithTime.isValid(currentTimeMillis)) {
+            valueWithTime.recordUse(currentTimeMillis, accessTimeGranularityMillis, extraLifeTimeAfterUseMillis);
+        } else {
+            expireOnAccess(key, valueWithTime);
         }
-        return valueWithTime.getValueIfValid();
+        return valueWithTime.getValueIfValid(currentTimeMillis);
     }
 
     /**
@@ -519,11 +1683,16 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     public V put(K key, V value, long lifeTimeMillis, long ExtraLifeTimeAfterUseMillis) {
         if (key == null || value == null)
             throw new NullPointerException();
-        ValueWithTime<V> oldValue = map.put(key, new ValueWithTime<>(value, lifeTimeMillis, ExtraLifeTimeAfterUseMillis));
+        long currentTimeMillis = ticker.currentTimeMillis();
+        TimedValue<V> valueWithTime = newValue(key, value, lifeTimeMillis, ExtraLifeTimeAfterUseMillis, currentTimeMillis);
+        TimedValue<V> oldValue = map.put(key, valueWithTime);
+        updateWeight(valueWithTime, oldValue);
+        scheduleExpiry(key, valueWithTime, oldValue);
+        afterWrite(key);
         if (oldValue == null) {
             return null;
         }
-        return oldValue.getValueIfValid();
+        return oldValue.getValueIfValid(currentTimeMillis);
     }
 
 
@@ -531,11 +1700,12 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     public V remove(Object key) {
         if (key == null)
             throw new NullPointerException();
-        ValueWithTime<V> valueWithTime = map.remove(key);
+        TimedValue<V> valueWithTime = map.remove(key);
+        releaseWeight(valueWithTime);
         if (valueWithTime == null) {
             return null;
         }
-        return valueWithTime.getValueIfValid();
+        return valueWithTime.getValueIfValid(ticker.currentTimeMillis());
     }
 
     @Override
@@ -549,7 +1719,18 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
 
     @Override
     public void clear() {
-        map.clear();
+        ExpiryWheel<K, V> wheel = expiryWheel;
+        if (wheel != null) {
+            // The wheel is cleared first, the entries added concurrently after this point keep their nodes
+            wheel.clear();
+        }
+        // The entries are removed one by one, so the weight of each removed value is released
+        for (K key : map.keySet()) {
+            map.computeIfPresent(key, (k, current) -> {
+                releaseWeight(current);
+                return null;
+            });
+        }
     }
 
     @Override
@@ -603,25 +1784,59 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
     public V putIfAbsent(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
         if (key == null || value == null)
             throw new NullPointerException();
-        if (containsKey(key)) {
-            return get(key);
+        long currentTimeMillis = ticker.currentTimeMillis();
+        TimedValue<V> valueWithTime = newValue(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, currentTimeMillis);
+        TimedValue<V> current = map.putIfAbsent(key, valueWithTime);
+        if (current == null) {
+            updateWeight(valueWithTime, null);
         } else {
-            map.put(key, new ValueWithTime<>(value, lifeTimeMillis, extraLifeTimeAfterUseMillis));
-            return null;
+            if (current.isValid(currentTimeMillis)) {
+                return current.getValue();
+            }
+            // The expired value is treated as absent, it is replaced only if it is still the current value.
+            // The instance is compared in the compute function because TimedValue#equals only compares the values.
+            @SuppressWarnings("unchecked")
+            TimedValue<V>[] found = (TimedValue<V>[]) new TimedValue<?>[2];
+            map.compute(key, (k, stored) -> {
+                if (stored != null && stored.isValid(currentTimeMillis)) {
+                    found[0] = stored;
+                    return stored;
+                }
+                found[1] = stored;
+                updateWeight(valueWithTime, stored);
+                return valueWithTime;
+            });
+            if (found[0] != null) {
+                return found[0].getValue();
+            }
+            current = found[1];
         }
+        scheduleExpiry(key, valueWithTime, current);
+        afterWrite(key);
+        return null;
     }
 
 
     @Override
+    @SuppressWarnings("unchecked")
     public boolean remove(Object key, Object value) {
-        // We check that the key exists and also that it is still valid to know if we return true or false.
-        // The function must not return true if the key exists but the value is no longer valid.
-        if (containsKey(key) && Objects.equals(map.get(key), value)) {
-            map.remove(key);
-            return true;
-        } else {
+        if (key == null)
+            throw new NullPointerException();
+        if (value == null) {
             return false;
         }
+        // The function must not return true if the key exists but the value is no longer valid.
+        long currentTimeMillis = ticker.currentTimeMillis();
+        boolean[] removed = new boolean[1];
+        map.computeIfPresent((K) key, (k, current) -> {
+            if (current.isValid(currentTimeMillis) && current.getValue().equals(value)) {
+                removed[0] = true;
+                releaseWeight(current);
+                return null;
+            }
+            return current;
+        });
+        return removed[0];
     }
 
     @Override
@@ -656,17 +1871,29 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
      * @return the previous value associated with key, or null if there was no mapping for key.
      */
     public boolean replace(K key, V oldValue, V newValue, long lifeTimeMillis, long ExtraLifeTimeAfterUseMillis) {
-        ValueWithTime<V> v = map.get(key);
-        if (v == null) {
-            return false;
-        } else {
-            if (v.isValid() && Objects.equals(v.getValue(), oldValue)) {
-                map.replace(key, new ValueWithTime<>(newValue, lifeTimeMillis, ExtraLifeTimeAfterUseMillis));
-                return true;
-            } else {
-                return false;
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        @SuppressWarnings("unchecked")
+        TimedValue<V>[] found = (TimedValue<V>[]) new TimedValue<?>[2];
+        map.computeIfPresent(key, (k, current) -> {
+            found[0] = current;
+            if (current.isValid(currentTimeMillis) && current.getValue().equals(oldValue)) {
+                found[1] = newValue(key, newValue, lifeTimeMillis, ExtraLifeTimeAfterUseMillis, currentTimeMillis);
+                updateWeight(found[1], current);
+                return found[1];
             }
+            return current;
+        });
+        if (found[1] != null) {
+            scheduleExpiry(key, found[1], found[0]);
+            afterWrite(key);
+            return true;
+        }
+        if (found[0] != null && !found[0].isValid(currentTimeMillis)) {
+            expireOnAccess(key, found[0]);
         }
+        return false;
     }
 
 
@@ -700,22 +1927,305 @@ public class ConcurrentHashMapAutoCleaning<K, V> extends AbstractMap<K, V> imple
      * @return the previous value associated with the specified key, or null if there was no mapping for the key
      */
     public V replace(K key, V value, long lifeTimeMillis, long ExtraLifeTimeAfterUseMillis) {
-        ValueWithTime<V> v = map.get(key);
-        if (v == null) {
-            return null;
-        } else {
-            if (v.isValid()) {
-                ValueWithTime<V> oldValue = map.replace(key, new ValueWithTime<>(value, lifeTimeMillis, ExtraLifeTimeAfterUseMillis));
-                if (oldValue == null) {
-                    return null;
-                } else {
-                    return oldValue.getValueIfValid();
-                }
-            } else {
-                return null;
+        if (key == null || value == null)
+            throw new NullPointerException();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        @SuppressWarnings("unchecked")
+        TimedValue<V>[] found = (TimedValue<V>[]) new TimedValue<?>[2];
+        map.computeIfPresent(key, (k, current) -> {
+            found[0] = current;
+            if (current.isValid(currentTimeMillis)) {
+                found[1] = newValue(key, value, lifeTimeMillis, ExtraLifeTimeAfterUseMillis, currentTimeMillis);
+                updateWeight(found[1], current);
+                return found[1];
             }
+            return current;
+        });
+        if (found[1] != null) {
+            scheduleExpiry(key, found[1], found[0]);
+            afterWrite(key);
+            return found[0].getValue();
+        }
+        if (found[0] != null) {
+            expireOnAccess(key, found[0]);
         }
+        return null;
+    }
+
+    /**
+     * Checks that a default lifetime is set in the constructor.
+     *
+     * @throws IllegalStateException if no default lifetime is set
+     */
+    private void checkDefaultLifeTime() {
+        if (lifeTimeMillis <= -1) {
+            throw new IllegalStateException("no default life time set, use the method with a lifeTimeMillis parameter instead");
+        }
+    }
+
+    /**
+     * Schedules the expiration of a value created by one of the compute methods.
+     *
+     * @param key           the key of the entry
+     * @param valueWithTime the value created for the key, or null if no value has been created
+     * @param previous      the value replaced by the created one, or null if the key was not in the map
+     */
+    private void afterCompute(K key, TimedValue<V> valueWithTime, TimedValue<V> previous) {
+        if (valueWithTime != null) {
+            scheduleExpiry(key, valueWithTime, previous);
+            afterWrite(key);
+        }
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, computes its value with the given function
+     * and associates it with the key with the default lifetime and the default time since the last usage.
+     * The whole method invocation is performed atomically, in a single operation of the underlying map,
+     * so the function must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        checkDefaultLifeTime();
+        return computeIfAbsent(key, mappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, computes its value with the given function
+     * and associates it with the key with a specific lifetime and the default time since the last usage.
+     *
+     * @param key             key with which the specified value is to be associated
+     * @param mappingFunction the function to compute a value
+     * @param lifeTimeMillis  the lifetime of the value in milliseconds
+     * @return the current (existing or computed) value associated with the specified key, or null if the computed value is null
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction, long lifeTimeMillis) {
+        return computeIfAbsent(key, mappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, computes its value with the given function
+     * and associates it with the key with a specific lifetime and a specific time since the last usage.
+     * An expired value is treated as absent, it is removed if the function returns null.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param mappingFunction             the function to compute a value
+     * @param lifeTimeMillis              the lifetime of the value in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the current (existing or computed) value associated with the specified key, or null if the computed value is null
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || mappingFunction == null)
+            throw new NullPointerException();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        TimedValue<V>[] created = (TimedValue<V>[]) new TimedValue<?>[2];
+        TimedValue<V> valueWithTime = map.compute(key, (k, current) -> {
+            if (current != null && current.isValid(currentTimeMillis)) {
+                return current;
+            }
+            V value = mappingFunction.apply(k);
+            if (value == null) {
+                releaseWeight(current);
+                return null;
+            }
+            created[0] = newValue(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, currentTimeMillis);
+            created[1] = current;
+            updateWeight(created[0], current);
+            return created[0];
+        });
+        afterCompute(key, created[0], created[1]);
+        return valueWithTime == null ? null : valueWithTime.getValue();
+    }
+
+    /**
+     * If the value for the specified key is present and valid, computes a new value with the given function
+     * and associates it with the key with the default lifetime and the default time since the last usage.
+     * The whole method invocation is performed atomically, in a single operation of the underlying map,
+     * so the function must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkDefaultLifeTime();
+        return computeIfPresent(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
     }
-}
 
+    /**
+     * If the value for the specified key is present and valid, computes a new value with the given function
+     * and associates it with the key with a specific lifetime and the default time since the last usage.
+     *
+     * @param key               key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @param lifeTimeMillis    the lifetime of the value in milliseconds
+     * @return the new value associated with the specified key, or null if none
+     */
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis) {
+        return computeIfPresent(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the value for the specified key is present and valid, computes a new value with the given function
+     * and associates it with the key with a specific lifetime and a specific time since the last usage.
+     * The entry is removed if the function returns null or if its value is expired.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param remappingFunction           the function to compute a value
+     * @param lifeTimeMillis              the lifetime of the value in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the new value associated with the specified key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        TimedValue<V>[] created = (TimedValue<V>[]) new TimedValue<?>[2];
+        map.computeIfPresent(key, (k, current) -> {
+            if (!current.isValid(currentTimeMillis)) {
+                releaseWeight(current);
+                return null;
+            }
+            V value = remappingFunction.apply(k, current.getValue());
+            if (value == null) {
+                releaseWeight(current);
+                return null;
+            }
+            created[0] = newValue(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, currentTimeMillis);
+            created[1] = current;
+            updateWeight(created[0], current);
+            return created[0];
+        });
+        afterCompute(key, created[0], created[1]);
+        return created[0] == null ? null : created[0].getValue();
+    }
+
+    /**
+     * Computes a new value for the specified key from its current valid value, or null if there is none,
+     * and associates it with the key with the default lifetime and the default time since the last usage.
+     * The whole method invocation is performed atomically, in a single operation of the underlying map,
+     * so the function must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkDefaultLifeTime();
+        return compute(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Computes a new value for the specified key from its current valid value, or null if there is none,
+     * and associates it with the key with a specific lifetime and the default time since the last usage.
+     *
+     * @param key               key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @param lifeTimeMillis    the lifetime of the value in milliseconds
+     * @return the new value associated with the specified key, or null if none
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis) {
+        return compute(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Computes a new value for the specified key from its current valid value, or null if there is none,
+     * and associates it with the key with a specific lifetime and a specific time since the last usage.
+     * The entry is removed if the function returns null.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param remappingFunction           the function to compute a value
+     * @param lifeTimeMillis              the lifetime of the value in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the new value associated with the specified key, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        TimedValue<V>[] created = (TimedValue<V>[]) new TimedValue<?>[2];
+        map.compute(key, (k, current) -> {
+            V value = remappingFunction.apply(k, current == null ? null : current.getValueIfValid(currentTimeMillis));
+            if (value == null) {
+                releaseWeight(current);
+                return null;
+            }
+            created[0] = newValue(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, currentTimeMillis);
+            created[1] = current;
+            updateWeight(created[0], current);
+            return created[0];
+        });
+        afterCompute(key, created[0], created[1]);
+        return created[0] == null ? null : created[0].getValue();
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, associates it with the given value,
+     * otherwise replaces the value with the result of the given function.
+     * The value is associated with the default lifetime and the default time since the last usage.
+     * The whole method invocation is performed atomically, in a single operation of the underlying map,
+     * so the function must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        checkDefaultLifeTime();
+        return merge(key, value, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, associates it with the given value,
+     * otherwise replaces the value with the result of the given function.
+     * The value is associated with a specific lifetime and the default time since the last usage.
+     *
+     * @param key               key with which the resulting value is to be associated
+     * @param value             the value to be merged with the existing value
+     * @param remappingFunction the function to recompute a value if present
+     * @param lifeTimeMillis    the lifetime of the value in milliseconds
+     * @return the new value associated with the specified key, or null if no value is associated with the key
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction, long lifeTimeMillis) {
+        return merge(key, value, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
 
+    /**
+     * If the specified key is not associated with a valid value, associates it with the given value,
+     * otherwise replaces the value with the result of the given function, or removes it if the result is null.
+     * The value is associated with a specific lifetime and a specific time since the last usage.
+     *
+     * @param key                         key with which the resulting value is to be associated
+     * @param value                       the value to be merged with the existing value
+     * @param remappingFunction           the function to recompute a value if present
+     * @param lifeTimeMillis              the lifetime of the value in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the new value associated with the specified key, or null if no value is associated with the key
+     */
+    @SuppressWarnings("unchecked")
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || value == null || remappingFunction == null)
+            throw new NullPointerException();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        TimedValue<V>[] created = (TimedValue<V>[]) new TimedValue<?>[2];
+        map.compute(key, (k, current) -> {
+            V oldValue = current == null ? null : current.getValueIfValid(currentTimeMillis);
+            V newValue = oldValue == null ? value : remappingFunction.apply(oldValue, value);
+            if (newValue == null) {
+                releaseWeight(current);
+                return null;
+            }
+            created[0] = newValue(key, newValue, lifeTimeMillis, extraLifeTimeAfterUseMillis, currentTimeMillis);
+            created[1] = current;
+            updateWeight(created[0], current);
+            return created[0];
+        });
+        afterCompute(key, created[0], created[1]);
+        return created[0] == null ? null : created[0].getValue();
+    }
+}
@@ -10,9 +10,9 @@ import java.util.Objects;
  * @param <V> The type of the value
  */
 class ConcurrentHashMapAutoCleaningEntry<K,V> implements Map.Entry<K, V> {
-    private final Map.Entry<K, ValueWithTime<V>> entry;
+    private final Map.Entry<K, TimedValue<V>> entry;
 
-    public ConcurrentHashMapAutoCleaningEntry(Map.Entry<K, ValueWithTime<V>> entry) {
+    public ConcurrentHashMapAutoCleaningEntry(Map.Entry<K, TimedValue<V>> entry) {
         this.entry = entry;
     }
 
@@ -13,18 +13,22 @@ import java.util.concurrent.ConcurrentMap;
  * @param <V> The type of the value in the hashmap
  */
 abstract class ConcurrentHashmapAutoCleaningBaseIterator<T, K, V> implements Iterator<T> {
-    private final Iterator<Map.Entry<K, ValueWithTime<V>>> iterator;
-    private final ConcurrentMap<K, ValueWithTime<V>> map;
-    private Map.Entry<K, ValueWithTime<V>> nextEntry;
-    private Map.Entry<K, ValueWithTime<V>> lastEntry;
+    private final Iterator<Map.Entry<K, TimedValue<V>>> iterator;
+    private final ConcurrentMap<K, TimedValue<V>> map;
+    private final ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning;
+    private Map.Entry<K, TimedValue<V>> nextEntry;
+    private Map.Entry<K, TimedValue<V>> lastEntry;
 
-    public ConcurrentHashmapAutoCleaningBaseIterator(Iterator<Map.Entry<K, ValueWithTime<V>>> iterator, ConcurrentMap<K, ValueWithTime<V>> map) {
+    public ConcurrentHashmapAutoCleaningBaseIterator(Iterator<Map.Entry<K, TimedValue<V>>> iterator, ConcurrentMap<K, TimedValue<V>> map,
+                                                     ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning) {
         this.iterator = iterator;
         this.map = map;
+        this.concurrentHashMapAutoCleaning = concurrentHashMapAutoCleaning;
         if (iterator.hasNext()) {
+            long currentTimeMillis = concurrentHashMapAutoCleaning.currentTimeMillis();
             nextEntry = iterator.next();
-            if (!nextEntry.getValue().isValid()) {
-                goToNextValidEntry();
+            if (!nextEntry.getValue().isValid(currentTimeMillis)) {
+                goToNextValidEntry(currentTimeMillis);
             }
         }
 
@@ -40,18 +44,20 @@ abstract class ConcurrentHashmapAutoCleaningBaseIterator<T, K, V> implements Ite
         if (nextEntry == null) {
             throw new NoSuchElementException();
         }
-        if (!nextEntry.getValue().isValid()) {
-            goToNextValidEntry();
+        // The time is read once for all the entries skipped by this call
+        long currentTimeMillis = concurrentHashMapAutoCleaning.currentTimeMillis();
+        if (!nextEntry.getValue().isValid(currentTimeMillis)) {
+            goToNextValidEntry(currentTimeMillis);
             if (nextEntry == null) {
                 return null;
             }
         }
         lastEntry = nextEntry;
-        goToNextValidEntry();
+        goToNextValidEntry(currentTimeMillis);
         return getT(lastEntry);
     }
 
-    abstract protected T getT(Map.Entry<K, ValueWithTime<V>> entry);
+    abstract protected T getT(Map.Entry<K, TimedValue<V>> entry);
 
     @Override
     public boolean hasNext() {
@@ -59,10 +65,10 @@ abstract class ConcurrentHashmapAutoCleaningBaseIterator<T, K, V> implements Ite
 
     }
 
-    private void goToNextValidEntry() {
+    private void goToNextValidEntry(long currentTimeMillis) {
         while (iterator.hasNext()) {
             nextEntry = iterator.next();
-            if (nextEntry.getValue().isValid()) {
+            if (nextEntry.getValue().isValid(currentTimeMillis)) {
                 return;
             }
         }
@@ -74,7 +80,7 @@ abstract class ConcurrentHashmapAutoCleaningBaseIterator<T, K, V> implements Ite
         if (lastEntry == null) {
             throw new IllegalStateException();
         }
-        map.remove(lastEntry.getKey());
+        concurrentHashMapAutoCleaning.remove(lastEntry.getKey());
         lastEntry = null;
     }
 }
@@ -13,10 +13,10 @@ import java.util.concurrent.ConcurrentMap;
  */
 class ConcurrentHashmapAutoCleaningCollection<K, V> extends AbstractCollection<V> {
 
-    private final ConcurrentMap<K, ValueWithTime<V>> map;
+    private final ConcurrentMap<K, TimedValue<V>> map;
     private final ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning;
 
-    public ConcurrentHashmapAutoCleaningCollection(ConcurrentMap<K, ValueWithTime<V>> map, ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning) {
+    public ConcurrentHashmapAutoCleaningCollection(ConcurrentMap<K, TimedValue<V>> map, ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning) {
         this.map = map;
         this.concurrentHashMapAutoCleaning = concurrentHashMapAutoCleaning;
     }
@@ -29,12 +29,12 @@ class ConcurrentHashmapAutoCleaningCollection<K, V> extends AbstractCollection<V
     class ConcurrentHashmapAutoCleaningCollectionIterator extends ConcurrentHashmapAutoCleaningBaseIterator<V, K, V> {
 
 
-        public ConcurrentHashmapAutoCleaningCollectionIterator(Iterator<Map.Entry<K, ValueWithTime<V>>> iterator, ConcurrentMap<K, ValueWithTime<V>> map) {
-            super(iterator, map);
+        public ConcurrentHashmapAutoCleaningCollectionIterator(Iterator<Map.Entry<K, TimedValue<V>>> iterator, ConcurrentMap<K, TimedValue<V>> map) {
+            super(iterator, map, concurrentHashMapAutoCleaning);
         }
 
         @Override
-        protected V getT(Map.Entry<K, ValueWithTime<V>> entry) {
+        protected V getT(Map.Entry<K, TimedValue<V>> entry) {
             return entry.getValue().getValue();
         }
     }
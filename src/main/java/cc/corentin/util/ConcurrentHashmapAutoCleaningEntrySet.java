@@ -13,10 +13,10 @@ import java.util.concurrent.ConcurrentMap;
  */
 class ConcurrentHashmapAutoCleaningEntrySet<K, V> extends AbstractSet<Map.Entry<K, V>> {
 
-    private final ConcurrentMap<K, ValueWithTime<V>> map;
+    private final ConcurrentMap<K, TimedValue<V>> map;
     private final ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning;
 
-    public ConcurrentHashmapAutoCleaningEntrySet(ConcurrentMap<K, ValueWithTime<V>> map, ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning) {
+    public ConcurrentHashmapAutoCleaningEntrySet(ConcurrentMap<K, TimedValue<V>> map, ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning) {
         this.map = map;
         this.concurrentHashMapAutoCleaning = concurrentHashMapAutoCleaning;
     }
@@ -28,12 +28,12 @@ class ConcurrentHashmapAutoCleaningEntrySet<K, V> extends AbstractSet<Map.Entry<
 
     class ConcurrentHashmapAutoCleaningSetIterator extends ConcurrentHashmapAutoCleaningBaseIterator<Map.Entry<K, V>, K, V> {
 
-        public ConcurrentHashmapAutoCleaningSetIterator(Iterator<Map.Entry<K, ValueWithTime<V>>> iterator, ConcurrentMap<K, ValueWithTime<V>> map) {
-            super(iterator, map);
+        public ConcurrentHashmapAutoCleaningSetIterator(Iterator<Map.Entry<K, TimedValue<V>>> iterator, ConcurrentMap<K, TimedValue<V>> map) {
+            super(iterator, map, concurrentHashMapAutoCleaning);
         }
 
         @Override
-        protected Map.Entry<K, V> getT(Map.Entry<K, ValueWithTime<V>> entry) {
+        protected Map.Entry<K, V> getT(Map.Entry<K, TimedValue<V>> entry) {
             return new ConcurrentHashMapAutoCleaningEntry<K,V>(entry);
         }
 
@@ -52,8 +52,8 @@ class ConcurrentHashmapAutoCleaningEntrySet<K, V> extends AbstractSet<Map.Entry<
         @SuppressWarnings("unchecked")
         Map.Entry<K, V> entry = (Map.Entry<K, V>) o;
 
-        ValueWithTime<V> valueWithTime = map.get(entry.getKey());
-        return valueWithTime != null && valueWithTime.isValid() && valueWithTime.getValue().equals(entry.getValue());
+        TimedValue<V> valueWithTime = map.get(entry.getKey());
+        return valueWithTime != null && valueWithTime.isValid(concurrentHashMapAutoCleaning.currentTimeMillis()) && valueWithTime.getValue().equals(entry.getValue());
     }
 
 }
@@ -13,10 +13,10 @@ import java.util.concurrent.ConcurrentMap;
  */
 class ConcurrentHashmapAutoCleaningKeySet<K, V> extends AbstractSet<K> {
 
-    private final ConcurrentMap<K, ValueWithTime<V>> map;
+    private final ConcurrentMap<K, TimedValue<V>> map;
     private final ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning;
 
-    public ConcurrentHashmapAutoCleaningKeySet(ConcurrentMap<K, ValueWithTime<V>> map, ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning) {
+    public ConcurrentHashmapAutoCleaningKeySet(ConcurrentMap<K, TimedValue<V>> map, ConcurrentHashMapAutoCleaning<K, V> concurrentHashMapAutoCleaning) {
         this.map = map;
         this.concurrentHashMapAutoCleaning = concurrentHashMapAutoCleaning;
     }
@@ -35,12 +35,12 @@ class ConcurrentHashmapAutoCleaningKeySet<K, V> extends AbstractSet<K> {
     class ConcurrentHashmapAutoCleaningSetIterator extends ConcurrentHashmapAutoCleaningBaseIterator<K, K, V> {
 
 
-        public ConcurrentHashmapAutoCleaningSetIterator(Iterator<Map.Entry<K, ValueWithTime<V>>> iterator, ConcurrentMap<K, ValueWithTime<V>> map) {
-            super(iterator, map);
+        public ConcurrentHashmapAutoCleaningSetIterator(Iterator<Map.Entry<K, TimedValue<V>>> iterator, ConcurrentMap<K, TimedValue<V>> map) {
+            super(iterator, map, concurrentHashMapAutoCleaning);
         }
 
         @Override
-        protected K getT(Map.Entry<K, ValueWithTime<V>> entry) {
+        protected K getT(Map.Entry<K, TimedValue<V>> entry) {
             return entry.getKey();
         }
     }
@@ -0,0 +1,75 @@
+package cc.corentin.util;
+
+/**
+ * The layout of the entries created with the default lifetimes of a map with an extra lifetime after use.
+ * It stores the expiration time and the expiration time after the last use,
+ * the creation time and the time of last use are computed from the default lifetimes of the map.
+ * With compressed references, an instance takes 32 bytes instead of 48 bytes for a {@link ValueWithTime}.
+ *
+ * @param <V> the type of value being stored
+ */
+class DeadlineAccessValue<V> extends TimedValue<V> {
+    /**
+     * The time from which the entry is no longer valid if it is not used, in milliseconds
+     */
+    private final long expirationTimeMillis;
+    /**
+     * The time from which the entry is no longer valid after its last use, in milliseconds, it is written by the threads reading the value
+     */
+    private volatile long accessExpirationTimeMillis;
+
+    /**
+     * Constructor
+     *
+     * @param value                       the value to store
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis the extra lifetime after use of the entry in milliseconds
+     * @param creationTimeMillis          the creation time of the value in milliseconds
+     * @throws IllegalArgumentException if the value is null
+     */
+    DeadlineAccessValue(V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long creationTimeMillis) {
+        super(value);
+        this.expirationTimeMillis = saturatedAdd(creationTimeMillis, lifeTimeMillis);
+        this.accessExpirationTimeMillis = saturatedAdd(creationTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    @Override
+    public boolean isValid(long currentTimeMillis) {
+        return currentTimeMillis < expirationTimeMillis || currentTimeMillis < accessExpirationTimeMillis;
+    }
+
+    @Override
+    public long getExpirationTimeMillis() {
+        return Math.max(expirationTimeMillis, accessExpirationTimeMillis);
+    }
+
+    @Override
+    public void recordUse(long currentTimeMillis, long granularityMillis, long extraLifeTimeAfterUseMillis) {
+        long lastTimeUsedMillis = accessExpirationTimeMillis - extraLifeTimeAfterUseMillis;
+        if (granularityMillis <= 0 || currentTimeMillis - lastTimeUsedMillis >= granularityMillis) {
+            accessExpirationTimeMillis = saturatedAdd(currentTimeMillis, extraLifeTimeAfterUseMillis);
+        }
+    }
+
+    @Override
+    public long getCreationTimeMillis(long lifeTimeMillis) {
+        return expirationTimeMillis - lifeTimeMillis;
+    }
+
+    @Override
+    public long getLastTimeUsedMillis(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return accessExpirationTimeMillis - extraLifeTimeAfterUseMillis;
+    }
+
+    @Override
+    public boolean hasLifeTimes(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return true;
+    }
+
+    @Override
+    public ValueWithTime<V> toValueWithTime(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        ValueWithTime<V> valueWithTime = new ValueWithTime<>(getValue(), lifeTimeMillis, extraLifeTimeAfterUseMillis, expirationTimeMillis - lifeTimeMillis);
+        valueWithTime.updateLastTimeUsedMillis(accessExpirationTimeMillis - extraLifeTimeAfterUseMillis);
+        return valueWithTime;
+    }
+}
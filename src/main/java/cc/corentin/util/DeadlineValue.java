@@ -0,0 +1,64 @@
+package cc.corentin.util;
+
+/**
+ * The layout of the entries created with the default lifetime of a map without extra lifetime after use.
+ * It only stores the expiration time, the creation time is computed from the default lifetime of the map.
+ * The time of last use is not recorded, since it does not change the expiration time.
+ * With compressed references, an instance takes 24 bytes instead of 48 bytes for a {@link ValueWithTime}.
+ *
+ * @param <V> the type of value being stored
+ */
+class DeadlineValue<V> extends TimedValue<V> {
+    /**
+     * The time from which the entry is no longer valid, in milliseconds
+     */
+    private final long expirationTimeMillis;
+
+    /**
+     * Constructor
+     *
+     * @param value              the value to store
+     * @param lifeTimeMillis     the lifetime of the entry in milliseconds
+     * @param creationTimeMillis the creation time of the value in milliseconds
+     * @throws IllegalArgumentException if the value is null
+     */
+    DeadlineValue(V value, long lifeTimeMillis, long creationTimeMillis) {
+        super(value);
+        this.expirationTimeMillis = saturatedAdd(creationTimeMillis, lifeTimeMillis);
+    }
+
+    @Override
+    public boolean isValid(long currentTimeMillis) {
+        return currentTimeMillis < expirationTimeMillis;
+    }
+
+    @Override
+    public long getExpirationTimeMillis() {
+        return expirationTimeMillis;
+    }
+
+    @Override
+    public void recordUse(long currentTimeMillis, long granularityMillis, long extraLifeTimeAfterUseMillis) {
+        // Without extra lifetime after use, a use does not change the expiration time
+    }
+
+    @Override
+    public long getCreationTimeMillis(long lifeTimeMillis) {
+        return expirationTimeMillis - lifeTimeMillis;
+    }
+
+    @Override
+    public long getLastTimeUsedMillis(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return expirationTimeMillis - lifeTimeMillis;
+    }
+
+    @Override
+    public boolean hasLifeTimes(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return true;
+    }
+
+    @Override
+    public ValueWithTime<V> toValueWithTime(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return new ValueWithTime<>(getValue(), lifeTimeMillis, extraLifeTimeAfterUseMillis, expirationTimeMillis - lifeTimeMillis);
+    }
+}
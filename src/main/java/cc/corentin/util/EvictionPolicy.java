@@ -0,0 +1,24 @@
+package cc.corentin.util;
+
+/**
+ * The policies choosing the entry evicted when a map exceeds its maximum size,
+ * see {@link ConcurrentHashMapAutoCleaning#setMaximumSize(long, EvictionPolicy)}.
+ * The eviction compares a sample of entries, so the evicted entry is one of the best candidates rather than the best one.
+ */
+public enum EvictionPolicy {
+    /**
+     * Evicts the entry that expires first
+     */
+    EARLIEST_EXPIRATION,
+    /**
+     * Evicts the entry whose time of last use is the oldest, the time of last use is only updated by getAndUpdateTimeSinceLastUse
+     */
+    LEAST_RECENTLY_USED,
+    /**
+     * Evicts the entry whose key has been read and written the least frequently recently, according to a count-min sketch of the keys,
+     * the entries used as frequently are evicted in the order of their time of last use.
+     * A key written while the map is full is only admitted if it is used more frequently than the entry it would evict,
+     * otherwise it is evicted itself, so the keys read or written once do not evict the keys used frequently.
+     */
+    TINY_LFU
+}
@@ -0,0 +1,86 @@
+package cc.corentin.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lower bound of the expiration times of the entries of a ConcurrentHashMapAutoCleaning.
+ * As long as the current time is before the watermark, no entry of the map is expired,
+ * so the number of entries stored in the map is also the number of valid entries.
+ * <p>
+ * The writes lower the watermark without locking, and a full scan of the map computes it again.
+ * The scans are serialized by a lock: the expiration times recorded since the beginning of a scan are kept apart,
+ * so an entry missed by a scan still lowers the watermark.
+ */
+class ExpirationWatermark {
+    /**
+     * The earliest expiration time recorded since the beginning of the last scan
+     */
+    private final AtomicLong pendingExpirationTimeMillis = new AtomicLong(Long.MAX_VALUE);
+    /**
+     * The earliest expiration time found by the last scan
+     */
+    private volatile long scannedExpirationTimeMillis = Long.MAX_VALUE;
+    /**
+     * Lock serializing the scans
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Records the expiration time of an entry, it must be called after the entry is stored in the map.
+     * This method is lock-free, it can be called by any thread.
+     *
+     * @param expirationTimeMillis the expiration time of the entry in milliseconds
+     */
+    public void lower(long expirationTimeMillis) {
+        long current;
+        while (expirationTimeMillis < (current = pendingExpirationTimeMillis.get())) {
+            if (pendingExpirationTimeMillis.compareAndSet(current, expirationTimeMillis)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the time in milliseconds before which no entry of the map expires
+     */
+    public long get() {
+        return Math.min(scannedExpirationTimeMillis, pendingExpirationTimeMillis.get());
+    }
+
+    /**
+     * Starts a scan of the map, unless another scan is running.
+     * If it returns true, the scan must be completed with {@link #endScan(long)} or {@link #abortScan()}.
+     *
+     * @return true if the scan can start
+     */
+    public boolean tryBeginScan() {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        // The pending time is folded into the scanned one before it is reset, so get() stays a lower bound during the scan
+        long pendingTimeMillis;
+        do {
+            pendingTimeMillis = pendingExpirationTimeMillis.get();
+            scannedExpirationTimeMillis = Math.min(scannedExpirationTimeMillis, pendingTimeMillis);
+        } while (!pendingExpirationTimeMillis.compareAndSet(pendingTimeMillis, Long.MAX_VALUE));
+        return true;
+    }
+
+    /**
+     * Completes a scan of the map.
+     *
+     * @param expirationTimeMillis the earliest expiration time of the entries found by the scan
+     */
+    public void endScan(long expirationTimeMillis) {
+        scannedExpirationTimeMillis = expirationTimeMillis;
+        lock.unlock();
+    }
+
+    /**
+     * Stops a scan of the map without changing the watermark.
+     */
+    public void abortScan() {
+        lock.unlock();
+    }
+}
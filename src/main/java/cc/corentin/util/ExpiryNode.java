@@ -0,0 +1,29 @@
+package cc.corentin.util;
+
+/**
+ * A node of the expiration index of the ConcurrentHashMapAutoCleaning class.
+ * It links a key to the {@link TimedValue} instance that was stored for it when the node was scheduled,
+ * when the key has been associated with another instance since then, the node is dropped or reused for the new instance.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+class ExpiryNode<K, V> {
+    /**
+     * The key of the entry
+     */
+    final K key;
+    /**
+     * The value stored for the key when the node was scheduled, or the value it has been reused for
+     */
+    TimedValue<V> value;
+    /**
+     * The next node in the same bucket or in the pending stack
+     */
+    ExpiryNode<K, V> next;
+
+    public ExpiryNode(K key, TimedValue<V> value) {
+        this.key = key;
+        this.value = value;
+    }
+}
@@ -0,0 +1,129 @@
+package cc.corentin.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free queue keeping the entries of a ConcurrentHashMapAutoCleaning in insertion order.
+ * It is used for the entries that have the default lifetime of the map: their insertion order is also their expiration order,
+ * so the cleaning pass only has to take the nodes at the head of the queue until it reaches one that is not expired.
+ * <p>
+ * Any thread can add nodes, but only one thread at a time can take them (the cleaning pass holding the lock of the {@link ExpiryWheel}).
+ * A node is published by swapping the tail and then linking the previous tail to it, a node whose link is not yet visible
+ * is simply taken by the next cleaning pass.
+ * <p>
+ * The insertion order is only almost the expiration order: the time is read before the node is added,
+ * so a thread can add its node after a node created later by another thread. The time of a node is therefore the latest
+ * expiration time of the nodes added up to it, the times of the queue never decrease and the time of the head
+ * is a lower bound of the times of all the nodes. {@link #offer(Object, TimedValue)} reports the nodes whose value expires
+ * before this time, the caller must schedule them somewhere else to remove them on time.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+class ExpiryQueue<K, V> {
+
+    /**
+     * A node of the queue, the last node taken from the queue is kept as the head of the queue
+     */
+    static final class Node<K, V> {
+        /**
+         * The key of the entry
+         */
+        K key;
+        /**
+         * The value stored for the key when the node was added
+         */
+        TimedValue<V> value;
+        /**
+         * The latest expiration time of the values of this node and of the nodes added before it, as of their insertion, in milliseconds
+         */
+        final long expirationTimeMillis;
+        /**
+         * The next node in insertion order
+         */
+        volatile Node<K, V> next;
+
+        Node(K key, TimedValue<V> value, long expirationTimeMillis) {
+            this.key = key;
+            this.value = value;
+            this.expirationTimeMillis = expirationTimeMillis;
+        }
+    }
+
+    /**
+     * The last node added to the queue
+     */
+    private final AtomicReference<Node<K, V>> tail;
+    /**
+     * The last node taken from the queue, only accessed by the consumer
+     */
+    private Node<K, V> head;
+
+    public ExpiryQueue() {
+        head = new Node<>(null, null, Long.MIN_VALUE);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * Adds a node at the end of the queue.
+     * This method is lock-free, it can be called by any thread.
+     *
+     * @param key   the key of the entry
+     * @param value the value stored for the key
+     * @return false if the value expires before a value added earlier, the node is then only taken once that value expires
+     */
+    public boolean offer(K key, TimedValue<V> value) {
+        long expirationTimeMillis = value.getScheduledTimeMillis();
+        Node<K, V> previous;
+        Node<K, V> node;
+        do {
+            previous = tail.get();
+            node = new Node<>(key, value, Math.max(expirationTimeMillis, previous.expirationTimeMillis));
+        } while (!tail.compareAndSet(previous, node));
+        previous.next = node;
+        return expirationTimeMillis >= previous.expirationTimeMillis;
+    }
+
+    /**
+     * @return the oldest node of the queue without removing it, or null if the queue is empty
+     */
+    public Node<K, V> peek() {
+        return head.next;
+    }
+
+    /**
+     * Removes the oldest node of the queue.
+     * The node keeps its expiration time but its key and value are released, they must be read before this call.
+     */
+    public void poll() {
+        Node<K, V> next = head.next;
+        if (next != null) {
+            next.key = null;
+            next.value = null;
+            head = next;
+        }
+    }
+
+    /**
+     * Counts the nodes of the queue, only the consumer can call this method.
+     *
+     * @return the number of nodes in the queue
+     */
+    public int size() {
+        int size = 0;
+        for (Node<K, V> node = head.next; node != null; node = node.next) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Removes all the nodes of the queue.
+     */
+    public void clear() {
+        Node<K, V> last = tail.get();
+        last.key = null;
+        last.value = null;
+        head = last;
+    }
+}
@@ -0,0 +1,91 @@
+package cc.corentin.util;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fork-join task removing from a map the expired entries of a range of nodes.
+ * The range is split in two until it has no more nodes than the parallelism threshold.
+ * Each task only writes the results of its own range, they are read once the whole task is joined.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+class ExpiryTask<K, V> extends RecursiveAction {
+    /**
+     * The tasks are never serialized, ForkJoinTask is only serializable for the remote execution frameworks
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The map from which the entries are removed
+     */
+    private final ConcurrentMap<K, TimedValue<V>> map;
+    /**
+     * The counter of the expired entries kept during their grace period
+     */
+    private final LongAdder retainedEntries;
+    /**
+     * The nodes whose expiration time has been reached
+     */
+    private final ExpiryNode<K, V>[] nodes;
+    /**
+     * Set to true for each node whose entry has been removed
+     */
+    private final boolean[] removed;
+    /**
+     * The first node of the range, inclusive
+     */
+    private final int from;
+    /**
+     * The last node of the range, exclusive
+     */
+    private final int to;
+    /**
+     * The current time in milliseconds
+     */
+    private final long currentTimeMillis;
+    /**
+     * The maximum number of nodes visited by a task without being split
+     */
+    private final int parallelismThreshold;
+
+    /**
+     * Constructor
+     *
+     * @param map                  the map from which the entries are removed
+     * @param retainedEntries      the counter of the expired entries kept during their grace period
+     * @param nodes                the nodes whose expiration time has been reached
+     * @param removed              the results, set to true for each node whose entry has been removed
+     * @param from                 the first node of the range, inclusive
+     * @param to                   the last node of the range, exclusive
+     * @param currentTimeMillis    the current time in milliseconds
+     * @param parallelismThreshold the maximum number of nodes visited by a task without being split
+     */
+    ExpiryTask(ConcurrentMap<K, TimedValue<V>> map, LongAdder retainedEntries, ExpiryNode<K, V>[] nodes, boolean[] removed, int from, int to,
+               long currentTimeMillis, int parallelismThreshold) {
+        this.map = map;
+        this.retainedEntries = retainedEntries;
+        this.nodes = nodes;
+        this.removed = removed;
+        this.from = from;
+        this.to = to;
+        this.currentTimeMillis = currentTimeMillis;
+        this.parallelismThreshold = parallelismThreshold;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= parallelismThreshold) {
+            for (int i = from; i < to; i++) {
+                ExpiryNode<K, V> node = nodes[i];
+                removed[i] = ConcurrentHashMapAutoCleaning.removeIfExpired(map, node.key, node.value, currentTimeMillis, retainedEntries);
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new ExpiryTask<>(map, retainedEntries, nodes, removed, from, middle, currentTimeMillis, parallelismThreshold),
+                new ExpiryTask<>(map, retainedEntries, nodes, removed, middle, to, currentTimeMillis, parallelismThreshold));
+    }
+}
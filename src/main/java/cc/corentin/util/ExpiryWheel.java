@@ -0,0 +1,774 @@
+package cc.corentin.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hierarchical timing wheel that indexes the entries of a ConcurrentHashMapAutoCleaning by their expiration time,
+ * so that a cleaning pass only visits the entries whose expiration time has been reached instead of the whole map.
+ * <p>
+ * The wheel is made of 5 levels of 64 buckets, the buckets of the first level cover 1 millisecond
+ * and each level covers 64 times the span of the previous one (64ms, 4s, 4min, 4h and 12 days).
+ * Entries that expire later than that are kept in an overflow bucket that is visited every 12 days.
+ * When the wheel advances, the entries of the higher levels are moved down to the lower levels until they are
+ * in the bucket of their expiration time.
+ * <p>
+ * The expiration time of an entry can change after it has been scheduled (last use, new lifetime, ...).
+ * When a node is reached and its entry is still valid, it is scheduled again with its new expiration time,
+ * so only the expiration times that are moved earlier need to be scheduled again by the map.
+ * <p>
+ * A value that replaces a value expiring no later than itself is not given a node of its own, it is marked as covered
+ * (see {@link TimedValue#isIndexed()}): when the node of the replaced value is reached, it is reused for the value now
+ * associated with its key. So a key written many times keeps a single node instead of one per write.
+ * The nodes of the entries that have been removed, or whose value already has a node, are dropped when they are reached.
+ * <p>
+ * Scheduling is lock-free: the nodes are pushed on a pending stack that is moved into the wheel by the cleaning pass.
+ * The wheel itself is only accessed by the cleaning passes, which are serialized by a lock.
+ * <p>
+ * The entries that share the default lifetime of the map expire in their insertion order, they can be scheduled in an
+ * {@link ExpiryQueue} instead of the wheel. The cleaning pass takes the expired nodes at the head of the queue and stops
+ * at the first one that is not expired. The entries of the queue whose expiration time has been pushed back are moved into the wheel.
+ * The time is read before the node is queued, so two threads can queue their entries out of order:
+ * an entry that expires before an entry queued earlier is also scheduled in the wheel.
+ * <p>
+ * The wheel keeps a lower bound of the expiration times of all the scheduled entries, see {@link #nextExpirationTimeMillis()},
+ * so the cleaning process can sleep until an entry can actually be expired.
+ * <p>
+ * A cleaning pass can be limited to a number of nodes or to a duration, so a map with many expired entries does not hold the cleaning thread for too long.
+ * The expired nodes that are not visited are kept in a ready list and the next pass starts with them.
+ * <p>
+ * When a fork-join pool is set, the expired nodes of a pass are collected and their entries are removed by the workers of the pool,
+ * the listener is then called by the thread running the pass, once the workers are done.
+ * <p>
+ * An entry with a grace period (see {@link GraceValue}) is visited at its expiration time, it is then marked as retained,
+ * counted in the counter of retained entries of the map, and visited again at the end of its grace period to be removed.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+class ExpiryWheel<K, V> {
+    /**
+     * Number of buckets of each level, the last level is the overflow bucket
+     */
+    private static final int[] BUCKETS = {64, 64, 64, 64, 64, 1};
+    /**
+     * Time span of a bucket of each level in milliseconds, the last value is repeated for the overflow bucket
+     */
+    private static final long[] SPANS = {1L, 1L << 6, 1L << 12, 1L << 18, 1L << 24, 1L << 30, 1L << 30};
+    /**
+     * Shift used to convert a time into ticks of each level
+     */
+    private static final int[] SHIFTS = {0, 6, 12, 18, 24, 30};
+
+    /**
+     * The map whose entries are indexed
+     */
+    private final ConcurrentMap<K, TimedValue<V>> map;
+    /**
+     * The number of expired entries kept during their grace period, shared with the map which decrements it when they are removed
+     */
+    private final LongAdder retainedEntries;
+    /**
+     * The buckets of each level, a bucket is a singly linked list of nodes
+     */
+    private final ExpiryNode<K, V>[][] wheel;
+    /**
+     * Nodes scheduled since the last cleaning pass
+     */
+    private final AtomicReference<ExpiryNode<K, V>> pending = new AtomicReference<>();
+    /**
+     * Entries scheduled in insertion order
+     */
+    private final ExpiryQueue<K, V> queue = new ExpiryQueue<>();
+    /**
+     * Expired nodes that have not been visited yet because the budget of the last pass was exhausted
+     */
+    private ExpiryNode<K, V> ready;
+    /**
+     * Number of nodes that the current pass can still visit
+     */
+    private int budget;
+    /**
+     * Number of nodes visited by the current pass
+     */
+    private int visited;
+    /**
+     * The System.nanoTime() at which the current pass must stop, only used if hasDeadline is true
+     */
+    private long deadlineNanos;
+    /**
+     * True if the current pass is limited in time
+     */
+    private boolean hasDeadline;
+    /**
+     * True if the last pass stopped because its budget was exhausted
+     */
+    private volatile boolean budgetExhausted;
+    /**
+     * The pool removing the expired entries in parallel, null to remove them in the thread running the pass
+     */
+    private volatile ForkJoinPool pool;
+    /**
+     * The maximum number of nodes visited by a task of the pool without being split
+     */
+    private volatile int parallelismThreshold;
+    /**
+     * Lock serializing the cleaning passes
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * The earliest expiration time scheduled since the beginning of the last cleaning pass
+     */
+    private final AtomicLong pendingExpirationTimeMillis = new AtomicLong(Long.MAX_VALUE);
+    /**
+     * A lower bound of the expiration times of the entries in the wheel and in the queue, computed at the end of the last cleaning pass
+     */
+    private volatile long indexedExpirationTimeMillis = Long.MAX_VALUE;
+    /**
+     * The time up to which the wheel has advanced, in milliseconds
+     */
+    private long currentTimeMillis;
+
+    /**
+     * Constructor
+     *
+     * @param map               the map whose entries are indexed
+     * @param currentTimeMillis the current time in milliseconds
+     */
+    public ExpiryWheel(ConcurrentMap<K, TimedValue<V>> map, long currentTimeMillis) {
+        this(map, currentTimeMillis, new LongAdder());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param map               the map whose entries are indexed
+     * @param currentTimeMillis the current time in milliseconds
+     * @param retainedEntries   the counter of the expired entries kept during their grace period, incremented when they are marked
+     */
+    @SuppressWarnings("unchecked")
+    public ExpiryWheel(ConcurrentMap<K, TimedValue<V>> map, long currentTimeMillis, LongAdder retainedEntries) {
+        this.map = map;
+        this.retainedEntries = retainedEntries;
+        this.currentTimeMillis = currentTimeMillis;
+        this.wheel = (ExpiryNode<K, V>[][]) new ExpiryNode<?, ?>[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = (ExpiryNode<K, V>[]) new ExpiryNode<?, ?>[BUCKETS[i]];
+        }
+    }
+
+    /**
+     * Schedules the removal of an entry at its expiration time.
+     * This method is lock-free, it can be called by any thread.
+     *
+     * @param key   the key of the entry
+     * @param value the value stored for the key
+     */
+    public void schedule(K key, TimedValue<V> value) {
+        schedule(key, value, null);
+    }
+
+    /**
+     * Schedules the removal of an entry at its expiration time, the value replaced a previous value of the key.
+     * No node is created if the node of the previous value can be reused.
+     * This method is lock-free, it can be called by any thread.
+     *
+     * @param key      the key of the entry
+     * @param value    the value stored for the key
+     * @param previous the value replaced by this one, or null if the key was not in the map
+     */
+    public void schedule(K key, TimedValue<V> value, TimedValue<V> previous) {
+        if (claim(value, previous)) {
+            push(new ExpiryNode<>(key, value));
+        }
+    }
+
+    /**
+     * Schedules again the removal of an entry whose expiration time has been moved earlier,
+     * or whose node was in a dropped index: a new node is created even if the value is marked as indexed.
+     * This method is lock-free, it can be called by any thread.
+     *
+     * @param key   the key of the entry
+     * @param value the value stored for the key
+     */
+    public void reschedule(K key, TimedValue<V> value) {
+        if (value.getScheduledTimeMillis() == Long.MAX_VALUE) {
+            return;
+        }
+        value.forceScheduled();
+        push(new ExpiryNode<>(key, value));
+    }
+
+    /**
+     * Pushes a node on the pending stack, it is moved into the wheel by the next cleaning pass.
+     */
+    private void push(ExpiryNode<K, V> node) {
+        ExpiryNode<K, V> head;
+        do {
+            head = pending.get();
+            node.next = head;
+        } while (!pending.compareAndSet(head, node));
+        lowerPendingExpirationTime(node.value.getScheduledTimeMillis());
+    }
+
+    /**
+     * Schedules the removal of an entry in insertion order.
+     * The entries scheduled with this method must expire almost in the order in which they are scheduled,
+     * which is the case for entries created with the same lifetime. An entry that expires before an entry scheduled earlier
+     * is also scheduled in the wheel.
+     * This method is lock-free, it can be called by any thread.
+     *
+     * @param key   the key of the entry
+     * @param value the value stored for the key
+     */
+    public void scheduleInOrder(K key, TimedValue<V> value) {
+        scheduleInOrder(key, value, null);
+    }
+
+    /**
+     * Schedules the removal of an entry in insertion order, the value replaced a previous value of the key.
+     * No node is created if the node of the previous value can be reused.
+     * This method is lock-free, it can be called by any thread.
+     *
+     * @param key      the key of the entry
+     * @param value    the value stored for the key
+     * @param previous the value replaced by this one, or null if the key was not in the map
+     */
+    public void scheduleInOrder(K key, TimedValue<V> value, TimedValue<V> previous) {
+        if (claim(value, previous)) {
+            if (queue.offer(key, value)) {
+                lowerPendingExpirationTime(value.getScheduledTimeMillis());
+            } else {
+                // The queue would only reach the entry after the entries queued before it, the wheel removes it on time
+                push(new ExpiryNode<>(key, value));
+            }
+        }
+    }
+
+    /**
+     * Decides if a node must be created for a new value.
+     * The node of the previous value is reused if it is reached before the new value expires,
+     * the new value is then only marked as covered. Otherwise, the new value is marked as scheduled,
+     * unless a cleaning pass has already reused a node for it.
+     *
+     * @return true if the caller must create a node for the value
+     */
+    private static <V> boolean claim(TimedValue<V> value, TimedValue<V> previous) {
+        long expirationTimeMillis = value.getScheduledTimeMillis();
+        if (expirationTimeMillis == Long.MAX_VALUE) {
+            // The entry never expires unless its expiration time is changed, in which case it is scheduled again.
+            return false;
+        }
+        if (previous != null && previous.isIndexed() && expirationTimeMillis >= previous.getScheduledTimeMillis()) {
+            // If the marking fails, a cleaning pass has already reused the node of the previous value
+            value.markCovered();
+            return false;
+        }
+        return value.markScheduled();
+    }
+
+    /**
+     * Returns a lower bound of the expiration times of the scheduled entries.
+     * No entry can expire before this time unless its expiration time is moved earlier, in which case it must be scheduled again.
+     * The value is exact for the entries that expire in the next 64 milliseconds, otherwise it may be earlier than the actual expiration time.
+     *
+     * @return the time in milliseconds before which no scheduled entry expires, or Long.MAX_VALUE if no entry is scheduled
+     */
+    public long nextExpirationTimeMillis() {
+        return Math.min(indexedExpirationTimeMillis, pendingExpirationTimeMillis.get());
+    }
+
+    /**
+     * Counts the nodes of the wheel, of the queue, of the ready list and of the pending stack.
+     * The nodes are visited one by one, this method is meant for the tests and the diagnostics.
+     *
+     * @return the number of nodes held by the wheel
+     */
+    public int size() {
+        lock.lock();
+        try {
+            int size = count(pending.get()) + count(ready) + queue.size();
+            for (ExpiryNode<K, V>[] buckets : wheel) {
+                for (ExpiryNode<K, V> bucket : buckets) {
+                    size += count(bucket);
+                }
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the keys whose stored value is expired, without removing them.
+     * Every expired entry has a node whose expiration time is reached, so only these nodes are visited:
+     * the ready list, the head of the queue, the buckets between the time of the last pass and the given time,
+     * and the nodes scheduled since the last pass. The cost depends on the entries expired since the last pass, not on the size of the map.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     * @return the number of keys associated with an expired value
+     */
+    public int countExpired(long currentTimeMillis) {
+        lock.lock();
+        try {
+            Set<K> keys = new HashSet<>();
+            collectExpired(pending.get(), currentTimeMillis, keys);
+            collectExpired(ready, currentTimeMillis, keys);
+            for (ExpiryQueue.Node<K, V> node = queue.peek(); node != null && node.expirationTimeMillis <= currentTimeMillis; node = node.next) {
+                collectExpired(node.key, currentTimeMillis, keys);
+            }
+            // The same buckets as the ones visited by advance(currentTimeMillis)
+            for (int level = 0; level < SHIFTS.length; level++) {
+                ExpiryNode<K, V>[] buckets = wheel[level];
+                int mask = buckets.length - 1;
+                long previousTicks = this.currentTimeMillis >>> SHIFTS[level];
+                long delta = (currentTimeMillis >>> SHIFTS[level]) - previousTicks;
+                if (delta < 0 || (delta == 0 && level > 0)) {
+                    break;
+                }
+                int steps = (int) Math.min(1 + delta, buckets.length);
+                for (int i = 0; i < steps; i++) {
+                    collectExpired(buckets[(int) ((previousTicks + i) & mask)], currentTimeMillis, keys);
+                }
+            }
+            return keys.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds to the given set the keys of a linked list of nodes whose stored value is expired.
+     */
+    private void collectExpired(ExpiryNode<K, V> node, long currentTimeMillis, Set<K> keys) {
+        for (; node != null; node = node.next) {
+            collectExpired(node.key, currentTimeMillis, keys);
+        }
+    }
+
+    /**
+     * Adds a key to the given set if its stored value is expired and not counted yet as a retained entry.
+     * The stored value is checked rather than the value of the node, which may have been replaced by a value that reuses the node.
+     */
+    private void collectExpired(K key, long currentTimeMillis, Set<K> keys) {
+        TimedValue<V> current = map.get(key);
+        if (current != null && !current.isValid(currentTimeMillis) && !current.isMarkedRetained()) {
+            keys.add(key);
+        }
+    }
+
+    /**
+     * @return the number of nodes of a linked list
+     */
+    private static int count(ExpiryNode<?, ?> node) {
+        int count = 0;
+        for (; node != null; node = node.next) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Sets the pool removing the expired entries in parallel.
+     *
+     * @param pool                 the pool removing the expired entries, null to remove them in the thread running the pass
+     * @param parallelismThreshold the maximum number of nodes visited by a task of the pool without being split
+     */
+    public void setParallelism(ForkJoinPool pool, int parallelismThreshold) {
+        this.parallelismThreshold = parallelismThreshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Records the expiration time of a node that has just been scheduled.
+     * It is called after the node is published, so either the next cleaning pass moves the node into the wheel,
+     * or the time is still recorded after this pass.
+     */
+    private void lowerPendingExpirationTime(long expirationTimeMillis) {
+        long current;
+        while (expirationTimeMillis < (current = pendingExpirationTimeMillis.get())) {
+            if (pendingExpirationTimeMillis.compareAndSet(current, expirationTimeMillis)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel to the given time and removes from the map the entries that are expired.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     * @param onRemoved         listener called with the stored instance of each entry removed from the map
+     * @return the number of entries removed from the map
+     */
+    public int expire(long currentTimeMillis, OnEntryRemovedListener<K, TimedValue<V>> onRemoved) {
+        return expire(currentTimeMillis, Integer.MAX_VALUE, 0, onRemoved);
+    }
+
+    /**
+     * Advances the wheel to the given time and removes from the map the entries that are expired,
+     * visiting at most the given number of expired nodes during at most the given duration.
+     * The nodes left are visited first by the next pass.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     * @param maxNodes          the maximum number of expired nodes visited by this pass
+     * @param maxNanos          the maximum duration of the visit of the expired nodes in nanoseconds, 0 or less for no limit
+     * @param onRemoved         listener called with the stored instance of each entry removed from the map
+     * @return the number of entries removed from the map
+     */
+    public int expire(long currentTimeMillis, int maxNodes, long maxNanos, OnEntryRemovedListener<K, TimedValue<V>> onRemoved) {
+        lock.lock();
+        try {
+            hasDeadline = maxNanos > 0;
+            if (hasDeadline) {
+                deadlineNanos = System.nanoTime() + maxNanos;
+            }
+            if (currentTimeMillis < this.currentTimeMillis) {
+                // The clock went backwards, the buckets no longer match the time
+                rebuild(currentTimeMillis);
+            }
+            // The pending expiration time is folded into the indexed one before it is reset,
+            // so nextExpirationTimeMillis() never returns a time later than the expiration of a scheduled node.
+            long pendingTimeMillis;
+            do {
+                pendingTimeMillis = pendingExpirationTimeMillis.get();
+                indexedExpirationTimeMillis = Math.min(indexedExpirationTimeMillis, pendingTimeMillis);
+            } while (!pendingExpirationTimeMillis.compareAndSet(pendingTimeMillis, Long.MAX_VALUE));
+            drainPending();
+            budget = maxNodes;
+            visited = 0;
+            int removed;
+            ForkJoinPool pool = this.pool;
+            if (pool != null) {
+                removed = expireParallel(pool, currentTimeMillis, onRemoved);
+            } else {
+                removed = expireReady(currentTimeMillis, onRemoved);
+                removed += expireQueue(currentTimeMillis, onRemoved);
+                if (budget > 0) {
+                    advance(currentTimeMillis);
+                    removed += expireReady(currentTimeMillis, onRemoved);
+                }
+            }
+            budgetExhausted = budget == 0;
+            indexedExpirationTimeMillis = computeNextExpirationTimeMillis();
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the last cleaning pass stopped because its budget was exhausted, the expired entries left are removed by the next pass
+     */
+    public boolean isBudgetExhausted() {
+        return budgetExhausted;
+    }
+
+    /**
+     * Removes all the nodes from the wheel.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            pending.set(null);
+            ready = null;
+            queue.clear();
+            for (ExpiryNode<K, V>[] buckets : wheel) {
+                Arrays.fill(buckets, null);
+            }
+            indexedExpirationTimeMillis = Long.MAX_VALUE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the nodes scheduled since the last pass into the wheel.
+     */
+    private void drainPending() {
+        ExpiryNode<K, V> node = pending.getAndSet(null);
+        while (node != null) {
+            ExpiryNode<K, V> next = node.next;
+            add(node, node.value.getScheduledTimeMillis());
+            node = next;
+        }
+    }
+
+    /**
+     * Takes the nodes at the head of the queue until it reaches one whose expiration time, as of its insertion, is not reached.
+     * The entries whose expiration time has been pushed back since their insertion are moved into the wheel.
+     */
+    private int expireQueue(long currentTimeMillis, OnEntryRemovedListener<K, TimedValue<V>> onRemoved) {
+        int removed = 0;
+        ExpiryQueue.Node<K, V> node;
+        while (budget > 0 && (node = queue.peek()) != null && node.expirationTimeMillis <= currentTimeMillis) {
+            K key = node.key;
+            TimedValue<V> value = node.value;
+            queue.poll();
+            consumeBudget();
+            long expirationTimeMillis = value.getScheduledTimeMillis();
+            if (expirationTimeMillis > currentTimeMillis) {
+                if (expirationTimeMillis != Long.MAX_VALUE) {
+                    add(new ExpiryNode<>(key, value), expirationTimeMillis);
+                }
+            } else if (ConcurrentHashMapAutoCleaning.removeIfExpired(map, key, value, currentTimeMillis, retainedEntries)) {
+                removed++;
+                onRemoved.onEntryRemoved(key, value);
+            } else {
+                TimedValue<V> current = adoptCurrentValue(key, value);
+                if (current != null) {
+                    add(new ExpiryNode<>(key, current), current.getScheduledTimeMillis());
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Finds the value that a node must follow once the entry of its value could not be removed:
+     * the value is still associated with its key and has been used in the meantime,
+     * or it has been replaced by a value that has no node of its own yet.
+     *
+     * @param key   the key of the node
+     * @param value the value of the node
+     * @return the value the node must be scheduled again for, or null if the node must be dropped
+     */
+    private TimedValue<V> adoptCurrentValue(K key, TimedValue<V> value) {
+        TimedValue<V> current = map.get(key);
+        if (current == null || (current != value && !current.markScheduled())
+                || current.getScheduledTimeMillis() == Long.MAX_VALUE) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Schedules again a node whose entry could not be removed, or drops it, see {@link #adoptCurrentValue(Object, TimedValue)}.
+     */
+    private void rescheduleOrDrop(ExpiryNode<K, V> node) {
+        TimedValue<V> current = adoptCurrentValue(node.key, node.value);
+        if (current != null) {
+            node.value = current;
+            add(node, current.getScheduledTimeMillis());
+        }
+    }
+
+    /**
+     * Removes the entries of the ready list while the budget of the pass is not exhausted.
+     * The entries whose expiration time has been pushed back since they were reached are scheduled again.
+     */
+    private int expireReady(long currentTimeMillis, OnEntryRemovedListener<K, TimedValue<V>> onRemoved) {
+        int removed = 0;
+        while (budget > 0 && ready != null) {
+            ExpiryNode<K, V> node = ready;
+            ready = node.next;
+            consumeBudget();
+            long expirationTimeMillis = node.value.getScheduledTimeMillis();
+            if (expirationTimeMillis > currentTimeMillis) {
+                if (expirationTimeMillis != Long.MAX_VALUE) {
+                    add(node, expirationTimeMillis);
+                }
+            } else if (ConcurrentHashMapAutoCleaning.removeIfExpired(map, node.key, node.value, currentTimeMillis, retainedEntries)) {
+                removed++;
+                onRemoved.onEntryRemoved(node.key, node.value);
+            } else {
+                rescheduleOrDrop(node);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Collects the expired nodes of the ready list, the queue and the wheel, and removes their entries with the tasks of the pool.
+     * The nodes whose entry has not been removed are scheduled again, or reused for the new value of their key,
+     * and the listener is called once all the tasks are done.
+     */
+    @SuppressWarnings("unchecked")
+    private int expireParallel(ForkJoinPool pool, long currentTimeMillis, OnEntryRemovedListener<K, TimedValue<V>> onRemoved) {
+        List<ExpiryNode<K, V>> collected = new ArrayList<>();
+        collectReady(collected);
+        ExpiryQueue.Node<K, V> head;
+        while (budget > 0 && (head = queue.peek()) != null && head.expirationTimeMillis <= currentTimeMillis) {
+            collected.add(new ExpiryNode<>(head.key, head.value));
+            queue.poll();
+            consumeBudget();
+        }
+        if (budget > 0) {
+            advance(currentTimeMillis);
+            collectReady(collected);
+        }
+        ExpiryNode<K, V>[] nodes = (ExpiryNode<K, V>[]) collected.toArray(new ExpiryNode<?, ?>[0]);
+        boolean[] removedNodes = new boolean[nodes.length];
+        pool.invoke(new ExpiryTask<>(map, retainedEntries, nodes, removedNodes, 0, nodes.length, currentTimeMillis, Math.max(1, parallelismThreshold)));
+        int removed = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            ExpiryNode<K, V> node = nodes[i];
+            if (removedNodes[i]) {
+                removed++;
+                onRemoved.onEntryRemoved(node.key, node.value);
+            } else {
+                long expirationTimeMillis = node.value.getScheduledTimeMillis();
+                if (expirationTimeMillis > currentTimeMillis) {
+                    if (expirationTimeMillis != Long.MAX_VALUE) {
+                        add(node, expirationTimeMillis);
+                    }
+                } else {
+                    rescheduleOrDrop(node);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Moves the nodes of the ready list to the given list while the budget of the pass is not exhausted.
+     */
+    private void collectReady(List<ExpiryNode<K, V>> collected) {
+        while (budget > 0 && ready != null) {
+            ExpiryNode<K, V> node = ready;
+            ready = node.next;
+            collected.add(node);
+            consumeBudget();
+        }
+    }
+
+    /**
+     * Counts a visited node. The clock is only read every 64 nodes, reading it for each node would cost more than the visit itself.
+     */
+    private void consumeBudget() {
+        budget--;
+        if (hasDeadline && (++visited & 63) == 0 && System.nanoTime() - deadlineNanos >= 0) {
+            budget = 0;
+        }
+    }
+
+    /**
+     * Advances the wheel and visits the buckets whose time span has been reached on each level.
+     */
+    private void advance(long currentTimeMillis) {
+        long previousTimeMillis = this.currentTimeMillis;
+        this.currentTimeMillis = currentTimeMillis;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long previousTicks = previousTimeMillis >>> SHIFTS[level];
+            long currentTicks = currentTimeMillis >>> SHIFTS[level];
+            long delta = currentTicks - previousTicks;
+            if (delta < 0 || (delta == 0 && level > 0)) {
+                break;
+            }
+            cascade(level, previousTicks, delta);
+        }
+    }
+
+    /**
+     * Visits the buckets of a level between the previous and the current tick.
+     * The expired nodes are moved to the ready list, the others are scheduled again in a lower level.
+     */
+    private void cascade(int level, long previousTicks, long delta) {
+        ExpiryNode<K, V>[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1 + delta, buckets.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            ExpiryNode<K, V> node = buckets[i & mask];
+            buckets[i & mask] = null;
+            while (node != null) {
+                ExpiryNode<K, V> next = node.next;
+                long expirationTimeMillis = node.value.getScheduledTimeMillis();
+                if (expirationTimeMillis > currentTimeMillis) {
+                    if (expirationTimeMillis != Long.MAX_VALUE) {
+                        add(node, expirationTimeMillis);
+                    }
+                } else {
+                    node.next = ready;
+                    ready = node;
+                }
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * Computes a lower bound of the expiration times of the nodes in the queue and in the wheel.
+     * A bucket of the first level is exact to the millisecond, for the other levels the start of the bucket is used,
+     * which is when its nodes are moved down to a lower level.
+     * The nodes of the ready list are already expired.
+     */
+    private long computeNextExpirationTimeMillis() {
+        if (ready != null) {
+            return currentTimeMillis;
+        }
+        long next = Long.MAX_VALUE;
+        ExpiryQueue.Node<K, V> head = queue.peek();
+        if (head != null) {
+            next = head.expirationTimeMillis;
+        }
+        for (int level = 0; level < BUCKETS.length; level++) {
+            ExpiryNode<K, V>[] buckets = wheel[level];
+            int mask = buckets.length - 1;
+            long currentTicks = currentTimeMillis >>> SHIFTS[level];
+            // The current bucket of the upper levels is only visited again when the next tick is reached
+            int first = level == 0 ? 0 : 1;
+            for (int offset = first; offset < buckets.length + first; offset++) {
+                if (buckets[(int) ((currentTicks + offset) & mask)] != null) {
+                    next = Math.min(next, (currentTicks + offset) << SHIFTS[level]);
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Adds a node to the bucket matching its expiration time.
+     * The nodes that are already expired are added to the current bucket of the first level.
+     */
+    private void add(ExpiryNode<K, V> node, long expirationTimeMillis) {
+        long time = Math.max(expirationTimeMillis, currentTimeMillis);
+        long duration = time - currentTimeMillis;
+        int level = BUCKETS.length - 1;
+        for (int i = 0; i < BUCKETS.length - 1; i++) {
+            if (duration < SPANS[i + 1]) {
+                level = i;
+                break;
+            }
+        }
+        ExpiryNode<K, V>[] buckets = wheel[level];
+        int index = (int) ((time >>> SHIFTS[level]) & (buckets.length - 1));
+        node.next = buckets[index];
+        buckets[index] = node;
+    }
+
+    /**
+     * Schedules again all the nodes of the wheel relative to a new current time.
+     */
+    private void rebuild(long currentTimeMillis) {
+        ExpiryNode<K, V> nodes = null;
+        for (ExpiryNode<K, V>[] buckets : wheel) {
+            for (int i = 0; i < buckets.length; i++) {
+                ExpiryNode<K, V> node = buckets[i];
+                buckets[i] = null;
+                while (node != null) {
+                    ExpiryNode<K, V> next = node.next;
+                    node.next = nodes;
+                    nodes = node;
+                    node = next;
+                }
+            }
+        }
+        this.currentTimeMillis = currentTimeMillis;
+        while (nodes != null) {
+            ExpiryNode<K, V> next = nodes.next;
+            add(nodes, nodes.value.getScheduledTimeMillis());
+            nodes = next;
+        }
+    }
+}
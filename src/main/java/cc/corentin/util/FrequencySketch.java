@@ -0,0 +1,151 @@
+package cc.corentin.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch estimating how often the keys of a map have been used recently, with 4 bits counters.
+ * Each key increments one counter in each of the 4 rows of the sketch and its frequency is the smallest of its counters,
+ * so the frequencies are over-estimated by the collisions but never under-estimated.
+ * <p>
+ * The sketch ages: once the number of increments reaches 10 times its capacity, all the counters are halved,
+ * so the keys that were frequent a long time ago are forgotten. The counters are updated with compare-and-set operations,
+ * the increments racing with an aging can be lost, which only makes the estimates a little smaller.
+ */
+class FrequencySketch {
+    /**
+     * Maximum value of a counter
+     */
+    static final int MAX_FREQUENCY = 15;
+    /**
+     * Seeds of the hash functions of the 4 rows
+     */
+    private static final long[] SEEDS = {0x97cb3127L, 0xc3a5c85cL, 0xb492b66fL, 0x9ae16a3bL};
+    /**
+     * Mask keeping the low bit of each counter, used to halve all the counters of a long at once
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * The counters, 16 counters per long, each row uses a counter of a different quarter of the long
+     */
+    private final AtomicLongArray table;
+    /**
+     * Mask giving the index of a long from a hash
+     */
+    private final int tableMask;
+    /**
+     * Number of increments after which the counters are halved
+     */
+    private final int sampleSize;
+    /**
+     * Number of increments since the last aging
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param capacity the number of keys whose frequency is tracked, usually the maximum size of the map
+     */
+    FrequencySketch(long capacity) {
+        int length = Integer.highestOneBit((int) Math.min(Math.max(capacity, 16), 1 << 30) - 1) << 1;
+        this.table = new AtomicLongArray(length);
+        this.tableMask = length - 1;
+        this.sampleSize = (int) Math.min(10L * length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the estimated number of uses of a key since it has been forgotten by the aging, at most {@value #MAX_FREQUENCY}.
+     *
+     * @param key the key
+     * @return the estimated frequency of the key
+     */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int index = indexOf(hash, row);
+            int shift = offsetOf(hash, row) << 2;
+            frequency = Math.min(frequency, (int) ((table.get(index) >>> shift) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * Records a use of a key, the counters of the key that are already at {@value #MAX_FREQUENCY} are left unchanged.
+     *
+     * @param key the key
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean incremented = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            incremented |= incrementAt(indexOf(hash, row), offsetOf(hash, row));
+        }
+        if (incremented && size.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Increments a counter unless it is saturated.
+     *
+     * @param index  the index of the long holding the counter
+     * @param offset the index of the counter in the long, from 0 to 15
+     * @return true if the counter has been incremented
+     */
+    private boolean incrementAt(int index, int offset) {
+        int shift = offset << 2;
+        long mask = 0xfL << shift;
+        long current;
+        do {
+            current = table.get(index);
+            if ((current & mask) == mask) {
+                return false;
+            }
+        } while (!table.compareAndSet(index, current, current + (1L << shift)));
+        return true;
+    }
+
+    /**
+     * Halves all the counters, the increments made since the beginning of the aging are also halved.
+     */
+    private void reset() {
+        // Only the thread that reaches the sample size first ages the counters
+        int current = size.get();
+        if (current < sampleSize || !size.compareAndSet(current, current >>> 1)) {
+            return;
+        }
+        for (int i = 0; i < table.length(); i++) {
+            long value;
+            do {
+                value = table.get(i);
+            } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+        }
+    }
+
+    /**
+     * @return the index of the long holding the counter of a hash in a row
+     */
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    /**
+     * @return the index of the counter of a hash in a row, in its long; each row uses a different quarter of the long
+     */
+    private static int offsetOf(int hash, int row) {
+        return (row << 2) + ((hash >>> (row << 3)) & 3);
+    }
+
+    /**
+     * Applies a supplementary hash function to the hash code of a key, so the keys with close hash codes use different counters.
+     */
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
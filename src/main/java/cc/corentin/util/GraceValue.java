@@ -0,0 +1,65 @@
+package cc.corentin.util;
+
+/**
+ * The full layout of the entries kept in the map during a grace period after their expiration time,
+ * see {@link LoadingConcurrentHashMapAutoCleaning#setStaleWhileRevalidate(long, long, java.util.concurrent.Executor)}.
+ * The entry expires as any other entry: the methods of the map see it as absent once it is expired.
+ * Only its removal is delayed until the end of the grace period, so the loading map can still serve it as a stale value.
+ *
+ * @param <V> the type of value being stored
+ */
+class GraceValue<V> extends WeightedValue<V> {
+    /**
+     * The duration in milliseconds during which the entry is kept after its expiration time
+     */
+    private final long graceMillis;
+    /**
+     * Set by the expiration index once the entry is expired and kept, while it is counted by the map as a retained entry
+     */
+    private volatile boolean retained;
+
+    /**
+     * Constructor
+     *
+     * @param value                       the value to store
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis the extra lifetime after use of the entry in milliseconds
+     * @param creationTimeMillis          the creation time of the entry in milliseconds
+     * @param weight                      the weight of the entry
+     * @param graceMillis                 the duration during which the entry is kept after its expiration time in milliseconds
+     * @throws IllegalArgumentException if the value is null
+     */
+    GraceValue(V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long creationTimeMillis, int weight, long graceMillis) {
+        super(value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis, weight);
+        this.graceMillis = graceMillis;
+    }
+
+    @Override
+    long getRetentionTimeMillis() {
+        return saturatedAdd(getExpirationTimeMillis(), graceMillis);
+    }
+
+    @Override
+    boolean isRetained(long currentTimeMillis) {
+        return isValid(currentTimeMillis) || currentTimeMillis < getRetentionTimeMillis();
+    }
+
+    @Override
+    long getScheduledTimeMillis() {
+        return retained ? getRetentionTimeMillis() : getExpirationTimeMillis();
+    }
+
+    @Override
+    boolean markRetained() {
+        if (retained) {
+            return false;
+        }
+        retained = true;
+        return true;
+    }
+
+    @Override
+    boolean isMarkedRetained() {
+        return retained;
+    }
+}
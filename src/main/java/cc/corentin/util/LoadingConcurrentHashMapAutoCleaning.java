@@ -0,0 +1,463 @@
+package cc.corentin.util;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <h2>Overview</h2>
+ * A ConcurrentHashMapAutoCleaning that loads the missing values with a {@link CacheLoader}.
+ * getOrLoad(K key) returns the value of the key if it is valid, otherwise it loads the value and stores it with the default lifetimes of the map.
+ * <p>
+ * The loads are coalesced: when several threads miss the same key at the same time, only one of them calls the loader,
+ * the others wait for its result instead of loading the same value again. So when a key read by many threads expires,
+ * its value is loaded once instead of once per thread.
+ * The loader is not called inside the compute methods of the map, so a slow load only blocks the threads waiting for the same key.
+ * <p>
+ * With setRefreshAfterWrite(long refreshAfterWriteMillis, Executor executor), the first read of a value older than refreshAfterWriteMillis
+ * reloads it in the background: the readers keep getting the current value until the new one replaces it, so they never wait for the reload.
+ * With setEarlyExpiration(double beta), a read may reload a value before it expires, with a probability that grows as its expiration approaches,
+ * so the values loaded at the same time are not all reloaded at the same time.
+ * <p>
+ * With setStaleWhileRevalidate(long staleWhileRevalidateMillis, long staleIfErrorMillis, Executor executor), the values are kept
+ * in the map after their expiration time during a grace period: lookup(K key) serves them flagged as stale while a single reload runs,
+ * and keeps serving them if the reloads fail, up to a maximum staleness.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+public class LoadingConcurrentHashMapAutoCleaning<K, V> extends ConcurrentHashMapAutoCleaning<K, V> {
+    /**
+     * The loader used by getOrLoad(K key)
+     */
+    private final CacheLoader<? super K, ? extends V> loader;
+    /**
+     * The loads in progress, a key is removed once its value is stored in the map
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+    /**
+     * Duration in milliseconds after the expiration time during which a value is served while it is reloaded in the background
+     */
+    private volatile long staleWhileRevalidateMillis;
+    /**
+     * Duration in milliseconds after the expiration time during which a value is served if its reload fails
+     */
+    private volatile long staleIfErrorMillis;
+    /**
+     * Duration in milliseconds during which the new values are kept after their expiration time, 0 if they are not kept
+     */
+    private volatile long graceMillis;
+    /**
+     * The executor running the background reloads of the stale values, null if the stale values are not served
+     */
+    private volatile Executor staleExecutor;
+    /**
+     * Age in milliseconds from which a value read is reloaded in the background, 0 if the values are not refreshed
+     */
+    private volatile long refreshAfterWriteMillis;
+    /**
+     * The executor running the background reloads, null if the values are not refreshed
+     */
+    private volatile Executor refreshExecutor;
+    /**
+     * Factor of the probability of reloading a value before it expires, 0 if the values are not reloaded before they expire
+     */
+    private volatile double earlyExpirationBeta;
+    /**
+     * Moving average of the duration of the loads in milliseconds, the updates racing with each other can be lost
+     */
+    private volatile double averageLoadMillis;
+
+    /**
+     * The constructor launches the cleaning process upon the creation of the object, provided that the time between each cleaning is greater than 0.
+     *
+     * @param lifeTimeMillis              the lifetime of entries in milliseconds, it is also the lifetime of the loaded values
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @param cleanPeriodMillis           the time between each cleaning in milliseconds
+     * @param loader                      the loader of the missing values
+     * @throws IllegalArgumentException if lifeTimeMillis is negative
+     * @throws NullPointerException     if loader is null
+     */
+    public LoadingConcurrentHashMapAutoCleaning(long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long cleanPeriodMillis,
+                                                CacheLoader<? super K, ? extends V> loader) {
+        super(lifeTimeMillis, extraLifeTimeAfterUseMillis, cleanPeriodMillis);
+        if (lifeTimeMillis < 0) {
+            close();
+            throw new IllegalArgumentException("a loading map needs a default life time");
+        }
+        this.loader = Objects.requireNonNull(loader);
+    }
+
+    /**
+     * The cleaning process is disabled, it can be enabled with setCleanPeriod(long cleanPeriodMillis).
+     *
+     * @param lifeTimeMillis the lifetime of entries in milliseconds, it is also the lifetime of the loaded values
+     * @param loader         the loader of the missing values
+     * @throws IllegalArgumentException if lifeTimeMillis is negative
+     * @throws NullPointerException     if loader is null
+     */
+    public LoadingConcurrentHashMapAutoCleaning(long lifeTimeMillis, CacheLoader<? super K, ? extends V> loader) {
+        this(lifeTimeMillis, 0, -1, loader);
+    }
+
+    /**
+     * Reloads in the background the values read after refreshAfterWriteMillis milliseconds, so they are replaced before they expire.
+     * The reload is started by the first read of the value after this age, with the loader given to the read.
+     * If the reload fails, the current value is kept until it expires. If it returns null, the entry is removed.
+     *
+     * @param refreshAfterWriteMillis the age of the values from which they are reloaded in milliseconds, 0 to disable the refresh
+     * @param executor                the executor running the reloads
+     * @throws IllegalArgumentException if refreshAfterWriteMillis is negative or not lower than the lifetime of the map
+     * @throws NullPointerException     if refreshAfterWriteMillis is positive and executor is null
+     */
+    public void setRefreshAfterWrite(long refreshAfterWriteMillis, Executor executor) {
+        if (refreshAfterWriteMillis < 0 || (refreshAfterWriteMillis > 0 && refreshAfterWriteMillis >= getDefaultLifeTimeMillis())) {
+            throw new IllegalArgumentException("refreshAfterWriteMillis must be positive and lower than the life time of the map, or 0");
+        }
+        this.refreshExecutor = refreshAfterWriteMillis > 0 ? Objects.requireNonNull(executor) : null;
+        this.refreshAfterWriteMillis = refreshAfterWriteMillis;
+    }
+
+    /**
+     * Makes the reads reload the values before they expire, as proposed by the XFetch algorithm:
+     * a read reloads a value if {@code now - averageLoadMillis * beta * ln(random) >= expirationTime},
+     * where averageLoadMillis is the average duration of the loads measured by the map and random is uniform in ]0, 1].
+     * The probability grows as the expiration time approaches and with the duration of the loads, so the slow values are reloaded earlier.
+     * The reading thread loads the value and gets the new value, the other threads keep getting the current value in the meantime.
+     *
+     * @param beta the factor of the probability, 1 is the usual value, greater values reload earlier, 0 disables the early expiration
+     * @throws IllegalArgumentException if beta is negative
+     */
+    public void setEarlyExpiration(double beta) {
+        if (!(beta >= 0)) {
+            throw new IllegalArgumentException("beta cannot be negative");
+        }
+        this.earlyExpirationBeta = beta;
+    }
+
+    /**
+     * Keeps the values in the map during a grace period after their expiration time, it is disabled by default.
+     * The values keep their own lifetimes: a value is stale once it is expired, and its extra lifetime after use keeps it fresh as usual.
+     * The grace period is stored with each value and only delays its removal, the reads of a stale value do not extend it.
+     * <ul>
+     *     <li>During staleWhileRevalidateMillis after its expiration time, a stale value is served and a single reload runs in the background.</li>
+     *     <li>Then until staleIfErrorMillis after its expiration time, a stale value is reloaded by the reading thread,
+     *     and is served only if the reload fails.</li>
+     * </ul>
+     * The stale values are flagged by lookup(K key) and served by the loading methods. The other methods of the map, such as get(Object),
+     * containsKey(Object) or size(), see them as expired entries. The grace period applies to the values stored after this call,
+     * they are kept on the heap even if the off-heap storage is enabled.
+     *
+     * @param staleWhileRevalidateMillis the duration during which the stale values are served while they are reloaded, in milliseconds
+     * @param staleIfErrorMillis         the maximum staleness of the values served when their reload fails, in milliseconds
+     * @param executor                   the executor running the background reloads
+     * @throws IllegalArgumentException if a duration is negative
+     * @throws NullPointerException     if staleWhileRevalidateMillis is positive and executor is null
+     */
+    public void setStaleWhileRevalidate(long staleWhileRevalidateMillis, long staleIfErrorMillis, Executor executor) {
+        if (staleWhileRevalidateMillis < 0 || staleIfErrorMillis < 0) {
+            throw new IllegalArgumentException("the stale durations cannot be negative");
+        }
+        this.staleExecutor = staleWhileRevalidateMillis > 0 ? Objects.requireNonNull(executor) : null;
+        this.staleWhileRevalidateMillis = staleWhileRevalidateMillis;
+        this.staleIfErrorMillis = staleIfErrorMillis;
+        this.graceMillis = Math.max(staleWhileRevalidateMillis, staleIfErrorMillis);
+    }
+
+    @Override
+    long getGracePeriodMillis() {
+        return graceMillis;
+    }
+
+    /**
+     * Returns the value of a key, or loads it with the loader of the map if the key has no valid value.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value of the key, or null if the loader returned null
+     * @throws CompletionException if the loader threw a checked exception, the runtime exceptions and the errors are thrown as they are
+     */
+    public V getOrLoad(K key) {
+        return get(key, loader, null);
+    }
+
+    /**
+     * Returns the value of a key and whether it is fresh, loaded or stale, and loads it with the loader of the map if the key has no valid value.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value of the key with its status, the value is null if the loader returned null
+     * @throws CompletionException if the loader threw a checked exception and no stale value can be served,
+     *                             the runtime exceptions and the errors are thrown as they are
+     */
+    public CacheLookup<V> lookup(K key) {
+        return lookup(key, loader);
+    }
+
+    /**
+     * Returns the value of a key and whether it is fresh, loaded or stale, and loads it with the given loader if the key has no valid value.
+     *
+     * @param key    the key whose associated value is to be returned
+     * @param loader the loader of the value, called at most once
+     * @return the value of the key with its status, the value is null if the loader returned null
+     * @throws CompletionException if the loader threw a checked exception and no stale value can be served,
+     *                             the runtime exceptions and the errors are thrown as they are
+     */
+    public CacheLookup<V> lookup(K key, CacheLoader<? super K, ? extends V> loader) {
+        CacheLookup.Status[] status = new CacheLookup.Status[1];
+        V value = get(key, loader, status);
+        return new CacheLookup<>(value, status[0]);
+    }
+
+    /**
+     * Returns the value of a key, or loads it with the given loader if the key has no valid value.
+     * The loaded value is stored with the default lifetimes of the map. If the key is already being loaded by another thread,
+     * this method waits for that load instead of calling the loader.
+     *
+     * @param key    the key whose associated value is to be returned
+     * @param loader the loader of the value, called at most once
+     * @return the value of the key, or null if the loader returned null
+     * @throws CompletionException if the loader threw a checked exception, the runtime exceptions and the errors are thrown as they are
+     */
+    public V get(K key, CacheLoader<? super K, ? extends V> loader) {
+        return get(key, loader, null);
+    }
+
+    /**
+     * Returns the value of a key, serves it stale or reloads it according to its age, or loads it if the key has no valid value.
+     *
+     * @param key    the key whose associated value is to be returned
+     * @param loader the loader of the value
+     * @param status receives where the value comes from, or null if the caller does not need it
+     * @return the value of the key
+     */
+    private V get(K key, CacheLoader<? super K, ? extends V> loader, CacheLookup.Status[] status) {
+        Objects.requireNonNull(loader);
+        V value = get(key);
+        if (value == null) {
+            return graceMillis > 0 ? serveStaleOrLoad(key, loader, status) : load(key, loader, null, null, status);
+        }
+        TimedValue<V> stored = earlyExpirationBeta > 0 ? getTimedValue(key) : null;
+        if (stored != null && expiresEarly(stored)) {
+            return load(key, loader, stored, value, status);
+        }
+        if (refreshAfterWriteMillis > 0) {
+            refreshIfStale(key, loader);
+        }
+        setStatus(status, CacheLookup.Status.FRESH);
+        return value;
+    }
+
+    /**
+     * Serves the value of a key that is expired but kept during its grace period, according to its staleness, or loads it.
+     *
+     * @param key    the key whose associated value is to be returned
+     * @param loader the loader of the value
+     * @param status receives where the value comes from, or null if the caller does not need it
+     * @return the value of the key
+     */
+    private V serveStaleOrLoad(K key, CacheLoader<? super K, ? extends V> loader, CacheLookup.Status[] status) {
+        TimedValue<V> stored = getTimedValue(key);
+        long currentTimeMillis = currentTimeMillis();
+        if (stored != null && !stored.isValid(currentTimeMillis) && stored.isRetained(currentTimeMillis)) {
+            long staleMillis = currentTimeMillis - stored.getExpirationTimeMillis();
+            if (staleMillis < staleWhileRevalidateMillis) {
+                reloadInBackground(key, loader, stored, staleExecutor);
+                setStatus(status, CacheLookup.Status.STALE);
+                return stored.getValue();
+            }
+            if (staleMillis < staleIfErrorMillis) {
+                return load(key, loader, stored, stored.getValue(), status);
+            }
+        }
+        // The value is too stale to be served, even if the load fails; the load replaces it since it is expired
+        return load(key, loader, null, null, status);
+    }
+
+    /**
+     * Loads the value of a key, or waits for the load started by another thread.
+     * A stored value that is reloaded is returned if the load fails or if another thread is already loading the key.
+     *
+     * @param key          the key to load
+     * @param loader       the loader of the value
+     * @param reloaded     the stored value reloaded before it expires or while it is stale, or null if the key has no value to serve
+     * @param currentValue the value of reloaded
+     * @param status       receives where the returned value comes from, or null if the caller does not need it
+     * @return the value of the key
+     */
+    private V load(K key, CacheLoader<? super K, ? extends V> loader, TimedValue<V> reloaded, V currentValue, CacheLookup.Status[] status) {
+        // The value served if the load fails or is made by another thread, a stale value is flagged
+        CacheLookup.Status currentStatus = reloaded == null ? null
+                : reloaded.isValid(currentTimeMillis()) ? CacheLookup.Status.FRESH : CacheLookup.Status.STALE_ON_ERROR;
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> inProgress = loads.putIfAbsent(key, load);
+        if (inProgress != null) {
+            if (reloaded != null) {
+                // A reader of a value it can serve does not wait for the load of another thread
+                setStatus(status, currentStatus == CacheLookup.Status.FRESH ? currentStatus : CacheLookup.Status.STALE);
+                return currentValue;
+            }
+            V value = join(inProgress);
+            setStatus(status, CacheLookup.Status.LOADED);
+            return value;
+        }
+        try {
+            V value;
+            CacheLookup.Status loadedStatus = CacheLookup.Status.LOADED;
+            if (reloaded != null) {
+                try {
+                    value = timedLoad(key, loader);
+                } catch (Exception e) {
+                    // The value can still be served, it is kept until it expires
+                    load.completeExceptionally(e);
+                    setStatus(status, currentStatus);
+                    return currentValue;
+                }
+                // The value only replaces the instance read, a value written during the load is kept
+                replaceIfSame(key, reloaded, value);
+            } else {
+                // The value may have been stored by a load that ended after the first read, it is then a hit
+                value = get(key);
+                if (value != null) {
+                    loadedStatus = CacheLookup.Status.FRESH;
+                } else {
+                    value = timedLoad(key, loader);
+                    if (value != null) {
+                        // A value put by another thread during the load is kept, it is more recent than the loaded one
+                        V current = putIfAbsent(key, value);
+                        if (current != null) {
+                            value = current;
+                        }
+                    }
+                }
+            }
+            load.complete(value);
+            setStatus(status, loadedStatus);
+            return value;
+        } catch (RuntimeException | Error e) {
+            load.completeExceptionally(e);
+            throw e;
+        } catch (Exception e) {
+            load.completeExceptionally(e);
+            throw new CompletionException(e);
+        } finally {
+            loads.remove(key, load);
+        }
+    }
+
+    /**
+     * Calls a loader and records the duration of the load in the moving average used by the early expiration.
+     */
+    private V timedLoad(K key, CacheLoader<? super K, ? extends V> loader) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return loader.load(key);
+        } finally {
+            double loadMillis = (System.nanoTime() - start) / 1_000_000.0;
+            double average = averageLoadMillis;
+            averageLoadMillis = average == 0 ? loadMillis : average + (loadMillis - average) / 8;
+        }
+    }
+
+    /**
+     * Draws whether a valid value is reloaded before it expires, according to the XFetch algorithm.
+     *
+     * @param stored the value stored in the map
+     * @return true if the value must be reloaded now
+     */
+    private boolean expiresEarly(TimedValue<V> stored) {
+        double deltaMillis = averageLoadMillis * earlyExpirationBeta;
+        long expirationTimeMillis = stored.getExpirationTimeMillis();
+        if (deltaMillis <= 0 || expirationTimeMillis == Long.MAX_VALUE) {
+            return false;
+        }
+        double random = 1 - ThreadLocalRandom.current().nextDouble();
+        return currentTimeMillis() - deltaMillis * Math.log(random) >= expirationTimeMillis;
+    }
+
+    /**
+     * Starts the reload of a value in the background if it is older than refreshAfterWriteMillis and the key is not already loading.
+     *
+     * @param key    the key of the value
+     * @param loader the loader of the value
+     */
+    private void refreshIfStale(K key, CacheLoader<? super K, ? extends V> loader) {
+        TimedValue<V> stored = getTimedValue(key);
+        long currentTimeMillis = currentTimeMillis();
+        Executor executor = refreshExecutor;
+        if (stored == null || executor == null || !stored.isValid(currentTimeMillis)
+                || currentTimeMillis - getCreationTimeMillis(stored) < refreshAfterWriteMillis) {
+            return;
+        }
+        reloadInBackground(key, loader, stored, executor);
+    }
+
+    /**
+     * Reloads a value on an executor unless the key is already loading.
+     * The new value only replaces the instance read before the reload, a value written in the meantime is kept.
+     * The threads missing the key during the reload wait for it as for a load.
+     *
+     * @param key      the key of the value
+     * @param loader   the loader of the value
+     * @param stored   the value stored in the map
+     * @param executor the executor running the reload
+     */
+    private void reloadInBackground(K key, CacheLoader<? super K, ? extends V> loader, TimedValue<V> stored, Executor executor) {
+        CompletableFuture<V> refresh = new CompletableFuture<>();
+        if (loads.putIfAbsent(key, refresh) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    V value = timedLoad(key, loader);
+                    replaceIfSame(key, stored, value);
+                    refresh.complete(value);
+                } catch (Throwable e) {
+                    // The current value is kept until it expires
+                    refresh.completeExceptionally(e);
+                } finally {
+                    loads.remove(key, refresh);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loads.remove(key, refresh);
+            refresh.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Sets the status of a lookup, if the caller needs it.
+     */
+    private static void setStatus(CacheLookup.Status[] status, CacheLookup.Status value) {
+        if (status != null) {
+            status[0] = value;
+        }
+    }
+
+    /**
+     * @return the number of loads in progress
+     */
+    public int loadsInProgress() {
+        return loads.size();
+    }
+
+    /**
+     * Waits for a load made by another thread and throws its exception as the loading thread did.
+     */
+    private static <V> V join(CompletableFuture<V> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
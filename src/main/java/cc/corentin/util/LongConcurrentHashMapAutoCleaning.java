@@ -0,0 +1,693 @@
+package cc.corentin.util;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <h2>Overview</h2>
+ * A map with primitive long keys and the same expiration rules as {@link ConcurrentHashMapAutoCleaning}:
+ * an entry is valid during its lifetime after its creation, or during its extra lifetime after its last use.
+ * The keys are not boxed and the entries are not objects: each segment of the map is an open addressing table
+ * made of parallel arrays of keys, values and times, so get(long), put(long, V) and the other operations do not allocate.
+ * <p>
+ * The writes lock the segment of their key. The reads do not lock: they read the segment optimistically
+ * and only read it again under a read lock if a write happened at the same time.
+ * getAndUpdateTimeSinceLastUse(long) is a write, since it changes the time of last use of the entry.
+ * <h2>Usage</h2>
+ * The cleaning is disabled by default. setCleanPeriod(long cleanPeriodMillis) sweeps the whole map every cleanPeriodMillis milliseconds,
+ * one segment at a time, and cleanBlocking() sweeps it once in the calling thread.
+ * Like ConcurrentHashMapAutoCleaning, this class must be closed to stop the cleaning.
+ *
+ * @param <V> the type of mapped values
+ */
+public class LongConcurrentHashMapAutoCleaning<V> implements Closeable {
+    /**
+     * Default number of segments
+     */
+    static final int DEFAULT_SEGMENTS = 16;
+    /**
+     * Minimum number of slots of a segment
+     */
+    private static final int MIN_SEGMENT_CAPACITY = 4;
+    /**
+     * Maximum number of slots of a segment
+     */
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    /**
+     * The slots of a segment, a slot is empty if its value is null.
+     * The arrays are replaced together when the segment is resized, so a reader always sees arrays of the same length.
+     */
+    static final class Table {
+        final long[] keys;
+        final Object[] values;
+        /**
+         * Creation time plus lifetime of the entries, in milliseconds
+         */
+        final long[] expirationTimesMillis;
+        /**
+         * Time of last use of the entries, in milliseconds
+         */
+        final long[] lastTimesUsedMillis;
+        /**
+         * Extra lifetime after use of the entries, in milliseconds
+         */
+        final long[] extraLifeTimesAfterUseMillis;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Object[capacity];
+            expirationTimesMillis = new long[capacity];
+            lastTimesUsedMillis = new long[capacity];
+            extraLifeTimesAfterUseMillis = new long[capacity];
+        }
+
+        boolean isValid(int slot, long currentTimeMillis) {
+            return currentTimeMillis < expirationTimesMillis[slot] || currentTimeMillis - lastTimesUsedMillis[slot] < extraLifeTimesAfterUseMillis[slot];
+        }
+
+        void set(int slot, long key, Object value, long expirationTimeMillis, long lastTimeUsedMillis, long extraLifeTimeAfterUseMillis) {
+            keys[slot] = key;
+            values[slot] = value;
+            expirationTimesMillis[slot] = expirationTimeMillis;
+            lastTimesUsedMillis[slot] = lastTimeUsedMillis;
+            extraLifeTimesAfterUseMillis[slot] = extraLifeTimeAfterUseMillis;
+        }
+
+        void move(int from, int to) {
+            set(to, keys[from], values[from], expirationTimesMillis[from], lastTimesUsedMillis[from], extraLifeTimesAfterUseMillis[from]);
+        }
+    }
+
+    /**
+     * A part of the map, protected by its own lock.
+     */
+    static final class Segment extends StampedLock {
+        /**
+         * The segments are never serialized, StampedLock is only serializable for the state of its lock
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The slots of the segment, read optimistically
+         */
+        Table table = new Table(MIN_SEGMENT_CAPACITY);
+        /**
+         * Number of entries in the segment, including the expired ones not removed yet
+         */
+        volatile int count;
+
+        /**
+         * Finds the slot of a key.
+         *
+         * @return the slot of the key, or -1 if the key is not in the segment
+         */
+        int find(Table table, long key, int hash) {
+            int mask = table.keys.length - 1;
+            // The number of probes is bounded, because an optimistic read can see a table that is being modified
+            for (int slot = hash & mask, probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++) {
+                if (table.values[slot] == null) {
+                    return -1;
+                }
+                if (table.keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Stores an entry in a free slot, the write lock must be held.
+         */
+        void insert(long key, int hash, Object value, long expirationTimeMillis, long lastTimeUsedMillis, long extraLifeTimeAfterUseMillis) {
+            if (count + 1 > table.keys.length - (table.keys.length >>> 2) && table.keys.length < MAX_SEGMENT_CAPACITY) {
+                resize();
+            }
+            Table table = this.table;
+            int mask = table.keys.length - 1;
+            int slot = hash & mask;
+            while (table.values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table.set(slot, key, value, expirationTimeMillis, lastTimeUsedMillis, extraLifeTimeAfterUseMillis);
+            count++;
+        }
+
+        /**
+         * Empties a slot and moves back the entries that follow it, so the probes do not need tombstones.
+         * The write lock must be held.
+         *
+         * @param slot the slot to empty
+         */
+        void delete(int slot) {
+            Table table = this.table;
+            int mask = table.keys.length - 1;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (table.values[next] == null) {
+                    break;
+                }
+                int home = hash(table.keys[next]) & mask;
+                // The entry can fill the empty slot if its home slot is not between the empty slot and its slot
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    table.move(next, slot);
+                    slot = next;
+                }
+            }
+            table.values[slot] = null;
+            count--;
+        }
+
+        /**
+         * Doubles the number of slots, the write lock must be held.
+         */
+        private void resize() {
+            Table oldTable = table;
+            Table newTable = new Table(oldTable.keys.length << 1);
+            int mask = newTable.keys.length - 1;
+            for (int i = 0; i < oldTable.keys.length; i++) {
+                if (oldTable.values[i] != null) {
+                    int slot = hash(oldTable.keys[i]) & mask;
+                    while (newTable.values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    newTable.set(slot, oldTable.keys[i], oldTable.values[i], oldTable.expirationTimesMillis[i],
+                            oldTable.lastTimesUsedMillis[i], oldTable.extraLifeTimesAfterUseMillis[i]);
+                }
+            }
+            table = newTable;
+        }
+    }
+
+    /**
+     * The segments of the map, their number is a power of two
+     */
+    private final Segment[] segments;
+    /**
+     * Shift applied to the hash to select the segment from its highest bits
+     */
+    private final int segmentShift;
+    /**
+     * The lifespan of entries is measured in milliseconds
+     */
+    private final long lifeTimeMillis;
+    /**
+     * extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     */
+    private final long extraLifeTimeAfterUseMillis;
+    /**
+     * Thread name
+     */
+    private final String threadName;
+    /**
+     * The clock of the map
+     */
+    private volatile Ticker ticker = Ticker.system();
+    /**
+     * List of listeners for removed entries, copied on write so the cleaning can iterate it while listeners are added
+     */
+    private final List<OnLongEntryRemovedListener<V>> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * The scheduler given by the user, null if the map uses its own thread
+     */
+    private ScheduledExecutorService cleaningScheduler;
+    /**
+     * The scheduler running the cleaning process, null if the cleaning is disabled
+     */
+    private ScheduledExecutorService scheduler;
+    /**
+     * The periodic cleaning task, null if the cleaning is disabled
+     */
+    private ScheduledFuture<?> cleaningTask;
+    /**
+     * Lock protecting the schedulers and the cleaning task
+     */
+    private final Object cleaningLock = new Object();
+
+    /**
+     * Constructor
+     *
+     * @param lifeTimeMillis              the lifetime of entries in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @param segments                    the number of segments, rounded up to a power of two
+     * @param threadName                  the name of the cleaning thread
+     * @throws IllegalArgumentException if segments is not positive
+     */
+    public LongConcurrentHashMapAutoCleaning(long lifeTimeMillis, long extraLifeTimeAfterUseMillis, int segments, String threadName) {
+        if (segments <= 0) {
+            throw new IllegalArgumentException("the number of segments must be positive");
+        }
+        int segmentCount = 1;
+        while (segmentCount < segments && segmentCount < 1 << 16) {
+            segmentCount <<= 1;
+        }
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.lifeTimeMillis = lifeTimeMillis;
+        this.extraLifeTimeAfterUseMillis = extraLifeTimeAfterUseMillis;
+        this.threadName = threadName;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lifeTimeMillis              the lifetime of entries in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     */
+    public LongConcurrentHashMapAutoCleaning(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        this(lifeTimeMillis, extraLifeTimeAfterUseMillis, DEFAULT_SEGMENTS, "LongConcurrentHashMapAutoCleaning");
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lifeTimeMillis the lifetime of entries in milliseconds
+     */
+    public LongConcurrentHashMapAutoCleaning(long lifeTimeMillis) {
+        this(lifeTimeMillis, 0);
+    }
+
+    /**
+     * Mixes the bits of a key, the segment is selected with the highest bits of the result and the slot with its lowest bits.
+     */
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> segmentShift) & (segments.length - 1)];
+    }
+
+    /**
+     * This method allows to change the clock of the map.
+     *
+     * @param ticker the clock used to compute the creation and expiration times of the entries
+     * @throws NullPointerException if ticker is null
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker = Objects.requireNonNull(ticker);
+    }
+
+    /**
+     * Adds a listener function that will be invoked whenever an entry is removed by the cleaning of the map.
+     *
+     * @param listener the listener function to be added.
+     */
+    public void addListener(OnLongEntryRemovedListener<V> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns the value associated with a key.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value associated with the key, or null if the map contains no valid entry for the key
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long currentTimeMillis = ticker.currentTimeMillis();
+        long stamp = segment.tryOptimisticRead();
+        Object value = getValidValue(segment, key, hash, currentTimeMillis);
+        if (!segment.validate(stamp)) {
+            stamp = segment.readLock();
+            try {
+                value = getValidValue(segment, key, hash, currentTimeMillis);
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return (V) value;
+    }
+
+    private static Object getValidValue(Segment segment, long key, int hash, long currentTimeMillis) {
+        Table table = segment.table;
+        int slot = segment.find(table, key, hash);
+        if (slot < 0 || !table.isValid(slot, currentTimeMillis)) {
+            return null;
+        }
+        return table.values[slot];
+    }
+
+    /**
+     * Returns the value associated with a key and updates its time of last use.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value associated with the key, or null if the map contains no valid entry for the key
+     */
+    @SuppressWarnings("unchecked")
+    public V getAndUpdateTimeSinceLastUse(long key) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            Table table = segment.table;
+            int slot = segment.find(table, key, hash);
+            if (slot < 0 || !table.isValid(slot, currentTimeMillis)) {
+                return null;
+            }
+            table.lastTimesUsedMillis[slot] = currentTimeMillis;
+            return (V) table.values[slot];
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param key the key whose presence is to be tested
+     * @return true if the map contains a valid entry for the key
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates a value with a key, with the default lifetimes of the map.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with key, or null if there was no valid mapping for key.
+     * @throws NullPointerException  if the value is null
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        checkDefaultLifeTime();
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Checks that a default lifetime is set in the constructor.
+     *
+     * @throws IllegalStateException if no default lifetime is set
+     */
+    private void checkDefaultLifeTime() {
+        if (lifeTimeMillis <= -1) {
+            throw new IllegalStateException("no default life time set in the constructor, use put(long key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) instead");
+        }
+    }
+
+    /**
+     * Associates a value with a key, with its own lifetimes.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param value                       value to be associated with the specified key
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the previous value associated with key, or null if there was no valid mapping for key.
+     * @throws NullPointerException if the value is null
+     */
+    public V put(long key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, false);
+    }
+
+    /**
+     * Associates a value with a key if the map contains no valid entry for the key, with the default lifetimes of the map.
+     *
+     * @param key   key with which the specified value is to be associated
+     * @param value value to be associated with the specified key
+     * @return the current value associated with key, or null if the value has been associated with the key.
+     * @throws NullPointerException  if the value is null
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    public V putIfAbsent(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        checkDefaultLifeTime();
+        return putIfAbsent(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Associates a value with a key if the map contains no valid entry for the key, with its own lifetimes.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param value                       value to be associated with the specified key
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the current value associated with key, or null if the value has been associated with the key.
+     * @throws NullPointerException if the value is null
+     */
+    public V putIfAbsent(long key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, boolean onlyIfAbsent) {
+        if (value == null)
+            throw new NullPointerException();
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            long expirationTimeMillis = TimedValue.saturatedAdd(currentTimeMillis, lifeTimeMillis);
+            Table table = segment.table;
+            int slot = segment.find(table, key, hash);
+            if (slot < 0) {
+                segment.insert(key, hash, value, expirationTimeMillis, currentTimeMillis, extraLifeTimeAfterUseMillis);
+                return null;
+            }
+            Object oldValue = table.isValid(slot, currentTimeMillis) ? table.values[slot] : null;
+            if (!onlyIfAbsent || oldValue == null) {
+                table.set(slot, key, value, expirationTimeMillis, currentTimeMillis, extraLifeTimeAfterUseMillis);
+            }
+            return (V) oldValue;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replaces the value of a valid entry, with the default lifetimes of the map.
+     *
+     * @param key   key with which the specified value is associated
+     * @param value value to be associated with the specified key
+     * @return the previous value associated with the key, or null if there was no valid mapping for the key
+     * @throws NullPointerException  if the value is null
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @SuppressWarnings("unchecked")
+    public V replace(long key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        checkDefaultLifeTime();
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            Table table = segment.table;
+            int slot = segment.find(table, key, hash);
+            if (slot < 0 || !table.isValid(slot, currentTimeMillis)) {
+                return null;
+            }
+            Object oldValue = table.values[slot];
+            table.set(slot, key, value, TimedValue.saturatedAdd(currentTimeMillis, lifeTimeMillis), currentTimeMillis, extraLifeTimeAfterUseMillis);
+            return (V) oldValue;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the entry of a key.
+     *
+     * @param key key whose mapping is to be removed from the map
+     * @return the previous value associated with key, or null if there was no valid mapping for key.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        return (V) removeEntry(key, null);
+    }
+
+    /**
+     * Removes the entry of a key only if it is valid and associated with the given value.
+     *
+     * @param key   key with which the specified value is associated
+     * @param value value expected to be associated with the specified key
+     * @return true if the entry was removed
+     */
+    public boolean remove(long key, V value) {
+        return value != null && removeEntry(key, value) != null;
+    }
+
+    /**
+     * Removes the entry of a key, an expired entry is removed without being returned.
+     *
+     * @param value the value that the entry must have to be removed, or null to remove any value
+     * @return the value of the removed valid entry, or null
+     */
+    private Object removeEntry(long key, Object value) {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.writeLock();
+        try {
+            Table table = segment.table;
+            int slot = segment.find(table, key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            Object oldValue = table.isValid(slot, ticker.currentTimeMillis()) ? table.values[slot] : null;
+            if (value != null && oldValue != null && !value.equals(oldValue)) {
+                return null;
+            }
+            segment.delete(slot);
+            return oldValue;
+        } finally {
+            segment.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of valid entries in the map, the map is iterated.
+     *
+     * @return the number of valid entries
+     */
+    public int size() {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        long size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.readLock();
+            try {
+                Table table = segment.table;
+                for (int slot = 0; slot < table.keys.length; slot++) {
+                    if (table.values[slot] != null && table.isValid(slot, currentTimeMillis)) {
+                        size++;
+                    }
+                }
+            } finally {
+                segment.unlockRead(stamp);
+            }
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return true if the map contains no valid entry
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all the entries of the map, the listeners are not called.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.writeLock();
+            try {
+                segment.table = new Table(MIN_SEGMENT_CAPACITY);
+                segment.count = 0;
+            } finally {
+                segment.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * This method removes the expired entries in the calling thread, one segment at a time.
+     * The listeners are called once the segment is unlocked.
+     */
+    @SuppressWarnings("unchecked")
+    public void cleanBlocking() {
+        long[] removedKeys = new long[16];
+        Object[] removedValues = new Object[16];
+        for (Segment segment : segments) {
+            if (segment.count == 0) {
+                continue;
+            }
+            int removed = 0;
+            long stamp = segment.writeLock();
+            try {
+                long currentTimeMillis = ticker.currentTimeMillis();
+                Table table = segment.table;
+                int slot = 0;
+                while (slot < table.keys.length) {
+                    if (table.values[slot] == null || table.isValid(slot, currentTimeMillis)) {
+                        slot++;
+                        continue;
+                    }
+                    if (removed == removedKeys.length) {
+                        removedKeys = Arrays.copyOf(removedKeys, removed << 1);
+                        removedValues = Arrays.copyOf(removedValues, removed << 1);
+                    }
+                    removedKeys[removed] = table.keys[slot];
+                    removedValues[removed++] = table.values[slot];
+                    // The deletion can move another entry into the slot, the slot is checked again
+                    segment.delete(slot);
+                }
+            } finally {
+                segment.unlockWrite(stamp);
+            }
+            for (int i = 0; i < removed; i++) {
+                for (OnLongEntryRemovedListener<V> listener : listeners) {
+                    listener.onEntryRemoved(removedKeys[i], (V) removedValues[i]);
+                }
+                removedValues[i] = null;
+            }
+        }
+    }
+
+    /**
+     * This method sets the scheduler running the cleaning process, by default the map has its own thread.
+     * The given scheduler is not shut down by the map, it is used by the next call to setCleanPeriod(long cleanPeriodMillis).
+     *
+     * @param cleaningScheduler the scheduler running the cleaning process, or null to use a thread of the map
+     */
+    public void setCleaningScheduler(ScheduledExecutorService cleaningScheduler) {
+        synchronized (cleaningLock) {
+            this.cleaningScheduler = cleaningScheduler;
+        }
+    }
+
+    /**
+     * This method allows changing the time between each sweep of the map or disabling the cleaning by setting the value to 0.
+     *
+     * @param cleanPeriodMillis The time between each sweep in milliseconds
+     */
+    public void setCleanPeriod(long cleanPeriodMillis) {
+        synchronized (cleaningLock) {
+            disableCleaning();
+            if (cleanPeriodMillis <= 0) {
+                return;
+            }
+            scheduler = cleaningScheduler != null ? cleaningScheduler : CleaningSchedulers.createNamedScheduler(threadName);
+            cleaningTask = scheduler.scheduleWithFixedDelay(this::cleanBlocking, cleanPeriodMillis, cleanPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * This method disables the cleaning process, the thread of the map is stopped.
+     */
+    private void disableCleaning() {
+        synchronized (cleaningLock) {
+            if (cleaningTask != null) {
+                cleaningTask.cancel(false);
+                cleaningTask = null;
+            }
+            if (scheduler != null && scheduler != cleaningScheduler) {
+                scheduler.shutdownNow();
+            }
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        disableCleaning();
+    }
+}
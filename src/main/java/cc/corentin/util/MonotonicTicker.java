@@ -0,0 +1,44 @@
+package cc.corentin.util;
+
+/**
+ * A ticker counting the time elapsed since its creation with System.nanoTime(), which is not affected by the changes of the clock of the system.
+ * Its time matches the clock of the system at its creation, the two clocks then drift apart when the clock of the system is changed.
+ */
+final class MonotonicTicker implements Ticker {
+    /**
+     * The only instance of the class, created when it is used for the first time
+     */
+    static final MonotonicTicker INSTANCE = new MonotonicTicker(TimeHelper.currentTimeMillis(), System.nanoTime());
+
+    /**
+     * The time of the clock of the system at the creation of the ticker, in milliseconds
+     */
+    private final long originMillis;
+    /**
+     * The System.nanoTime() at the creation of the ticker
+     */
+    private final long originNanos;
+
+    MonotonicTicker(long originMillis, long originNanos) {
+        this.originMillis = originMillis;
+        this.originNanos = originNanos;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return originMillis + (System.nanoTime() - originNanos) / 1_000_000;
+    }
+
+    /**
+     * The offset between the two clocks is read at each conversion, so the reported times follow the changes of the clock of the system.
+     */
+    @Override
+    public long toWallClockMillis(long tickerTimeMillis) {
+        return tickerTimeMillis + (TimeHelper.currentTimeMillis() - currentTimeMillis());
+    }
+
+    @Override
+    public long fromWallClockMillis(long wallClockTimeMillis) {
+        return wallClockTimeMillis - (TimeHelper.currentTimeMillis() - currentTimeMillis());
+    }
+}
@@ -0,0 +1,294 @@
+package cc.corentin.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * Stores the values of a ConcurrentHashMapAutoCleaning outside the heap, in slabs allocated with ByteBuffer.allocateDirect.
+ * The values are appended to the current slab with their times, a new slab is allocated once it is full.
+ * A slab records the latest expiration time of its values and the keys of its records, the store releases it once this time is reached:
+ * the entries of the map still referencing the slab are removed, then the slab is put in a free list and its memory is reused
+ * by the next values, without waiting for the garbage collector. The free list keeps at most as many slabs as were in use
+ * at the last release, the other slabs are dropped, as well as the slabs of the values larger than a slab.
+ * <p>
+ * Each recycling of a slab increments its generation, a value read by a thread while its slab is recycled sees its generation change
+ * and is then seen as expired, so a thread never reads the record of another entry.
+ * The records are never moved: a single entry that lives long, or whose extra lifetime after use is renewed by its uses,
+ * keeps its whole slab in use, with the memory of all the expired records of the slab.
+ * The store suits values with close lifetimes, written in the same period; with mixed lifetimes, small slabs limit the memory pinned by an entry.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+class OffHeapStore<K, V> {
+    /**
+     * Offsets of the fields of a record in a slab, the bytes of the value follow the header
+     */
+    static final int CREATION_TIME = 0;
+    static final int LIFETIME = 8;
+    static final int LAST_TIME_USED = 16;
+    static final int EXTRA_LIFETIME = 24;
+    static final int LENGTH = 32;
+    /**
+     * The size of the header, padded so the next record stays aligned on 8 bytes
+     */
+    static final int HEADER_SIZE = 40;
+    /**
+     * Access to the longs of the slabs with memory ordering, the records are aligned on 8 bytes
+     */
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * A block of memory outside the heap holding records.
+     */
+    static final class Slab<V> {
+        final ByteBuffer buffer;
+        final ValueSerializer<V> serializer;
+        /**
+         * The offset of the next record, guarded by the lock of the store
+         */
+        int position;
+        /**
+         * The latest expiration time of the records of the slab
+         */
+        final AtomicLong maxExpirationTimeMillis = new AtomicLong(Long.MIN_VALUE);
+        /**
+         * The number of times the slab has been recycled, the values written before a recycling are expired
+         */
+        volatile int generation;
+        /**
+         * The number of records reserved but not written yet, the slab is not recycled before they are written
+         */
+        final AtomicInteger pendingWrites = new AtomicInteger();
+        /**
+         * The keys of the records and the values referencing them, in the order of the records, guarded by the lock of the store
+         */
+        final List<Object> keys = new ArrayList<>();
+        final List<OffHeapValue<V>> values = new ArrayList<>();
+
+        Slab(int capacity, ValueSerializer<V> serializer) {
+            this.buffer = ByteBuffer.allocateDirect(capacity + 7).alignedSlice(8).order(ByteOrder.nativeOrder());
+            this.serializer = serializer;
+        }
+
+        /**
+         * Records that a value of the slab expires at the given time, so the slab is kept until then.
+         */
+        void extendExpiration(long expirationTimeMillis) {
+            maxExpirationTimeMillis.accumulateAndGet(expirationTimeMillis, Math::max);
+        }
+
+        /**
+         * Empties the slab so its memory is reused, the values referencing its records become expired.
+         */
+        void recycle() {
+            generation++;
+            position = 0;
+            maxExpirationTimeMillis.set(Long.MIN_VALUE);
+            keys.clear();
+            values.clear();
+        }
+    }
+
+    /**
+     * The serializer of the values
+     */
+    private final ValueSerializer<V> serializer;
+    /**
+     * The size of the slabs in bytes, a value larger than a slab gets its own slab
+     */
+    private final int slabSize;
+    /**
+     * The slab receiving the new values, guarded by this
+     */
+    private Slab<V> current;
+    /**
+     * The slabs that are full and not released yet, guarded by this
+     */
+    private final ArrayDeque<Slab<V>> fullSlabs = new ArrayDeque<>();
+    /**
+     * The released slabs whose memory is reused by the next values, guarded by this
+     */
+    private final ArrayDeque<Slab<V>> freeSlabs = new ArrayDeque<>();
+    /**
+     * The number of slabs allocated since the creation of the store, guarded by this
+     */
+    private int allocatedSlabs;
+
+    /**
+     * Constructor
+     *
+     * @param serializer the serializer of the values
+     * @param slabSize   the size of the slabs in bytes
+     */
+    OffHeapStore(ValueSerializer<V> serializer, int slabSize) {
+        this.serializer = serializer;
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Writes a value and its times in a slab.
+     *
+     * @param key                         the key of the entry
+     * @param value                       the value to store
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis the extra lifetime after use of the entry in milliseconds
+     * @param creationTimeMillis          the creation time of the entry in milliseconds
+     * @return the value stored in the map, referencing the record
+     */
+    OffHeapValue<V> write(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long creationTimeMillis) {
+        return write(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis, 0);
+    }
+
+    /**
+     * Writes a value and its times in a slab, the weight is kept in the returned OffHeapValue.
+     *
+     * @param key                         the key of the entry
+     * @param value                       the value to store
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis the extra lifetime after use of the entry in milliseconds
+     * @param creationTimeMillis          the creation time of the entry in milliseconds
+     * @param weight                      the weight of the entry
+     * @return the value stored in the map, referencing the record
+     */
+    OffHeapValue<V> write(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long creationTimeMillis, int weight) {
+        int length = serializer.serializedSize(value);
+        int recordSize = (HEADER_SIZE + length + 7) & ~7;
+        Slab<V> slab;
+        OffHeapValue<V> offHeapValue;
+        synchronized (this) {
+            slab = current;
+            if (slab == null || slab.buffer.capacity() - slab.position < recordSize) {
+                if (recordSize > slabSize) {
+                    // A large value does not replace the current slab
+                    slab = allocate(recordSize);
+                    fullSlabs.add(slab);
+                } else {
+                    if (slab != null) {
+                        fullSlabs.add(slab);
+                    }
+                    slab = freeSlabs.poll();
+                    if (slab == null) {
+                        slab = allocate(slabSize);
+                    }
+                    current = slab;
+                }
+            }
+            offHeapValue = new OffHeapValue<>(slab, slab.position, slab.generation, weight);
+            slab.position += recordSize;
+            slab.keys.add(key);
+            slab.values.add(offHeapValue);
+            // The expiration and the pending write are recorded before the store is unlocked,
+            // so the slab cannot be released before the record is written
+            slab.extendExpiration(Math.max(TimedValue.saturatedAdd(creationTimeMillis, lifeTimeMillis),
+                    TimedValue.saturatedAdd(creationTimeMillis, extraLifeTimeAfterUseMillis)));
+            slab.pendingWrites.incrementAndGet();
+        }
+        // The record is only written by this thread, it is published to the readers by the map
+        try {
+            ByteBuffer buffer = slab.buffer;
+            int offset = offHeapValue.getOffset();
+            buffer.putLong(offset + CREATION_TIME, creationTimeMillis);
+            buffer.putLong(offset + LIFETIME, lifeTimeMillis);
+            buffer.putLong(offset + LAST_TIME_USED, creationTimeMillis);
+            buffer.putLong(offset + EXTRA_LIFETIME, extraLifeTimeAfterUseMillis);
+            buffer.putInt(offset + LENGTH, length);
+            serializer.serialize(value, buffer.slice(offset + HEADER_SIZE, length));
+        } finally {
+            slab.pendingWrites.decrementAndGet();
+        }
+        return offHeapValue;
+    }
+
+    /**
+     * Allocates a new slab, the caller holds the lock of the store.
+     */
+    private Slab<V> allocate(int capacity) {
+        allocatedSlabs++;
+        return new Slab<>(capacity, serializer);
+    }
+
+    /**
+     * Releases the slabs whose values are all expired and recycles them. The entries of the map still referencing a released slab
+     * are removed by the remover first, which returns false if the map still holds the value, for example because the clock went back:
+     * the slab is then kept until the next release. The lock of the store is not held while the entries are removed,
+     * since the map writes the values while holding its own locks.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     * @param remover           removes the entry of a key if it still holds the value, returns true if the map no longer holds the value
+     * @return the number of released slabs
+     */
+    @SuppressWarnings("unchecked")
+    int release(long currentTimeMillis, BiPredicate<? super K, ? super OffHeapValue<V>> remover) {
+        List<Slab<V>> released = new ArrayList<>();
+        int inUse;
+        synchronized (this) {
+            inUse = slabCount();
+            for (Iterator<Slab<V>> iterator = fullSlabs.iterator(); iterator.hasNext(); ) {
+                Slab<V> slab = iterator.next();
+                if (isReleasable(slab, currentTimeMillis)) {
+                    iterator.remove();
+                    released.add(slab);
+                }
+            }
+            if (current != null && isReleasable(current, currentTimeMillis)) {
+                released.add(current);
+                current = null;
+            }
+        }
+        if (released.isEmpty()) {
+            return 0;
+        }
+        List<Slab<V>> kept = new ArrayList<>();
+        for (Slab<V> slab : released) {
+            // The released slabs receive no new record, their lists are no longer written
+            for (int i = 0; i < slab.keys.size(); i++) {
+                if (!remover.test((K) slab.keys.get(i), slab.values.get(i))) {
+                    kept.add(slab);
+                    break;
+                }
+            }
+        }
+        synchronized (this) {
+            for (Slab<V> slab : released) {
+                if (kept.contains(slab)) {
+                    fullSlabs.add(slab);
+                } else if (slab.buffer.capacity() == slabSize && freeSlabs.size() < inUse) {
+                    slab.recycle();
+                    freeSlabs.add(slab);
+                }
+            }
+        }
+        return released.size() - kept.size();
+    }
+
+    /**
+     * @return true if all the values of the slab are expired and written
+     */
+    private static boolean isReleasable(Slab<?> slab, long currentTimeMillis) {
+        return slab.maxExpirationTimeMillis.get() <= currentTimeMillis && slab.pendingWrites.get() == 0;
+    }
+
+    /**
+     * @return the number of slabs in use, the free slabs waiting to be reused are not counted
+     */
+    synchronized int slabCount() {
+        return fullSlabs.size() + (current == null ? 0 : 1);
+    }
+
+    /**
+     * @return the number of slabs allocated since the creation of the store, the recycled slabs are not counted again
+     */
+    synchronized int allocatedSlabCount() {
+        return allocatedSlabs;
+    }
+}
@@ -0,0 +1,147 @@
+package cc.corentin.util;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of the entries whose value is stored outside the heap by an {@link OffHeapStore}.
+ * The value and its times are stored in a record of a slab, this object only references the record:
+ * the value is deserialized each time it is read.
+ * Once the slab is recycled, the record may hold another value: the generation of the slab is checked after each read,
+ * and a value whose slab has been recycled is expired and has no value.
+ *
+ * @param <V> the type of value being stored
+ */
+class OffHeapValue<V> extends TimedValue<V> {
+    /**
+     * The slab holding the record
+     */
+    private final OffHeapStore.Slab<V> slab;
+    /**
+     * The offset of the record in the slab
+     */
+    private final int offset;
+    /**
+     * The generation of the slab when the record was written
+     */
+    private final int generation;
+    /**
+     * The weight of the entry, kept on the heap so the weight of the map stays right whatever happens to the slab
+     */
+    private final int weight;
+
+    /**
+     * Constructor
+     *
+     * @param slab       the slab holding the record
+     * @param offset     the offset of the record in the slab
+     * @param generation the generation of the slab when the record is written
+     * @param weight     the weight of the entry
+     */
+    OffHeapValue(OffHeapStore.Slab<V> slab, int offset, int generation, int weight) {
+        this.slab = slab;
+        this.offset = offset;
+        this.generation = generation;
+        this.weight = weight;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Checks that the data read before the call belong to this record, like the validation of a StampedLock.
+     *
+     * @return true if the slab has been recycled since the record was written
+     */
+    private boolean isRecycled() {
+        VarHandle.acquireFence();
+        return slab.generation != generation;
+    }
+
+    /**
+     * @return the value, null if the slab has been recycled
+     */
+    @Override
+    public V getValue() {
+        ByteBuffer buffer = slab.buffer;
+        int length = buffer.getInt(offset + OffHeapStore.LENGTH);
+        V value = null;
+        if (length >= 0 && length <= buffer.capacity() - offset - OffHeapStore.HEADER_SIZE) {
+            try {
+                value = slab.serializer.deserialize(buffer.slice(offset + OffHeapStore.HEADER_SIZE, length));
+            } catch (RuntimeException e) {
+                // The bytes of another record cannot be deserialized
+                if (!isRecycled()) {
+                    throw e;
+                }
+            }
+        }
+        return isRecycled() ? null : value;
+    }
+
+    @Override
+    public int getWeight() {
+        return weight;
+    }
+
+    private long getLong(int field) {
+        return slab.buffer.getLong(offset + field);
+    }
+
+    @Override
+    public long getCreationTimeMillis(long lifeTimeMillis) {
+        return getLong(OffHeapStore.CREATION_TIME);
+    }
+
+    @Override
+    public long getLastTimeUsedMillis(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return getLastTimeUsedMillis();
+    }
+
+    private long getLastTimeUsedMillis() {
+        return (long) OffHeapStore.LONGS.getVolatile(slab.buffer, offset + OffHeapStore.LAST_TIME_USED);
+    }
+
+    @Override
+    public boolean isValid(long currentTimeMillis) {
+        boolean valid = currentTimeMillis - getLong(OffHeapStore.CREATION_TIME) < getLong(OffHeapStore.LIFETIME)
+                || currentTimeMillis - getLastTimeUsedMillis() < getLong(OffHeapStore.EXTRA_LIFETIME);
+        return valid && !isRecycled();
+    }
+
+    /**
+     * @return the expiration time of the entry, Long.MIN_VALUE if the slab has been recycled
+     */
+    @Override
+    public long getExpirationTimeMillis() {
+        long expirationTimeMillis = Math.max(saturatedAdd(getLong(OffHeapStore.CREATION_TIME), getLong(OffHeapStore.LIFETIME)),
+                saturatedAdd(getLastTimeUsedMillis(), getLong(OffHeapStore.EXTRA_LIFETIME)));
+        return isRecycled() ? Long.MIN_VALUE : expirationTimeMillis;
+    }
+
+    @Override
+    public void recordUse(long currentTimeMillis, long granularityMillis, long extraLifeTimeAfterUseMillis) {
+        long lastTimeUsedMillis = getLastTimeUsedMillis();
+        long extraLifeTimeMillis = getLong(OffHeapStore.EXTRA_LIFETIME);
+        if ((granularityMillis <= 0 || currentTimeMillis - lastTimeUsedMillis >= granularityMillis) && !isRecycled()
+                // The time is only written if it is unchanged, so the record of another value is not written if the slab is recycled meanwhile
+                && OffHeapStore.LONGS.compareAndSet(slab.buffer, offset + OffHeapStore.LAST_TIME_USED, lastTimeUsedMillis, currentTimeMillis)) {
+            slab.extendExpiration(saturatedAdd(currentTimeMillis, extraLifeTimeMillis));
+        }
+    }
+
+    @Override
+    public boolean hasLifeTimes(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return getLong(OffHeapStore.LIFETIME) == lifeTimeMillis && getLong(OffHeapStore.EXTRA_LIFETIME) == extraLifeTimeAfterUseMillis;
+    }
+
+    @Override
+    public ValueWithTime<V> toValueWithTime(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        ValueWithTime<V> valueWithTime = weight == 0
+                ? new ValueWithTime<>(getValue(), getLong(OffHeapStore.LIFETIME), getLong(OffHeapStore.EXTRA_LIFETIME), getLong(OffHeapStore.CREATION_TIME))
+                : new WeightedValue<>(getValue(), getLong(OffHeapStore.LIFETIME), getLong(OffHeapStore.EXTRA_LIFETIME), getLong(OffHeapStore.CREATION_TIME), weight);
+        valueWithTime.updateLastTimeUsedMillis(getLastTimeUsedMillis());
+        return valueWithTime;
+    }
+}
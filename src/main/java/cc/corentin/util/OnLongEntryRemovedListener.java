@@ -0,0 +1,18 @@
+package cc.corentin.util;
+
+/**
+ * This interface defines a callback method that is called when an entry is removed by the cleaning of LongConcurrentHashMapAutoCleaning.
+ * The key is given as a primitive long, it is not boxed.
+ *
+ * @param <V> the type of mapped values
+ */
+interface OnLongEntryRemovedListener<V> {
+
+    /**
+     * This method is called when an entry is removed by the cleaning of LongConcurrentHashMapAutoCleaning.
+     *
+     * @param key   the key of the removed entry
+     * @param value the value of the removed entry
+     */
+    void onEntryRemoved(long key, V value);
+}
@@ -0,0 +1,1343 @@
+package cc.corentin.util;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * <h2>Overview</h2>
+ * A map with the same expiration rules as {@link ConcurrentHashMapAutoCleaning}, backed by its own hash table instead of a ConcurrentHashMap.
+ * Each entry is a single node that holds its key, its value and its times, so an entry is one object instead of
+ * a node of the ConcurrentHashMap and a {@link ValueWithTime}, and a sweep of the table reads the times without following another reference.
+ * <p>
+ * The table is split into segments, each one protected by its own lock, the writes lock the segment of their key.
+ * The reads do not lock: the nodes are never modified once they are linked, except for their time of last use,
+ * a write replaces the node of the key. The compute methods and merge run their function with the lock of the segment.
+ * <p>
+ * Each segment also keeps its nodes in a heap ordered by their expiration times, so the cleaning, size() and isEmpty()
+ * only visit the nodes whose expiration time is reached, and skip the segments that have none.
+ * <h2>Usage</h2>
+ * The cleaning is disabled by default. setCleanPeriod(long cleanPeriodMillis) removes the expired entries every cleanPeriodMillis milliseconds,
+ * one segment at a time, and cleanBlocking() removes them once in the calling thread.
+ * Like ConcurrentHashMapAutoCleaning, this class must be closed to stop the cleaning.
+ *
+ * @param <K> the type of keys maintained by the map
+ * @param <V> the type of mapped values
+ */
+public class SegmentedHashMapAutoCleaning<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>, Closeable {
+    /**
+     * Default number of segments
+     */
+    static final int DEFAULT_SEGMENTS = 16;
+    /**
+     * Maximum number of segments
+     */
+    private static final int MAX_SEGMENTS = 1 << 16;
+    /**
+     * Minimum number of bins of the table of a segment
+     */
+    private static final int MIN_SEGMENT_CAPACITY = 2;
+    /**
+     * Maximum number of bins of the table of a segment
+     */
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    /**
+     * Minimum length of the heap of a segment
+     */
+    private static final int MIN_HEAP_CAPACITY = 4;
+
+    /**
+     * An entry of the map, with its times inline.
+     * All the fields except the time of last use, the next node and the position in the heap are final, a write links a new node instead.
+     */
+    static final class Node<K, V> {
+        final int hash;
+        final K key;
+        final V value;
+        /**
+         * The UNIX date of the creation of the value
+         */
+        final long creationTimeMillis;
+        /**
+         * The lifetime of the entry in milliseconds
+         */
+        final long lifeTimeMillis;
+        /**
+         * The time during which the entry can be used after its last use, in milliseconds
+         */
+        final long extraLifeTimeAfterUseMillis;
+        /**
+         * The UNIX date of the last use of the value
+         */
+        volatile long lastTimeUsedMillis;
+        /**
+         * The next node of the bin
+         */
+        volatile Node<K, V> next;
+        /**
+         * The expiration time under which the node is ordered in the heap of its segment, only accessed with the lock of the segment.
+         * The time of last use can push the actual expiration time later, never earlier.
+         */
+        long indexedExpirationTimeMillis;
+        /**
+         * The position of the node in the heap of its segment, -1 if the node is not in the heap,
+         * only accessed with the lock of the segment
+         */
+        int heapIndex = -1;
+
+        Node(int hash, K key, V value, long creationTimeMillis, long lifeTimeMillis, long extraLifeTimeAfterUseMillis,
+             long lastTimeUsedMillis, Node<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.creationTimeMillis = creationTimeMillis;
+            this.lifeTimeMillis = lifeTimeMillis;
+            this.extraLifeTimeAfterUseMillis = extraLifeTimeAfterUseMillis;
+            this.lastTimeUsedMillis = lastTimeUsedMillis;
+            this.next = next;
+        }
+
+        /**
+         * The entry is valid as long as the current time is strictly lower than its expiration time,
+         * the times are added without overflowing like in {@link ValueWithTime#getExpirationTimeMillis()}.
+         */
+        boolean isValid(long currentTimeMillis) {
+            return currentTimeMillis < getExpirationTimeMillis();
+        }
+
+        /**
+         * @return the time at which the entry expires, Long.MAX_VALUE if it never expires
+         */
+        long getExpirationTimeMillis() {
+            return Math.max(TimedValue.saturatedAdd(creationTimeMillis, lifeTimeMillis),
+                    TimedValue.saturatedAdd(lastTimeUsedMillis, extraLifeTimeAfterUseMillis));
+        }
+
+        /**
+         * @return a copy of the node linked to another next node, the copy is not in the heap
+         */
+        Node<K, V> copy(Node<K, V> next) {
+            return new Node<>(hash, key, value, creationTimeMillis, lifeTimeMillis, extraLifeTimeAfterUseMillis, lastTimeUsedMillis, next);
+        }
+    }
+
+    /**
+     * A part of the table, the writes lock it.
+     * The nodes that can expire are also kept in a binary heap ordered by their expiration times,
+     * so the cleaning and the counting of the valid entries only visit the nodes whose expiration time is reached.
+     */
+    static final class Segment<K, V> extends ReentrantLock {
+        /**
+         * The segments are never serialized, ReentrantLock is serializable for its own users
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The bins of the segment, replaced by a larger copy when the segment is resized
+         */
+        volatile AtomicReferenceArray<Node<K, V>> table;
+        /**
+         * Number of nodes in the segment, including the expired ones not removed yet
+         */
+        volatile int count;
+        /**
+         * The nodes of the segment that can expire, the first one has the earliest indexed expiration time
+         */
+        Node<K, V>[] heap;
+        /**
+         * Number of nodes in the heap
+         */
+        int heapSize;
+        /**
+         * The indexed expiration time of the first node of the heap, or Long.MAX_VALUE if the heap is empty.
+         * No node of the segment expires before this time, so it is read without the lock to skip the segments without expired entries.
+         */
+        volatile long nextExpirationTimeMillis = Long.MAX_VALUE;
+        /**
+         * Number of nodes above which the segment is resized
+         */
+        int threshold;
+        /**
+         * The load factor of the table
+         */
+        final float loadFactor;
+
+        @SuppressWarnings("unchecked")
+        Segment(int capacity, float loadFactor) {
+            this.loadFactor = loadFactor;
+            this.heap = (Node<K, V>[]) new Node<?, ?>[MIN_HEAP_CAPACITY];
+            setTable(new AtomicReferenceArray<>(capacity));
+        }
+
+        void setTable(AtomicReferenceArray<Node<K, V>> table) {
+            this.threshold = (int) Math.min(Integer.MAX_VALUE, (long) (table.length() * loadFactor));
+            this.table = table;
+        }
+
+        /**
+         * Replaces the node of a bin, the lock must be held.
+         *
+         * @param table       the table of the segment
+         * @param index       the index of the bin
+         * @param predecessor the node before the replaced node, or null if it is the first node of the bin
+         * @param replacement the node replacing the old node, or the node after it to remove the old node
+         */
+        void link(AtomicReferenceArray<Node<K, V>> table, int index, Node<K, V> predecessor, Node<K, V> replacement) {
+            if (predecessor == null) {
+                table.set(index, replacement);
+            } else {
+                predecessor.next = replacement;
+            }
+        }
+
+        /**
+         * Links a new node at the head of a bin and adds it to the heap, the lock must be held.
+         */
+        void add(AtomicReferenceArray<Node<K, V>> table, int index, Node<K, V> node) {
+            table.set(index, node);
+            addToHeap(node);
+            if (++count > threshold) {
+                resize();
+            }
+        }
+
+        /**
+         * Replaces a node of a bin by a new node of the same key, in the bin and in the heap, the lock must be held.
+         */
+        void replace(AtomicReferenceArray<Node<K, V>> table, int index, Node<K, V> predecessor, Node<K, V> node, Node<K, V> replacement) {
+            link(table, index, predecessor, replacement);
+            removeFromHeap(node);
+            addToHeap(replacement);
+        }
+
+        /**
+         * Unlinks a node from its bin and removes it from the heap, the lock must be held.
+         */
+        void unlink(AtomicReferenceArray<Node<K, V>> table, int index, Node<K, V> predecessor, Node<K, V> node) {
+            link(table, index, predecessor, node.next);
+            removeFromHeap(node);
+            count--;
+        }
+
+        /**
+         * Unlinks a node found in the heap, its predecessor is searched in its bin, the lock must be held.
+         */
+        void unlink(Node<K, V> node) {
+            AtomicReferenceArray<Node<K, V>> table = this.table;
+            int index = node.hash & (table.length() - 1);
+            Node<K, V> predecessor = null;
+            for (Node<K, V> current = table.get(index); current != node; current = current.next) {
+                predecessor = current;
+            }
+            unlink(table, index, predecessor, node);
+        }
+
+        /**
+         * Removes all the nodes of the segment, the lock must be held.
+         */
+        @SuppressWarnings("unchecked")
+        void clear() {
+            setTable(new AtomicReferenceArray<>(MIN_SEGMENT_CAPACITY));
+            heap = (Node<K, V>[]) new Node<?, ?>[MIN_HEAP_CAPACITY];
+            heapSize = 0;
+            count = 0;
+            nextExpirationTimeMillis = Long.MAX_VALUE;
+        }
+
+        /**
+         * Doubles the number of bins of the segment, the lock must be held.
+         * The nodes are copied, so the readers still traversing the old table see their nodes unchanged,
+         * and the copies take the place of the nodes in the heap.
+         */
+        void resize() {
+            AtomicReferenceArray<Node<K, V>> oldTable = table;
+            int oldCapacity = oldTable.length();
+            if (oldCapacity >= MAX_SEGMENT_CAPACITY) {
+                return;
+            }
+            AtomicReferenceArray<Node<K, V>> newTable = new AtomicReferenceArray<>(oldCapacity << 1);
+            int mask = newTable.length() - 1;
+            for (int i = 0; i < oldCapacity; i++) {
+                for (Node<K, V> node = oldTable.get(i); node != null; node = node.next) {
+                    int index = node.hash & mask;
+                    Node<K, V> copy = node.copy(newTable.get(index));
+                    if (node.heapIndex >= 0) {
+                        copy.indexedExpirationTimeMillis = node.indexedExpirationTimeMillis;
+                        copy.heapIndex = node.heapIndex;
+                        heap[copy.heapIndex] = copy;
+                    }
+                    newTable.set(index, copy);
+                }
+            }
+            setTable(newTable);
+        }
+
+        /**
+         * Adds a node to the heap, unless it never expires.
+         */
+        private void addToHeap(Node<K, V> node) {
+            long expirationTimeMillis = node.getExpirationTimeMillis();
+            if (expirationTimeMillis == Long.MAX_VALUE) {
+                return;
+            }
+            node.indexedExpirationTimeMillis = expirationTimeMillis;
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize << 1);
+            }
+            siftUp(heapSize++, node);
+            nextExpirationTimeMillis = heap[0].indexedExpirationTimeMillis;
+        }
+
+        /**
+         * Removes a node from the heap, if it is in the heap.
+         */
+        private void removeFromHeap(Node<K, V> node) {
+            int index = node.heapIndex;
+            if (index < 0) {
+                return;
+            }
+            node.heapIndex = -1;
+            Node<K, V> last = heap[--heapSize];
+            heap[heapSize] = null;
+            if (last != node) {
+                siftDown(index, last);
+                if (heap[index] == last) {
+                    siftUp(index, last);
+                }
+            }
+            nextExpirationTimeMillis = heapSize == 0 ? Long.MAX_VALUE : heap[0].indexedExpirationTimeMillis;
+        }
+
+        /**
+         * Orders again the first node of the heap, whose expiration time has been pushed back by its last use.
+         */
+        private void reindexFirst(Node<K, V> node) {
+            long expirationTimeMillis = node.getExpirationTimeMillis();
+            if (expirationTimeMillis == Long.MAX_VALUE) {
+                removeFromHeap(node);
+                return;
+            }
+            node.indexedExpirationTimeMillis = expirationTimeMillis;
+            siftDown(0, node);
+            nextExpirationTimeMillis = heap[0].indexedExpirationTimeMillis;
+        }
+
+        /**
+         * Moves a node up from the given position until its parent expires before it.
+         */
+        private void siftUp(int index, Node<K, V> node) {
+            while (index > 0) {
+                int parentIndex = (index - 1) >>> 1;
+                Node<K, V> parent = heap[parentIndex];
+                if (parent.indexedExpirationTimeMillis <= node.indexedExpirationTimeMillis) {
+                    break;
+                }
+                heap[index] = parent;
+                parent.heapIndex = index;
+                index = parentIndex;
+            }
+            heap[index] = node;
+            node.heapIndex = index;
+        }
+
+        /**
+         * Moves a node down from the given position until its children expire after it.
+         */
+        private void siftDown(int index, Node<K, V> node) {
+            int half = heapSize >>> 1;
+            while (index < half) {
+                int childIndex = (index << 1) + 1;
+                Node<K, V> child = heap[childIndex];
+                int rightIndex = childIndex + 1;
+                if (rightIndex < heapSize && heap[rightIndex].indexedExpirationTimeMillis < child.indexedExpirationTimeMillis) {
+                    child = heap[childIndex = rightIndex];
+                }
+                if (node.indexedExpirationTimeMillis <= child.indexedExpirationTimeMillis) {
+                    break;
+                }
+                heap[index] = child;
+                child.heapIndex = index;
+                index = childIndex;
+            }
+            heap[index] = node;
+            node.heapIndex = index;
+        }
+
+        /**
+         * Removes the expired nodes of the segment, the lock must be held.
+         * Only the first nodes of the heap are visited, the nodes whose expiration time has been pushed back by their last use are ordered again.
+         *
+         * @param currentTimeMillis the current time in milliseconds
+         * @param removed           the list receiving the removed nodes
+         */
+        void expire(long currentTimeMillis, List<Node<K, V>> removed) {
+            while (heapSize > 0 && heap[0].indexedExpirationTimeMillis <= currentTimeMillis) {
+                Node<K, V> node = heap[0];
+                if (node.isValid(currentTimeMillis)) {
+                    reindexFirst(node);
+                } else {
+                    unlink(node);
+                    removed.add(node);
+                }
+            }
+        }
+
+        /**
+         * Counts the expired nodes of the segment without removing them, the lock must be held.
+         * Only the nodes of the heap whose indexed expiration time is reached are visited.
+         *
+         * @param currentTimeMillis the current time in milliseconds
+         * @return the number of expired nodes
+         */
+        int countExpired(long currentTimeMillis) {
+            return countExpired(0, currentTimeMillis);
+        }
+
+        /**
+         * Counts the expired nodes of the sub-heap starting at the given position, the nodes below a node not reached yet are skipped.
+         */
+        private int countExpired(int index, long currentTimeMillis) {
+            if (index >= heapSize || heap[index].indexedExpirationTimeMillis > currentTimeMillis) {
+                return 0;
+            }
+            int expired = heap[index].isValid(currentTimeMillis) ? 0 : 1;
+            return expired + countExpired((index << 1) + 1, currentTimeMillis) + countExpired((index << 1) + 2, currentTimeMillis);
+        }
+    }
+
+    /**
+     * The segments of the table, their number is a power of two
+     */
+    private final Segment<K, V>[] segments;
+    /**
+     * Shift applied to the hash to select the segment from its highest bits, the bins use its lowest bits
+     */
+    private final int segmentShift;
+    /**
+     * The lifespan of entries is measured in milliseconds
+     */
+    private final long lifeTimeMillis;
+    /**
+     * extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     */
+    private final long extraLifeTimeAfterUseMillis;
+    /**
+     * Thread name
+     */
+    private final String threadName;
+    /**
+     * The clock of the map
+     */
+    private volatile Ticker ticker = Ticker.system();
+    /**
+     * List of listeners for removed entries, copied on write so the cleaning can iterate it while listeners are added
+     */
+    private final List<OnEntryRemovedListener<K, V>> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * The scheduler given by the user, null if the map uses its own thread
+     */
+    private ScheduledExecutorService cleaningScheduler;
+    /**
+     * The scheduler running the cleaning process, null if the cleaning is disabled
+     */
+    private ScheduledExecutorService scheduler;
+    /**
+     * The periodic cleaning task, null if the cleaning is disabled
+     */
+    private ScheduledFuture<?> cleaningTask;
+    /**
+     * The time between two cleanings in milliseconds, -1 if the cleaning is disabled
+     */
+    private long cleanPeriodMillis = -1;
+    /**
+     * Lock protecting the schedulers, the cleaning task and the cleaning period
+     */
+    private final Object cleaningLock = new Object();
+    /**
+     * The entry set view, created when it is used for the first time
+     */
+    private Set<Entry<K, V>> entrySet;
+
+    /**
+     * Constructor
+     *
+     * @param lifeTimeMillis              the lifetime of entries in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @param initialCapacity             the initial number of entries that the map can hold without being resized
+     * @param loadFactor                  the load factor of the table
+     * @param segments                    the number of segments, rounded up to a power of two
+     * @param threadName                  the name of the cleaning thread
+     * @throws IllegalArgumentException if initialCapacity is negative or if loadFactor or segments is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public SegmentedHashMapAutoCleaning(long lifeTimeMillis, long extraLifeTimeAfterUseMillis, int initialCapacity, float loadFactor,
+                                        int segments, String threadName) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity must not be negative");
+        }
+        if (!(loadFactor > 0)) {
+            throw new IllegalArgumentException("loadFactor must be positive");
+        }
+        if (segments <= 0) {
+            throw new IllegalArgumentException("segments must be positive");
+        }
+        int segmentCount = 1;
+        while (segmentCount < segments && segmentCount < MAX_SEGMENTS) {
+            segmentCount <<= 1;
+        }
+        int segmentCapacity = MIN_SEGMENT_CAPACITY;
+        while (segmentCapacity < MAX_SEGMENT_CAPACITY && segmentCapacity * (long) segmentCount * loadFactor < initialCapacity) {
+            segmentCapacity <<= 1;
+        }
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment<>(segmentCapacity, loadFactor);
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.lifeTimeMillis = lifeTimeMillis;
+        this.extraLifeTimeAfterUseMillis = extraLifeTimeAfterUseMillis;
+        this.threadName = threadName;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lifeTimeMillis              the lifetime of entries in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     */
+    public SegmentedHashMapAutoCleaning(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        this(lifeTimeMillis, extraLifeTimeAfterUseMillis, 16, 0.75f, DEFAULT_SEGMENTS, "SegmentedHashMapAutoCleaning");
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lifeTimeMillis the lifetime of entries in milliseconds
+     */
+    public SegmentedHashMapAutoCleaning(long lifeTimeMillis) {
+        this(lifeTimeMillis, 0);
+    }
+
+    /**
+     * Spreads the bits of the hash code of a key, the result is never negative.
+     */
+    private static int spread(int hashCode) {
+        return (hashCode ^ (hashCode >>> 16)) & 0x7fffffff;
+    }
+
+    /**
+     * @return the segment of the given hash
+     */
+    private Segment<K, V> segmentFor(int hash) {
+        // The hash is never negative, the index of the segment uses its highest bits and the index of the bin its lowest bits
+        return segments[(hash << 1) >>> segmentShift & (segments.length - 1)];
+    }
+
+    /**
+     * Finds the node of a key without locking.
+     *
+     * @return the node of the key, valid or not, or null if the key is not in the map
+     */
+    private Node<K, V> findNode(Object key) {
+        int hash = spread(key.hashCode());
+        AtomicReferenceArray<Node<K, V>> table = segmentFor(hash).table;
+        for (Node<K, V> node = table.get(hash & (table.length() - 1)); node != null; node = node.next) {
+            if (node.hash == hash && key.equals(node.key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method allows to change the clock of the map.
+     *
+     * @param ticker the clock used to compute the creation and expiration times of the entries
+     * @throws NullPointerException if ticker is null
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker = Objects.requireNonNull(ticker);
+    }
+
+    /**
+     * Adds a listener function that will be invoked whenever an entry is removed by the cleaning of the map.
+     *
+     * @param listener the listener function to be added.
+     */
+    public void addListener(OnEntryRemovedListener<K, V> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        Node<K, V> node = findNode(key);
+        if (node == null || !node.isValid(ticker.currentTimeMillis())) {
+            return null;
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns the value of a key and updates its time of last use.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value associated with the key, or null if the map contains no valid entry for the key
+     */
+    public V getAndUpdateTimeSinceLastUse(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        Node<K, V> node = findNode(key);
+        if (node == null) {
+            return null;
+        }
+        long currentTimeMillis = ticker.currentTimeMillis();
+        if (!node.isValid(currentTimeMillis)) {
+            return null;
+        }
+        node.lastTimeUsedMillis = currentTimeMillis;
+        return node.value;
+    }
+
+    /**
+     * Returns the creation time of the entry associated with the specified key, in milliseconds.
+     *
+     * @param key the key associated with the entry whose creation time to retrieve.
+     * @return The creation time of the entry in milliseconds, or -1 if the entry does not exist
+     */
+    public long getCreationTimeMillis(Object key) {
+        Node<K, V> node = findNode(key);
+        return node == null ? -1 : ticker.toWallClockMillis(node.creationTimeMillis);
+    }
+
+    /**
+     * Returns the time of the last use of the entry associated with the specified key, in milliseconds.
+     *
+     * @param key the key associated with the entry whose last usage time to retrieve.
+     * @return The time of the last use of the entry in milliseconds, or -1 if the entry does not exist
+     */
+    public long getLastTimeUsedMillis(Object key) {
+        Node<K, V> node = findNode(key);
+        return node == null ? -1 : ticker.toWallClockMillis(node.lastTimeUsedMillis);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        long currentTimeMillis = ticker.currentTimeMillis();
+        for (Segment<K, V> segment : segments) {
+            AtomicReferenceArray<Node<K, V>> table = segment.table;
+            for (int i = 0; i < table.length(); i++) {
+                for (Node<K, V> node = table.get(i); node != null; node = node.next) {
+                    if (node.isValid(currentTimeMillis) && value.equals(node.value)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        checkDefaultLifeTime();
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Checks that a default lifetime is set in the constructor.
+     *
+     * @throws IllegalStateException if no default lifetime is set
+     */
+    private void checkDefaultLifeTime() {
+        if (lifeTimeMillis <= -1) {
+            throw new IllegalStateException("no default life time set in the constructor, use put(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) instead");
+        }
+    }
+
+    /**
+     * Associates the specified value with the specified key in the map, with its own lifetime and the default time since the last usage.
+     *
+     * @param key            key with which the specified value is to be associated
+     * @param value          value to be associated with the specified key
+     * @param lifeTimeMillis the lifetime of the entry in milliseconds
+     * @return the previous value associated with key, or null if there was no valid mapping for key.
+     */
+    public V put(K key, V value, long lifeTimeMillis) {
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, false);
+    }
+
+    /**
+     * Associates the specified value with the specified key in the map, with its own lifetimes.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param value                       value to be associated with the specified key
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the previous value associated with key, or null if there was no valid mapping for key.
+     */
+    public V put(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        checkDefaultLifeTime();
+        return putIfAbsent(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Associates the specified value with the specified key if the map contains no valid entry for the key,
+     * with its own lifetime and the default time since the last usage.
+     *
+     * @param key            key with which the specified value is to be associated
+     * @param value          value to be associated with the specified key
+     * @param lifeTimeMillis the lifetime of the entry in milliseconds
+     * @return the current value associated with key, or null if the value has been associated with the key.
+     */
+    public V putIfAbsent(K key, V value, long lifeTimeMillis) {
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, true);
+    }
+
+    /**
+     * Associates the specified value with the specified key if the map contains no valid entry for the key, with its own lifetimes.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param value                       value to be associated with the specified key
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the current value associated with key, or null if the value has been associated with the key.
+     */
+    public V putIfAbsent(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return put(key, value, lifeTimeMillis, extraLifeTimeAfterUseMillis, true);
+    }
+
+    /**
+     * Links a new node for a key, replacing its current node.
+     *
+     * @param onlyIfAbsent true to keep the current node if it is valid
+     * @return the value of the valid node of the key before the call, or null
+     */
+    private V put(K key, V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, boolean onlyIfAbsent) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int hash = spread(key.hashCode());
+        Segment<K, V> segment = segmentFor(hash);
+        segment.lock();
+        try {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            AtomicReferenceArray<Node<K, V>> table = segment.table;
+            int index = hash & (table.length() - 1);
+            Node<K, V> predecessor = null;
+            for (Node<K, V> node = table.get(index); node != null; predecessor = node, node = node.next) {
+                if (node.hash == hash && key.equals(node.key)) {
+                    boolean valid = node.isValid(currentTimeMillis);
+                    if (onlyIfAbsent && valid) {
+                        return node.value;
+                    }
+                    segment.replace(table, index, predecessor, node, new Node<>(hash, key, value, currentTimeMillis, lifeTimeMillis,
+                            extraLifeTimeAfterUseMillis, currentTimeMillis, node.next));
+                    return valid ? node.value : null;
+                }
+            }
+            segment.add(table, index, new Node<>(hash, key, value, currentTimeMillis, lifeTimeMillis, extraLifeTimeAfterUseMillis,
+                    currentTimeMillis, table.get(index)));
+            return null;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        return remove(key, null, true);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        return value != null && remove(key, value, false) != null;
+    }
+
+    /**
+     * Unlinks the node of a key, the node of an expired entry is unlinked without being returned.
+     *
+     * @param value    the value that the entry must have to be removed, or null
+     * @param anyValue true to remove the entry whatever its value
+     * @return the value of the removed valid entry, or null
+     */
+    private V remove(Object key, Object value, boolean anyValue) {
+        int hash = spread(key.hashCode());
+        Segment<K, V> segment = segmentFor(hash);
+        segment.lock();
+        try {
+            AtomicReferenceArray<Node<K, V>> table = segment.table;
+            int index = hash & (table.length() - 1);
+            Node<K, V> predecessor = null;
+            for (Node<K, V> node = table.get(index); node != null; predecessor = node, node = node.next) {
+                if (node.hash == hash && key.equals(node.key)) {
+                    boolean valid = node.isValid(ticker.currentTimeMillis());
+                    if (valid && !anyValue && !value.equals(node.value)) {
+                        return null;
+                    }
+                    segment.unlink(table, index, predecessor, node);
+                    return valid ? node.value : null;
+                }
+            }
+            return null;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        checkDefaultLifeTime();
+        return replaceNode(key, null, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        checkDefaultLifeTime();
+        return replaceNode(key, oldValue, newValue) != null;
+    }
+
+    /**
+     * Replaces the valid node of a key by a node with the default lifetimes.
+     *
+     * @param oldValue the value that the entry must have to be replaced, or null to replace any value
+     * @return the replaced value, or null if the entry has not been replaced
+     */
+    private V replaceNode(K key, Object oldValue, V newValue) {
+        int hash = spread(key.hashCode());
+        Segment<K, V> segment = segmentFor(hash);
+        segment.lock();
+        try {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            AtomicReferenceArray<Node<K, V>> table = segment.table;
+            int index = hash & (table.length() - 1);
+            Node<K, V> predecessor = null;
+            for (Node<K, V> node = table.get(index); node != null; predecessor = node, node = node.next) {
+                if (node.hash == hash && key.equals(node.key)) {
+                    if (!node.isValid(currentTimeMillis) || (oldValue != null && !oldValue.equals(node.value))) {
+                        return null;
+                    }
+                    segment.replace(table, index, predecessor, node, new Node<>(hash, key, newValue, currentTimeMillis, lifeTimeMillis,
+                            extraLifeTimeAfterUseMillis, currentTimeMillis, node.next));
+                    return node.value;
+                }
+            }
+            return null;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, computes its value with the given function
+     * and associates it with the key with the default lifetimes.
+     * The function is called with the lock of the segment of the key, so it must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        checkDefaultLifeTime();
+        return computeIfAbsent(key, mappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, computes its value with the given function
+     * and associates it with the key with a specific lifetime and the default time since the last usage.
+     *
+     * @param key             key with which the specified value is to be associated
+     * @param mappingFunction the function to compute a value
+     * @param lifeTimeMillis  the lifetime of the entry in milliseconds
+     * @return the current (existing or computed) value associated with the specified key, or null if the computed value is null
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction, long lifeTimeMillis) {
+        return computeIfAbsent(key, mappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, computes its value with the given function
+     * and associates it with the key with its own lifetimes.
+     * An expired value is treated as absent, it is removed if the function returns null.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param mappingFunction             the function to compute a value
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the current (existing or computed) value associated with the specified key, or null if the computed value is null
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || mappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, true, (k, current) -> mappingFunction.apply(k), lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the value for the specified key is present and valid, computes a new value with the given function
+     * and associates it with the key with the default lifetimes.
+     * The function is called with the lock of the segment of the key, so it must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkDefaultLifeTime();
+        return computeIfPresent(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the value for the specified key is present and valid, computes a new value with the given function
+     * and associates it with the key with a specific lifetime and the default time since the last usage.
+     *
+     * @param key               key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @param lifeTimeMillis    the lifetime of the entry in milliseconds
+     * @return the new value associated with the specified key, or null if none
+     */
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis) {
+        return computeIfPresent(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the value for the specified key is present and valid, computes a new value with the given function
+     * and associates it with the key with its own lifetimes.
+     * The entry is removed if the function returns null or if its value is expired.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param remappingFunction           the function to compute a value
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the new value associated with the specified key, or null if none
+     */
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, false, (k, current) -> current == null ? null : remappingFunction.apply(k, current),
+                lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Computes a new value for the specified key from its current valid value, or null if there is none,
+     * and associates it with the key with the default lifetimes.
+     * The function is called with the lock of the segment of the key, so it must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        checkDefaultLifeTime();
+        return compute(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Computes a new value for the specified key from its current valid value, or null if there is none,
+     * and associates it with the key with a specific lifetime and the default time since the last usage.
+     *
+     * @param key               key with which the specified value is to be associated
+     * @param remappingFunction the function to compute a value
+     * @param lifeTimeMillis    the lifetime of the entry in milliseconds
+     * @return the new value associated with the specified key, or null if none
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis) {
+        return compute(key, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Computes a new value for the specified key from its current valid value, or null if there is none,
+     * and associates it with the key with its own lifetimes.
+     * The entry is removed if the function returns null.
+     *
+     * @param key                         key with which the specified value is to be associated
+     * @param remappingFunction           the function to compute a value
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the new value associated with the specified key, or null if none
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || remappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, false, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, associates it with the given value,
+     * otherwise replaces the value with the result of the given function.
+     * The value is associated with the default lifetimes.
+     * The function is called with the lock of the segment of the key, so it must be short and must not update the map.
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if no default lifetime is set in the constructor
+     */
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        checkDefaultLifeTime();
+        return merge(key, value, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, associates it with the given value,
+     * otherwise replaces the value with the result of the given function.
+     * The value is associated with a specific lifetime and the default time since the last usage.
+     *
+     * @param key               key with which the resulting value is to be associated
+     * @param value             the value to be merged with the existing value
+     * @param remappingFunction the function to recompute a value if present
+     * @param lifeTimeMillis    the lifetime of the entry in milliseconds
+     * @return the new value associated with the specified key, or null if no value is associated with the key
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction, long lifeTimeMillis) {
+        return merge(key, value, remappingFunction, lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * If the specified key is not associated with a valid value, associates it with the given value,
+     * otherwise replaces the value with the result of the given function, or removes it if the result is null.
+     * The value is associated with its own lifetimes.
+     *
+     * @param key                         key with which the resulting value is to be associated
+     * @param value                       the value to be merged with the existing value
+     * @param remappingFunction           the function to recompute a value if present
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis The duration of time during which the key remains usable after its last usage.
+     * @return the new value associated with the specified key, or null if no value is associated with the key
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        if (key == null || value == null || remappingFunction == null)
+            throw new NullPointerException();
+        return compute(key, false, (k, current) -> current == null ? value : remappingFunction.apply(current, value),
+                lifeTimeMillis, extraLifeTimeAfterUseMillis);
+    }
+
+    /**
+     * Computes the new value of a key with the lock of its segment, and links a new node for it,
+     * or unlinks its node if the new value is null. An expired node is treated as absent.
+     *
+     * @param keepValid         true to keep the valid node of the key without calling the function
+     * @param remappingFunction the function called with the key and its valid value, or null if the key has no valid value
+     * @return the value of the key after the call, or null if it has no valid value
+     */
+    private V compute(K key, boolean keepValid, BiFunction<? super K, ? super V, ? extends V> remappingFunction,
+                      long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        int hash = spread(key.hashCode());
+        Segment<K, V> segment = segmentFor(hash);
+        segment.lock();
+        try {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            AtomicReferenceArray<Node<K, V>> table = segment.table;
+            int index = hash & (table.length() - 1);
+            Node<K, V> predecessor = null;
+            Node<K, V> node = table.get(index);
+            while (node != null && (node.hash != hash || !key.equals(node.key))) {
+                predecessor = node;
+                node = node.next;
+            }
+            V oldValue = node != null && node.isValid(currentTimeMillis) ? node.value : null;
+            if (keepValid && oldValue != null) {
+                return oldValue;
+            }
+            V newValue = remappingFunction.apply(key, oldValue);
+            if (newValue == null) {
+                if (node != null) {
+                    segment.unlink(table, index, predecessor, node);
+                }
+                return null;
+            }
+            if (node != null) {
+                segment.replace(table, index, predecessor, node, new Node<>(hash, key, newValue, currentTimeMillis, lifeTimeMillis,
+                        extraLifeTimeAfterUseMillis, currentTimeMillis, node.next));
+            } else {
+                segment.add(table, index, new Node<>(hash, key, newValue, currentTimeMillis, lifeTimeMillis,
+                        extraLifeTimeAfterUseMillis, currentTimeMillis, table.get(index)));
+            }
+            return newValue;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of valid entries in the map, this method never removes entries.
+     * The number of nodes of a segment is used as is when none of its nodes can be expired, otherwise its heap gives
+     * the expired nodes that the cleaning has not removed yet, so only the nodes whose expiration time is reached are visited.
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += validCount(segment, currentTimeMillis);
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns true if the map contains no valid entry, this method never removes entries.
+     * Like {@link #size()}, only the nodes whose expiration time is reached are visited.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        long currentTimeMillis = ticker.currentTimeMillis();
+        for (Segment<K, V> segment : segments) {
+            if (validCount(segment, currentTimeMillis) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the valid nodes of a segment, the segment is only locked if some of its nodes can be expired.
+     */
+    private static int validCount(Segment<?, ?> segment, long currentTimeMillis) {
+        int count = segment.count;
+        if (count == 0 || currentTimeMillis < segment.nextExpirationTimeMillis) {
+            return count;
+        }
+        segment.lock();
+        try {
+            return segment.count - segment.countExpired(currentTimeMillis);
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * This method removes the expired entries in the calling thread, one segment at a time.
+     * The segments whose nodes cannot be expired are skipped, and only the expired nodes of the others are visited.
+     * The listeners are called once the segment is unlocked.
+     */
+    public void cleanBlocking() {
+        List<Node<K, V>> removed = new ArrayList<>();
+        for (Segment<K, V> segment : segments) {
+            if (ticker.currentTimeMillis() < segment.nextExpirationTimeMillis) {
+                continue;
+            }
+            segment.lock();
+            try {
+                segment.expire(ticker.currentTimeMillis(), removed);
+            } finally {
+                segment.unlock();
+            }
+            for (Node<K, V> node : removed) {
+                listeners.forEach(listener -> listener.onEntryRemoved(node.key, node.value));
+            }
+            removed.clear();
+        }
+    }
+
+    /**
+     * This method sets the scheduler running the cleaning process, by default the map has its own thread.
+     * If the cleaning is enabled, its task is moved to the new scheduler. The given scheduler is not shut down by the map.
+     *
+     * @param cleaningScheduler the scheduler running the cleaning process, or null to use a thread of the map
+     */
+    public void setCleaningScheduler(ScheduledExecutorService cleaningScheduler) {
+        synchronized (cleaningLock) {
+            if (cleaningScheduler == this.cleaningScheduler) {
+                return;
+            }
+            this.cleaningScheduler = cleaningScheduler;
+            if (scheduler != null) {
+                setCleanPeriod(cleanPeriodMillis);
+            }
+        }
+    }
+
+    /**
+     * This method allows changing the time between each cleaning of the map or disabling the cleaning by setting the value to 0.
+     * Each cleaning only visits the expired entries of the segments.
+     *
+     * @param cleanPeriodMillis The time between each cleaning in milliseconds
+     */
+    public void setCleanPeriod(long cleanPeriodMillis) {
+        synchronized (cleaningLock) {
+            disableCleaning();
+            if (cleanPeriodMillis <= 0) {
+                return;
+            }
+            this.cleanPeriodMillis = cleanPeriodMillis;
+            scheduler = cleaningScheduler != null ? cleaningScheduler : CleaningSchedulers.createNamedScheduler(threadName);
+            cleaningTask = scheduler.scheduleWithFixedDelay(this::cleanBlocking, cleanPeriodMillis, cleanPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * This method disables the cleaning process, the thread of the map is stopped.
+     */
+    private void disableCleaning() {
+        synchronized (cleaningLock) {
+            if (cleaningTask != null) {
+                cleaningTask.cancel(false);
+                cleaningTask = null;
+            }
+            if (scheduler != null && scheduler != cleaningScheduler) {
+                scheduler.shutdownNow();
+            }
+            scheduler = null;
+            cleanPeriodMillis = -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        disableCleaning();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> set = entrySet;
+        if (set == null) {
+            entrySet = set = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return SegmentedHashMapAutoCleaning.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    SegmentedHashMapAutoCleaning.this.clear();
+                }
+            };
+        }
+        return set;
+    }
+
+    /**
+     * A weakly consistent iterator over the valid entries, the segments and their bins are visited in order.
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private int segmentIndex;
+        private AtomicReferenceArray<Node<K, V>> table;
+        private int binIndex;
+        private Node<K, V> nextNode;
+        private Node<K, V> lastReturned;
+
+        EntryIterator() {
+            advance(null);
+        }
+
+        /**
+         * Moves to the next valid node after the given node.
+         */
+        private void advance(Node<K, V> node) {
+            long currentTimeMillis = ticker.currentTimeMillis();
+            Node<K, V> candidate = node == null ? null : node.next;
+            while (true) {
+                while (candidate != null) {
+                    if (candidate.isValid(currentTimeMillis)) {
+                        nextNode = candidate;
+                        return;
+                    }
+                    candidate = candidate.next;
+                }
+                if (table != null && binIndex < table.length()) {
+                    candidate = table.get(binIndex++);
+                } else if (segmentIndex < segments.length) {
+                    table = segments[segmentIndex++].table;
+                    binIndex = 0;
+                } else {
+                    nextNode = null;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            Node<K, V> node = nextNode;
+            if (node == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = node;
+            advance(node);
+            return new SimpleImmutableEntry<>(node.key, node.value);
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            SegmentedHashMapAutoCleaning.this.remove(lastReturned.key, lastReturned.value);
+            lastReturned = null;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package cc.corentin.util;
+
+/**
+ * The default ticker, it reads the clock of the system through {@link TimeHelper} on each call.
+ */
+final class SystemTicker implements Ticker {
+    /**
+     * The only instance of the class
+     */
+    static final SystemTicker INSTANCE = new SystemTicker();
+
+    private SystemTicker() {
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return TimeHelper.currentTimeMillis();
+    }
+}
@@ -0,0 +1,69 @@
+package cc.corentin.util;
+
+/**
+ * This interface is the clock used by ConcurrentHashMapAutoCleaning to create, use and expire its entries.
+ * It can be changed with the setTicker(Ticker ticker) method of the map.
+ */
+public interface Ticker {
+
+    /**
+     * Returns the current time in milliseconds.
+     *
+     * @return the difference, measured in milliseconds, between the current time and midnight, January 1, 1970 UTC.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Converts a time of this ticker into a time of the clock of the system.
+     * The map uses it to report the creation and last use times of its entries.
+     *
+     * @param tickerTimeMillis a time returned by this ticker, in milliseconds
+     * @return the matching time of the clock of the system, in milliseconds
+     */
+    default long toWallClockMillis(long tickerTimeMillis) {
+        return tickerTimeMillis;
+    }
+
+    /**
+     * Converts a time of the clock of the system into a time of this ticker.
+     * The map uses it for the creation times given by the user.
+     *
+     * @param wallClockTimeMillis a time of the clock of the system, in milliseconds
+     * @return the matching time of this ticker, in milliseconds
+     */
+    default long fromWallClockMillis(long wallClockTimeMillis) {
+        return wallClockTimeMillis;
+    }
+
+    /**
+     * Returns the default ticker, which reads the clock of the system on each call.
+     *
+     * @return the system ticker
+     */
+    static Ticker system() {
+        return SystemTicker.INSTANCE;
+    }
+
+    /**
+     * Returns a ticker that reads a timestamp published every millisecond by a single daemon thread,
+     * which is cheaper than reading the clock of the system on each call.
+     * The returned time can be late by a few milliseconds, it is shared by all the maps using it.
+     *
+     * @return the coarse ticker
+     */
+    static Ticker coarse() {
+        return CoarseTicker.INSTANCE;
+    }
+
+    /**
+     * Returns a monotonic ticker based on System.nanoTime(), its time never goes backwards,
+     * so changing the clock of the system (NTP step, manual change, ...) does not expire or resurrect entries.
+     * Its time starts at the clock of the system when it is first used and then counts the elapsed time,
+     * the times reported by the map are converted back to the clock of the system.
+     *
+     * @return the monotonic ticker
+     */
+    static Ticker monotonic() {
+        return MonotonicTicker.INSTANCE;
+    }
+}
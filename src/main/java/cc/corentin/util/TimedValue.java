@@ -0,0 +1,301 @@
+package cc.corentin.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A value stored in the ConcurrentHashMapAutoCleaning class with the times needed to know when it expires.
+ * The subclasses are the layouts of the entries in memory, each one only stores the times its configuration needs:
+ * <ul>
+ *     <li>{@link ValueWithTime} stores the creation time, the time of last use and the two lifetimes of the entry,
+ *     it is used by the entries that have their own lifetimes.</li>
+ *     <li>{@link DeadlineValue} only stores the expiration time,
+ *     it is used by the entries created with the default lifetime of a map without extra lifetime after use.</li>
+ *     <li>{@link DeadlineAccessValue} stores the expiration time and the expiration time after the last use,
+ *     it is used by the entries created with the default lifetimes of a map with an extra lifetime after use.</li>
+ *     <li>{@link OffHeapValue} references a record of an {@link OffHeapStore} that holds the value and its times outside the heap.</li>
+ *     <li>{@link GraceValue} is the full layout with a grace period, during which the entry is kept in the map after its expiration time.</li>
+ * </ul>
+ * The compact layouts do not store the lifetimes, the map gives its default lifetimes to the methods that need them.
+ *
+ * @param <V> the type of value being stored
+ */
+abstract class TimedValue<V> {
+    /**
+     * The value is not referenced by a node of the expiration index
+     */
+    static final int UNINDEXED = 0;
+    /**
+     * The value replaced a value that expires earlier, the node of the previous value is reused for it when it is reached
+     */
+    static final int COVERED = 1;
+    /**
+     * The value is referenced by a node of the expiration index
+     */
+    static final int SCHEDULED = 2;
+    /**
+     * Access to the index state with compare-and-set operations
+     */
+    private static final VarHandle INDEX_STATE;
+
+    static {
+        try {
+            INDEX_STATE = MethodHandles.lookup().findVarHandle(TimedValue.class, "indexState", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The value, null if it is not kept on the heap
+     */
+    private final V value;
+    /**
+     * The state of the value in the expiration index of the map, see {@link ExpiryWheel}
+     */
+    private volatile int indexState;
+
+    /**
+     * Constructor
+     *
+     * @param value the value to store
+     * @throws IllegalArgumentException if the value is null
+     */
+    TimedValue(V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+        this.value = value;
+    }
+
+    /**
+     * Constructor of the layouts that do not keep the value on the heap, they override {@link #getValue()}.
+     */
+    TimedValue() {
+        this.value = null;
+    }
+
+    /**
+     * This method allows to retrieve the value.
+     *
+     * @return the value.
+     */
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * This method determines if the entry is still valid at the given time.
+     *
+     * @param currentTimeMillis the time at which the validity is checked, in milliseconds.
+     * @return true if the entry is valid, otherwise false
+     */
+    public abstract boolean isValid(long currentTimeMillis);
+
+    /**
+     * This method determines if the entry is still valid.
+     *
+     * @return true if the entry is valid, otherwise false
+     */
+    public boolean isValid() {
+        return isValid(TimeHelper.currentTimeMillis());
+    }
+
+    /**
+     * This method computes the time from which the entry is no longer valid.
+     * The entry is valid as long as the current time is strictly lower than the returned value.
+     *
+     * @return the expiration time in milliseconds, or Long.MAX_VALUE if the entry never expires.
+     */
+    public abstract long getExpirationTimeMillis();
+
+    /**
+     * Returns the time until which the entry is kept in the map, which is its expiration time unless it has a grace period.
+     *
+     * @return the time in milliseconds from which the entry can be removed
+     */
+    long getRetentionTimeMillis() {
+        return getExpirationTimeMillis();
+    }
+
+    /**
+     * Determines if the entry must be kept in the map at the given time: it is valid, or expired but in its grace period.
+     * The expired entries kept are still absent for the methods of the map, only their removal is delayed.
+     *
+     * @param currentTimeMillis the current time in milliseconds
+     * @return true if the entry cannot be removed yet
+     */
+    boolean isRetained(long currentTimeMillis) {
+        return isValid(currentTimeMillis);
+    }
+
+    /**
+     * Returns the time at which the expiration index visits the entry: its expiration time,
+     * then the end of its grace period once the index has found it expired and kept it.
+     *
+     * @return the time in milliseconds at which the entry is visited
+     */
+    long getScheduledTimeMillis() {
+        return getExpirationTimeMillis();
+    }
+
+    /**
+     * Records that the entry is expired and kept during its grace period, it is called while the map holds the lock of the entry.
+     *
+     * @return true if the entry was not marked yet, the map then counts it as a retained entry until it is removed
+     */
+    boolean markRetained() {
+        return false;
+    }
+
+    /**
+     * @return true if the entry is counted by the map as an expired entry kept during its grace period
+     */
+    boolean isMarkedRetained() {
+        return false;
+    }
+
+    /**
+     * This method records a use of the entry, if the time of last use is older than the granularity.
+     *
+     * @param currentTimeMillis           the time of use in milliseconds.
+     * @param granularityMillis           the minimum time in milliseconds between two updates, 0 to always update the time.
+     * @param extraLifeTimeAfterUseMillis the default extra lifetime after use of the map, used by the layouts that do not store it.
+     */
+    public abstract void recordUse(long currentTimeMillis, long granularityMillis, long extraLifeTimeAfterUseMillis);
+
+    /**
+     * This method returns the time of last use of the entry, the layouts that do not record the uses return the creation time.
+     *
+     * @param lifeTimeMillis              the default lifetime of the map in milliseconds.
+     * @param extraLifeTimeAfterUseMillis the default extra lifetime after use of the map in milliseconds.
+     * @return the time of last use in milliseconds.
+     */
+    public abstract long getLastTimeUsedMillis(long lifeTimeMillis, long extraLifeTimeAfterUseMillis);
+
+    /**
+     * This method returns the creation time of the entry, the compact layouts compute it from their expiration time.
+     *
+     * @param lifeTimeMillis the default lifetime of the map in milliseconds.
+     * @return the creation time in milliseconds.
+     */
+    public abstract long getCreationTimeMillis(long lifeTimeMillis);
+
+    /**
+     * This method returns the weight of the entry given by the weigher of the map when the entry was written.
+     *
+     * @return the weight of the entry, 0 if the map had no weigher.
+     */
+    public int getWeight() {
+        return 0;
+    }
+
+    /**
+     * @return true if a node of the expiration index references the value or will be reused for it
+     */
+    boolean isIndexed() {
+        return indexState != UNINDEXED;
+    }
+
+    /**
+     * Records that the node of the value replaced by this one will be reused for it.
+     *
+     * @return false if a node has already been given to the value
+     */
+    boolean markCovered() {
+        return INDEX_STATE.compareAndSet(this, UNINDEXED, COVERED);
+    }
+
+    /**
+     * Records that a node is given to the value, unless one has already been given to it.
+     *
+     * @return true if the caller must schedule a node for the value
+     */
+    boolean markScheduled() {
+        int state;
+        do {
+            state = indexState;
+            if (state == SCHEDULED) {
+                return false;
+            }
+        } while (!INDEX_STATE.compareAndSet(this, state, SCHEDULED));
+        return true;
+    }
+
+    /**
+     * Records that a node is given to the value, even if it already has one.
+     */
+    void forceScheduled() {
+        indexState = SCHEDULED;
+    }
+
+    /**
+     * This method determines if the entry has the given lifetimes, which are the default lifetimes of the map.
+     *
+     * @param lifeTimeMillis              the default lifetime of the map in milliseconds.
+     * @param extraLifeTimeAfterUseMillis the default extra lifetime after use of the map in milliseconds.
+     * @return true if the entry has the default lifetimes of the map
+     */
+    public abstract boolean hasLifeTimes(long lifeTimeMillis, long extraLifeTimeAfterUseMillis);
+
+    /**
+     * This method returns the entry with all its times, the compact layouts return a copy that is not stored in the map.
+     *
+     * @param lifeTimeMillis              the default lifetime of the map in milliseconds.
+     * @param extraLifeTimeAfterUseMillis the default extra lifetime after use of the map in milliseconds.
+     * @return the entry with the full layout
+     */
+    public abstract ValueWithTime<V> toValueWithTime(long lifeTimeMillis, long extraLifeTimeAfterUseMillis);
+
+    /**
+     * This method allows to retrieve the value if it is valid, otherwise null.
+     *
+     * @return the value if it is valid, otherwise null
+     */
+    public V getValueIfValid() {
+        return getValueIfValid(TimeHelper.currentTimeMillis());
+    }
+
+    /**
+     * This method allows to retrieve the value if it is valid at the given time, otherwise null.
+     *
+     * @param currentTimeMillis the time at which the validity is checked, in milliseconds.
+     * @return the value if it is valid, otherwise null
+     */
+    public V getValueIfValid(long currentTimeMillis) {
+        if (isValid(currentTimeMillis)) {
+            return getValue();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Adds two durations, returning Long.MAX_VALUE or Long.MIN_VALUE instead of overflowing.
+     */
+    static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            return b > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return getValue().toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof TimedValue<?>) {
+            return getValue().equals(((TimedValue<?>) o).getValue());
+        }
+        return getValue().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return getValue().hashCode();
+    }
+}
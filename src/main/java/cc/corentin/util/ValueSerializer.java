@@ -0,0 +1,89 @@
+package cc.corentin.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts the values of a map to bytes and back, so they can be stored outside the heap,
+ * see {@link ConcurrentHashMapAutoCleaning#setOffHeapStorage(ValueSerializer, int)}.
+ * The implementations must be thread-safe.
+ *
+ * @param <V> the type of the values
+ */
+public interface ValueSerializer<V> {
+
+    /**
+     * @param value the value to serialize
+     * @return the number of bytes written by {@link #serialize(Object, ByteBuffer)} for the value
+     */
+    int serializedSize(V value);
+
+    /**
+     * Writes a value, exactly serializedSize(value) bytes are written from the position of the buffer.
+     *
+     * @param value  the value to serialize
+     * @param target the buffer receiving the bytes of the value
+     */
+    void serialize(V value, ByteBuffer target);
+
+    /**
+     * Reads a value written by {@link #serialize(Object, ByteBuffer)}.
+     *
+     * @param source a buffer containing only the bytes of the value, from its position to its limit
+     * @return the value, never null
+     */
+    V deserialize(ByteBuffer source);
+
+    /**
+     * @return a serializer storing the strings in UTF-8
+     */
+    static ValueSerializer<String> strings() {
+        return new ValueSerializer<>() {
+            @Override
+            public int serializedSize(String value) {
+                // The size is computed without encoding the string twice when it only contains ASCII characters
+                int size = value.length();
+                for (int i = 0; i < value.length(); i++) {
+                    if (value.charAt(i) >= 0x80) {
+                        return value.getBytes(StandardCharsets.UTF_8).length;
+                    }
+                }
+                return size;
+            }
+
+            @Override
+            public void serialize(String value, ByteBuffer target) {
+                target.put(value.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public String deserialize(ByteBuffer source) {
+                return StandardCharsets.UTF_8.decode(source).toString();
+            }
+        };
+    }
+
+    /**
+     * @return a serializer storing the byte arrays as they are
+     */
+    static ValueSerializer<byte[]> byteArrays() {
+        return new ValueSerializer<>() {
+            @Override
+            public int serializedSize(byte[] value) {
+                return value.length;
+            }
+
+            @Override
+            public void serialize(byte[] value, ByteBuffer target) {
+                target.put(value);
+            }
+
+            @Override
+            public byte[] deserialize(ByteBuffer source) {
+                byte[] value = new byte[source.remaining()];
+                source.get(value);
+                return value;
+            }
+        };
+    }
+}
@@ -11,13 +11,11 @@ package cc.corentin.util;
  * For instance, if the lastTimeUsedMillis is 18/03/2023 12:59:00 and the extraLifeTimeAfterUseMillis is 10 minutes,
  * then the value will remain valid until 13:09:00, even if creationTimeMillis + lifeTimeMillis is exceeded.
  *
+ * It is the full layout of the entries, used by the entries that have their own lifetimes, see {@link TimedValue}.
+ *
  * @param <V> the type of value being stored
  */
-class ValueWithTime<V> {
-    /**
-     * The value
-     */
-    private final V value;
+class ValueWithTime<V> extends TimedValue<V> {
     /**
      * creationTimeMillis represents the UNIX date of the creation of the value
      */
@@ -27,9 +25,9 @@ class ValueWithTime<V> {
      */
     private long lifeTimeMillis;
     /**
-     * lastTimeUsedMillis represents the UNIX date of the last use of the value
+     * lastTimeUsedMillis represents the UNIX date of the last use of the value, it is written by the threads reading the value
      */
-    private long lastTimeUsedMillis;
+    private volatile long lastTimeUsedMillis;
     /**
      * extraLifeTimeAfterUseMillis is the time that the key can be used after the last usage.
      */
@@ -42,30 +40,51 @@ class ValueWithTime<V> {
      * @throws IllegalArgumentException if the value is null
      */
     public ValueWithTime(V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
-        if (value == null) {
-            throw new IllegalArgumentException("value cannot be null");
-        }
-        this.value = value;
-        this.creationTimeMillis = TimeHelper.currentTimeMillis();
+        this(value, lifeTimeMillis, extraLifeTimeAfterUseMillis, TimeHelper.currentTimeMillis());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param value              the value to store
+     * @param creationTimeMillis the creation time of the value in milliseconds
+     * @throws IllegalArgumentException if the value is null
+     */
+    public ValueWithTime(V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long creationTimeMillis) {
+        super(value);
+        this.creationTimeMillis = creationTimeMillis;
         this.lastTimeUsedMillis = creationTimeMillis;
         this.lifeTimeMillis = lifeTimeMillis;
         this.extraLifeTimeAfterUseMillis = extraLifeTimeAfterUseMillis;
     }
 
     /**
-     * This method allows to retrieve the value.
+     * This method updates the time of last use.
+     */
+    public void updateLastTimeUsedMillis() {
+        updateLastTimeUsedMillis(TimeHelper.currentTimeMillis());
+    }
+
+    /**
+     * This method sets the time of last use.
      *
-     * @return the value.
+     * @param currentTimeMillis the time of use in milliseconds.
      */
-    public V getValue() {
-        return value;
+    public void updateLastTimeUsedMillis(long currentTimeMillis) {
+        lastTimeUsedMillis = currentTimeMillis;
     }
 
     /**
-     * This method updates the time of last use.
+     * This method sets the time of last use if the stored one is older than the granularity.
+     * The field is only read otherwise, so a value used very often by many threads is not written on each use.
+     *
+     * @param currentTimeMillis the time of use in milliseconds.
+     * @param granularityMillis the minimum time in milliseconds between two updates, 0 to always update the time.
      */
-    public void updateLastTimeUsedMillis() {
-        lastTimeUsedMillis = TimeHelper.currentTimeMillis();
+    public void updateLastTimeUsedMillis(long currentTimeMillis, long granularityMillis) {
+        if (granularityMillis <= 0 || currentTimeMillis - lastTimeUsedMillis >= granularityMillis) {
+            lastTimeUsedMillis = currentTimeMillis;
+        }
     }
 
     /**
@@ -101,6 +120,15 @@ class ValueWithTime<V> {
         return oldLifeTimeMillis;
     }
 
+    /**
+     * This method allows to retrieve the lifetime.
+     *
+     * @return the lifetime in milliseconds.
+     */
+    public long getLifeTimeMillis() {
+        return lifeTimeMillis;
+    }
+
     /**
      * This method allows retrieving the time since last use.
      *
@@ -110,6 +138,15 @@ class ValueWithTime<V> {
         return lastTimeUsedMillis;
     }
 
+    /**
+     * This function allows to retrieve ExtraLifeTimeAfterUseMillis
+     *
+     * @return the extra lifetime after use in milliseconds.
+     */
+    public long getExtraLifeTimeAfterUseMillis() {
+        return extraLifeTimeAfterUseMillis;
+    }
+
     /**
      * This function allows to set ExtraLifeTimeAfterUseMillis
      *
@@ -122,44 +159,38 @@ class ValueWithTime<V> {
         return oldExtraLifeTimeAfterUseMillis;
     }
 
-    /**
-     * This method determines if the entry is still valid.
-     *
-     * @return true if the entry is valid, otherwise false
-     */
-    public boolean isValid() {
-        long currentTimeMillis = TimeHelper.currentTimeMillis();
+    @Override
+    public boolean isValid(long currentTimeMillis) {
         return currentTimeMillis - creationTimeMillis < lifeTimeMillis || currentTimeMillis - lastTimeUsedMillis < extraLifeTimeAfterUseMillis;
     }
 
-    /**
-     * This method allows to retrieve the value if it is valid, otherwise null.
-     *
-     * @return the value if it is valid, otherwise null
-     */
-    public V getValueIfValid() {
-        if (isValid()) {
-            return value;
-        } else {
-            return null;
-        }
+    @Override
+    public long getExpirationTimeMillis() {
+        return Math.max(saturatedAdd(creationTimeMillis, lifeTimeMillis), saturatedAdd(lastTimeUsedMillis, extraLifeTimeAfterUseMillis));
     }
 
     @Override
-    public String toString() {
-        return value.toString();
+    public void recordUse(long currentTimeMillis, long granularityMillis, long extraLifeTimeAfterUseMillis) {
+        updateLastTimeUsedMillis(currentTimeMillis, granularityMillis);
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (o instanceof ValueWithTime<?>) {
-            return value.equals(((ValueWithTime<?>) o).getValue());
-        }
-        return value.equals(o);
+    public long getCreationTimeMillis(long lifeTimeMillis) {
+        return creationTimeMillis;
+    }
+
+    @Override
+    public long getLastTimeUsedMillis(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return lastTimeUsedMillis;
+    }
+
+    @Override
+    public boolean hasLifeTimes(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return this.lifeTimeMillis == lifeTimeMillis && this.extraLifeTimeAfterUseMillis == extraLifeTimeAfterUseMillis;
     }
 
     @Override
-    public int hashCode() {
-        return value.hashCode();
+    public ValueWithTime<V> toValueWithTime(long lifeTimeMillis, long extraLifeTimeAfterUseMillis) {
+        return this;
     }
 }
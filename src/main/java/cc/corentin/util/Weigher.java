@@ -0,0 +1,22 @@
+package cc.corentin.util;
+
+/**
+ * This interface computes the weight of the entries of a ConcurrentHashMapAutoCleaning,
+ * see {@link ConcurrentHashMapAutoCleaning#setMaximumWeight(long, Weigher, EvictionPolicy)}.
+ * The weight of an entry is computed once when it is written and stored with it, it can be for example the size of the value in bytes.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of mapped values
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * Returns the weight of an entry.
+     *
+     * @param key   the key of the entry
+     * @param value the value of the entry
+     * @return the weight of the entry, it must not be negative
+     */
+    int weigh(K key, V value);
+}
@@ -0,0 +1,34 @@
+package cc.corentin.util;
+
+/**
+ * The full layout of the entries with the weight given by the weigher of the map.
+ * The weight is stored so it is not computed again when the entry is removed, the entries without weight keep the smaller layouts.
+ *
+ * @param <V> the type of value being stored
+ */
+class WeightedValue<V> extends ValueWithTime<V> {
+    /**
+     * The weight of the entry
+     */
+    private final int weight;
+
+    /**
+     * Constructor
+     *
+     * @param value                       the value to store
+     * @param lifeTimeMillis              the lifetime of the entry in milliseconds
+     * @param extraLifeTimeAfterUseMillis the extra lifetime after use of the entry in milliseconds
+     * @param creationTimeMillis          the creation time of the entry in milliseconds
+     * @param weight                      the weight of the entry
+     * @throws IllegalArgumentException if the value is null
+     */
+    WeightedValue(V value, long lifeTimeMillis, long extraLifeTimeAfterUseMillis, long creationTimeMillis, int weight) {
+        super(value, lifeTimeMillis, extraLifeTimeAfterUseMillis, creationTimeMillis);
+        this.weight = weight;
+    }
+
+    @Override
+    public int getWeight() {
+        return weight;
+    }
+}
@@ -0,0 +1,208 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the behaviour that all the auto cleaning maps share: the contract of ConcurrentMap,
+ * with the expired entries seen as absent by all the methods.
+ * Each implementation runs these tests by extending this class.
+ */
+public abstract class MapAutoCleaningContract {
+    /**
+     * The maps created by the test, closed after it
+     */
+    private final List<Closeable> maps = new ArrayList<>();
+
+    /**
+     * Creates the map to test, with a default extra lifetime after use of 0.
+     *
+     * @param lifeTimeMillis the default lifetime of the entries, -1 for no default lifetime
+     * @param ticker         the clock of the map
+     * @return the new map, it must be closeable
+     */
+    protected abstract ConcurrentMap<String, String> createMap(long lifeTimeMillis, Ticker ticker);
+
+    private ConcurrentMap<String, String> newMap(long lifeTimeMillis, Ticker ticker) {
+        ConcurrentMap<String, String> map = createMap(lifeTimeMillis, ticker);
+        maps.add((Closeable) map);
+        return map;
+    }
+
+    @AfterEach
+    public void closeMaps() throws IOException {
+        for (Closeable map : maps) {
+            map.close();
+        }
+        maps.clear();
+    }
+
+    @Test
+    public void testMapContract() {
+        ConcurrentMap<String, String> mapToTest = newMap(Long.MAX_VALUE, Ticker.system());
+        Map<String, String> mapRef = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(mapRef.put("key" + i, "value" + i), mapToTest.put("key" + i, "value" + i));
+        }
+        assertEquals(mapRef, mapToTest);
+        assertEquals(mapRef.put("key1", "value1b"), mapToTest.put("key1", "value1b"));
+        assertEquals(mapRef.putIfAbsent("key1", "value1c"), mapToTest.putIfAbsent("key1", "value1c"));
+        assertEquals(mapRef.putIfAbsent("key1000", "value1000"), mapToTest.putIfAbsent("key1000", "value1000"));
+        assertEquals(mapRef.replace("key2", "value2b"), mapToTest.replace("key2", "value2b"));
+        assertEquals(mapRef.replace("key1001", "value1001"), mapToTest.replace("key1001", "value1001"));
+        assertEquals(mapRef.replace("key3", "value4", "value3b"), mapToTest.replace("key3", "value4", "value3b"));
+        assertEquals(mapRef.replace("key3", "value3", "value3b"), mapToTest.replace("key3", "value3", "value3b"));
+        assertEquals(mapRef.remove("key4"), mapToTest.remove("key4"));
+        assertEquals(mapRef.remove("key5", "value6"), mapToTest.remove("key5", "value6"));
+        assertEquals(mapRef.remove("key5", "value5"), mapToTest.remove("key5", "value5"));
+        assertEquals(mapRef.merge("key6", "b", String::concat), mapToTest.merge("key6", "b", String::concat));
+        assertEquals(mapRef.computeIfAbsent("key1002", k -> "value1002"), mapToTest.computeIfAbsent("key1002", k -> "value1002"));
+        assertEquals(mapRef, mapToTest);
+        assertEquals(mapRef.size(), mapToTest.size());
+        assertTrue(mapToTest.containsValue("value7"));
+        Iterator<Map.Entry<String, String>> iterator = mapToTest.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey().endsWith("0")) {
+                iterator.remove();
+            }
+        }
+        mapRef.keySet().removeIf(key -> key.endsWith("0"));
+        assertEquals(mapRef, mapToTest);
+        mapToTest.clear();
+        assertTrue(mapToTest.isEmpty());
+    }
+
+    @Test
+    public void testExpiredEntryIsAbsent() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentMap<String, String> map = newMap(100, time::get);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        time.addAndGet(50);
+        map.put("key3", "value3");
+        time.addAndGet(60);
+        assertNull(map.get("key1"));
+        assertFalse(map.containsKey("key2"));
+        assertFalse(map.containsValue("value2"));
+        assertEquals("value3", map.get("key3"));
+        assertEquals(1, map.size());
+        assertFalse(map.isEmpty());
+        assertEquals(Set.of("key3"), map.keySet());
+        assertEquals(List.of("value3"), new ArrayList<>(map.values()));
+        assertEquals(Map.of("key3", "value3"), map);
+        time.addAndGet(50);
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertTrue(map.entrySet().isEmpty());
+    }
+
+    @Test
+    public void testWriteOverExpiredEntry() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentMap<String, String> map = newMap(100, time::get);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        map.put("key3", "value3");
+        time.addAndGet(150);
+        assertNull(map.put("key1", "value1b"));
+        assertEquals("value1b", map.get("key1"));
+        assertNull(map.putIfAbsent("key2", "value2b"));
+        assertEquals("value2b", map.get("key2"));
+        assertEquals("value3b", map.merge("key3", "value3b", String::concat));
+        assertEquals("value3b", map.get("key3"));
+        assertEquals("value4", map.computeIfAbsent("key4", k -> "value4"));
+        time.addAndGet(150);
+        assertEquals("value4b", map.computeIfAbsent("key4", k -> "value4b"));
+        assertNull(map.computeIfPresent("key1", (k, v) -> v + "c"));
+        assertFalse(map.containsKey("key1"));
+    }
+
+    @Test
+    public void testComputeOverExpiredEntry() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentMap<String, String> map = newMap(100, time::get);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        time.addAndGet(150);
+        // The expired values are given to the functions as absent values
+        assertEquals("value1b", map.compute("key1", (k, v) -> v == null ? "value1b" : v + "c"));
+        assertNull(map.compute("key2", (k, v) -> v));
+        assertNull(map.compute("key3", (k, v) -> null));
+        assertEquals(Map.of("key1", "value1b"), map);
+        assertEquals("value1bc", map.compute("key1", (k, v) -> v + "c"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testReplaceAndRemoveExpiredEntry() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentMap<String, String> map = newMap(100, time::get);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        map.put("key3", "value3");
+        map.put("key4", "value4");
+        time.addAndGet(150);
+        assertNull(map.replace("key1", "value1b"));
+        assertFalse(map.replace("key2", "value2", "value2b"));
+        assertNull(map.remove("key3"));
+        assertFalse(map.remove("key4", "value4"));
+        assertNull(map.get("key1"));
+        assertNull(map.get("key2"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentMap<String, String> map = newMap(100, time::get);
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+        assertThrows(IllegalStateException.class, iterator::remove);
+        int seen = 0;
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            assertEquals("value" + entry.getKey().substring(3), entry.getValue());
+            if (seen++ % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        assertEquals(10, seen);
+        assertEquals(5, map.size());
+        assertThrows(NoSuchElementException.class, iterator::next);
+    }
+
+    @Test
+    public void testNullArguments() {
+        ConcurrentMap<String, String> map = newMap(100, Ticker.system());
+        assertThrows(NullPointerException.class, () -> map.put(null, "value"));
+        assertThrows(NullPointerException.class, () -> map.put("key", null));
+        assertThrows(NullPointerException.class, () -> map.putIfAbsent(null, "value"));
+        assertThrows(NullPointerException.class, () -> map.putIfAbsent("key", null));
+        assertThrows(NullPointerException.class, () -> map.replace("key", null));
+        assertThrows(NullPointerException.class, () -> map.replace("key", "value", null));
+        assertThrows(NullPointerException.class, () -> map.get(null));
+        assertThrows(NullPointerException.class, () -> map.containsKey(null));
+        assertThrows(NullPointerException.class, () -> map.containsValue(null));
+        assertThrows(NullPointerException.class, () -> map.remove(null));
+    }
+
+    @Test
+    public void testDefaultLifeTimeRequired() {
+        ConcurrentMap<String, String> map = newMap(-1, Ticker.system());
+        assertThrows(IllegalStateException.class, () -> map.put("key1", "value1"));
+        assertThrows(IllegalStateException.class, () -> map.putIfAbsent("key1", "value1"));
+        assertThrows(IllegalStateException.class, () -> map.replace("key1", "value1"));
+        assertThrows(IllegalStateException.class, () -> map.replace("key1", "value1", "value2"));
+        assertTrue(map.isEmpty());
+    }
+}
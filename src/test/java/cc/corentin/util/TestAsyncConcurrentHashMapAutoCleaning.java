@@ -0,0 +1,79 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestAsyncConcurrentHashMapAutoCleaning {
+
+    @Test
+    public void testLifeTimeStartsOnCompletion() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+        AsyncConcurrentHashMapAutoCleaning<String, String> map = new AsyncConcurrentHashMapAutoCleaning<>(100, key -> {
+            loads.incrementAndGet();
+            return pending;
+        });
+        map.getMap().setTicker(time::get);
+        CompletableFuture<String> future = map.getAsync("key");
+        // The misses during the load share the same future
+        assertSame(future, map.getAsync("key"));
+        time.addAndGet(500);
+        assertSame(future, map.getIfPresent("key"));
+        pending.complete("value");
+        assertEquals("value", future.join());
+        time.addAndGet(99);
+        assertSame(future, map.getIfPresent("key"));
+        time.incrementAndGet();
+        assertNull(map.getIfPresent("key"));
+        assertEquals(1, loads.get());
+        map.close();
+    }
+
+    @Test
+    public void testFailedFuturesAreRemoved() {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        AsyncConcurrentHashMapAutoCleaning<String, String> map = new AsyncConcurrentHashMapAutoCleaning<>(100, key -> pending);
+        CompletableFuture<String> future = map.getAsync("key");
+        pending.completeExceptionally(new IOException("unavailable"));
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertNull(map.getIfPresent("key"));
+        assertEquals("loaded", map.getAsync("key", key -> CompletableFuture.completedFuture("loaded")).join());
+        // A loader returning null is not stored
+        assertNull(map.getAsync("absent", key -> CompletableFuture.completedFuture(null)).join());
+        assertNull(map.getIfPresent("absent"));
+        CompletableFuture<String> thrown = map.getAsync("thrown", key -> {
+            throw new IllegalStateException();
+        });
+        assertTrue(thrown.isCompletedExceptionally());
+        assertNull(map.getIfPresent("thrown"));
+        assertEquals("loaded", map.getAsync("thrown", key -> CompletableFuture.completedFuture("loaded")).join());
+        // A loader returning a null future does not leave a future that never completes
+        CompletableFuture<String> nullFuture = map.getAsync("null", key -> null);
+        e = assertThrows(ExecutionException.class, nullFuture::get);
+        assertInstanceOf(NullPointerException.class, e.getCause());
+        assertNull(map.getIfPresent("null"));
+        assertEquals("loaded", map.getAsync("null", key -> CompletableFuture.completedFuture("loaded")).join());
+        map.close();
+    }
+
+    @Test
+    public void testGetAllAsync() {
+        AsyncConcurrentHashMapAutoCleaning<String, String> map = new AsyncConcurrentHashMapAutoCleaning<>(100,
+                key -> CompletableFuture.supplyAsync(() -> key.startsWith("absent") ? null : key.toUpperCase()));
+        map.put("key1", CompletableFuture.completedFuture("stored"));
+        Map<String, String> values = map.getAllAsync(List.of("key1", "key2", "absent")).join();
+        assertEquals(Map.of("key1", "stored", "key2", "KEY2"), values);
+        map.close();
+    }
+}
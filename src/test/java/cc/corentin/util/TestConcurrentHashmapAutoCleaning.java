@@ -6,13 +6,25 @@ import org.mockito.Mockito;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.*;
 
-public class TestConcurrentHashmapAutoCleaning {
+public class TestConcurrentHashmapAutoCleaning extends MapAutoCleaningContract {
+
+    @Override
+    protected ConcurrentMap<String, String> createMap(long lifeTimeMillis, Ticker ticker) {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(lifeTimeMillis);
+        map.setTicker(ticker);
+        return map;
+    }
+
     @Test
     public void testEquals() {
         // Create 2 maps, one with the class to be tested and one with a reference map
@@ -673,6 +685,58 @@ public class TestConcurrentHashmapAutoCleaning {
         map.close();
     }
 
+    @Test
+    public void testAutomaticCleaningAfterLifeTimeShortened() {
+        // The entry never expires, then its lifetime is set to 0 while the cleaning is enabled
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(Long.MAX_VALUE, 0, 10);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        map.setLifeTimeMillis("key1", 0);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 1);
+        assertTrue(map.containsKey("key2"));
+        map.close();
+    }
+
+    @Test
+    public void testAutomaticCleaningAtExpirationTime() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(60 * 60 * 1000, 0, 1);
+        map.put("key1", "value1");
+        // The cleaning sleeps until the entry expires, an earlier entry must wake it up
+        map.put("key2", "value2", 200);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 1);
+        assertTrue(map.containsKey("key1"));
+        map.setCreationTimeMillis("key1", 0);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 0);
+        map.close();
+    }
+
+    @Test
+    public void testAutomaticCleaningOfEntriesAddedBeforeEnabling() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(0);
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        assertEquals(100, map.sizeWithExpired());
+        map.setCleanPeriod(10);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 0);
+        map.close();
+    }
+
+    @Test
+    public void testCleaningDisabledAndEnabledAgain() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setCleanPeriod(10);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        // The entries were scheduled in the index of the first cleaning period, they must be scheduled again in the new one
+        map.setCleanPeriod(0);
+        map.setCleanPeriod(10);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 0);
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        map.close();
+    }
+
     @Test
     public void testSetCleanPeriodTo0() {
         // We use a lifespan of 0s and a cleaning period of 100ms
@@ -719,6 +783,663 @@ public class TestConcurrentHashmapAutoCleaning {
         assertFalse(Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().equals(uuid)));
     }
 
+    @Test
+    public void testSharedCleaningScheduler() {
+        String uuid = UUID.randomUUID().toString();
+        ConcurrentHashMapAutoCleaning<String, String> map1 = new ConcurrentHashMapAutoCleaning<>(100, 0, -1, uuid);
+        ConcurrentHashMapAutoCleaning<String, String> map2 = new ConcurrentHashMapAutoCleaning<>(100, 0, -1, uuid);
+        map1.setCleaningScheduler(ConcurrentHashMapAutoCleaning.sharedCleaningScheduler());
+        map2.setCleaningScheduler(ConcurrentHashMapAutoCleaning.sharedCleaningScheduler());
+        map1.setCleanPeriod(1);
+        map2.setCleanPeriod(1);
+        // No thread of their own is launched
+        assertFalse(Thread.getAllStackTraces().keySet().stream().anyMatch(thread -> thread.getName().equals(uuid)));
+        map1.put("key1", "value1");
+        map2.put("key1", "value1");
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map1.sizeWithExpired() == 0 && map2.sizeWithExpired() == 0);
+        // Closing a map does not stop the cleaning of the other one
+        map1.close();
+        map1.put("key2", "value2");
+        map2.put("key2", "value2");
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map2.sizeWithExpired() == 0);
+        assertEquals(1, map1.sizeWithExpired());
+        map2.close();
+    }
+
+    @Test
+    public void testCleaningOfManyExpiredEntries() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(0, 0);
+        for (int i = 0; i < 3 * ConcurrentHashMapAutoCleaning.CLEANING_SLICE; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        // More entries than a cleaning pass visits, the passes follow each other without waiting for the clean period
+        map.setCleanPeriod(60 * 60 * 1000);
+        await().atMost(2, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 0);
+        map.close();
+    }
+
+    @Test
+    public void testParallelCleaning() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(0, 0);
+        assertThrows(IllegalArgumentException.class, () -> map.setParallelCleaning(ForkJoinPool.commonPool(), 0));
+        map.setParallelCleaning(ForkJoinPool.commonPool(), 100);
+        for (int i = 0; i < 10_000; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        map.cleanBlocking();
+        assertEquals(0, map.sizeWithExpired());
+        for (int i = 0; i < 10_000; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        AtomicInteger removed = new AtomicInteger();
+        map.addListener((key, value) -> removed.incrementAndGet());
+        map.setCleanPeriod(1);
+        // The tasks remove the entries, the cleaning thread calls the listeners once they are all done: the map can be empty before the last call
+        await().atMost(2, TimeUnit.SECONDS).until(() -> removed.get() == 10_000);
+        assertEquals(0, map.sizeWithExpired());
+        map.close();
+    }
+
+    @Test
+    public void testAmortizedCleaning() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(0, 0);
+        assertThrows(IllegalArgumentException.class, () -> map.setAmortizedCleaning(-1, 10));
+        assertThrows(IllegalArgumentException.class, () -> map.setAmortizedCleaning(1, 0));
+        List<String> removedKeys = new ArrayList<>();
+        map.addListener((key, value) -> removedKeys.add(key));
+        // Without the amortized cleaning, the expired entries stay in the map
+        map.put("key1", "value1");
+        assertNull(map.get("key1"));
+        assertEquals(1, map.sizeWithExpired());
+        // A read of an expired entry removes it
+        map.setAmortizedCleaning(Integer.MAX_VALUE, 10);
+        assertNull(map.get("key1"));
+        assertEquals(0, map.sizeWithExpired());
+        assertEquals(List.of("key1"), removedKeys);
+        // Each write sweeps 10 entries, the map never holds many expired entries
+        map.setAmortizedCleaning(1, 10);
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, "value" + i);
+            assertTrue(map.sizeWithExpired() <= 20);
+        }
+        map.close();
+    }
+
+    @Test
+    public void testTicker() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100, 50);
+        map.setTicker(time::get);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        assertEquals(1_000_000, map.getCreationTimeMillis("key1"));
+        time.addAndGet(80);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        assertEquals(1_000_080, map.getLastTimeUsedMillis("key1"));
+        time.addAndGet(20);
+        assertEquals(1, map.size());
+        assertEquals(Set.of("key1"), map.keySet());
+        assertNull(map.get("key2"));
+        time.addAndGet(30);
+        assertTrue(map.isEmpty());
+        assertThrows(NullPointerException.class, () -> map.setTicker(null));
+        map.close();
+    }
+
+    @Test
+    public void testAccessTimeGranularity() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(0, 100);
+        map.setTicker(time::get);
+        map.setAccessTimeGranularity(10);
+        map.put("key1", "value1");
+        time.addAndGet(5);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        assertEquals(1_000_000, map.getLastTimeUsedMillis("key1"));
+        time.addAndGet(5);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        assertEquals(1_000_010, map.getLastTimeUsedMillis("key1"));
+        map.setAccessTimeGranularity(0);
+        time.addAndGet(1);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        assertEquals(1_000_011, map.getLastTimeUsedMillis("key1"));
+        assertThrows(IllegalArgumentException.class, () -> map.setAccessTimeGranularity(-1));
+        map.close();
+    }
+
+    @Test
+    public void testOffHeapStorage() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100, 50);
+        map.setTicker(time::get);
+        map.setOffHeapStorage(ValueSerializer.strings(), 1024);
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        assertTrue(map.offHeapSlabCount() > 1);
+        assertEquals("value1", map.get("key1"));
+        assertEquals(100, map.setLifeTimeMillis("key3", 1000));
+        assertEquals("value3", map.get("key3"));
+        time.addAndGet(80);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        time.addAndGet(20);
+        assertEquals(2, map.size());
+        assertTrue(map.containsValue("value1"));
+        map.cleanBlocking();
+        // The slab holding key1 is kept, since the use of key1 extends its lifetime
+        assertEquals(1, map.offHeapSlabCount());
+        time.addAndGet(50);
+        map.cleanBlocking();
+        assertEquals(0, map.offHeapSlabCount());
+        assertEquals(Set.of("key3"), map.keySet());
+        map.close();
+    }
+
+    @Test
+    public void testOffHeapSlabsReused() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100, 50);
+        map.setTicker(time::get);
+        map.setOffHeapStorage(ValueSerializer.strings(), 1024);
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "value" + i + "-");
+        }
+        int allocatedSlabs = map.offHeapAllocatedSlabCount();
+        for (int cycle = 0; cycle < 10; cycle++) {
+            time.addAndGet(150);
+            map.cleanBlocking();
+            assertEquals(0, map.offHeapSlabCount());
+            assertTrue(map.isEmpty());
+            for (int i = 0; i < 100; i++) {
+                map.put("key" + i, "value" + i + cycle);
+            }
+            assertEquals("value1" + cycle, map.get("key1"));
+        }
+        // The slabs released by the cleaning are reused by the next values
+        assertEquals(allocatedSlabs, map.offHeapAllocatedSlabCount());
+        map.close();
+    }
+
+    @Test
+    public void testMaximumSizeLeastRecentlyUsed() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(1000, 1000);
+        map.setTicker(time::get);
+        map.setCompactEntries(true);
+        List<String> evicted = new ArrayList<>();
+        map.addListener((key, value) -> evicted.add(key + "=" + value));
+        map.setMaximumSize(3, EvictionPolicy.LEAST_RECENTLY_USED);
+        map.put("key1", "value1");
+        time.incrementAndGet();
+        // A full layout and the compact layout are compared with the same times
+        map.put("key2", "value2", 2000, 1000);
+        time.incrementAndGet();
+        map.put("key3", "value3");
+        time.incrementAndGet();
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        time.incrementAndGet();
+        map.put("key4", "value4");
+        assertEquals(List.of("key2=value2"), evicted);
+        assertEquals(Set.of("key1", "key3", "key4"), map.keySet());
+        map.close();
+    }
+
+    @Test
+    public void testMaximumSizeEarliestExpiration() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(1000);
+        map.setTicker(time::get);
+        List<String> evicted = new ArrayList<>();
+        map.addListener((key, value) -> evicted.add(key));
+        map.put("key1", "value1", 500, 0);
+        map.put("key2", "value2", 100, 0);
+        map.put("key3", "value3");
+        map.setMaximumSize(2, EvictionPolicy.EARLIEST_EXPIRATION);
+        assertEquals(List.of("key2"), evicted);
+        // The expired entries are evicted before the valid ones
+        time.addAndGet(600);
+        map.put("key4", "value4", 100, 0);
+        assertEquals(List.of("key2", "key1"), evicted);
+        assertEquals(Set.of("key3", "key4"), map.keySet());
+        assertThrows(IllegalArgumentException.class, () -> map.setMaximumSize(-1, EvictionPolicy.EARLIEST_EXPIRATION));
+        assertThrows(NullPointerException.class, () -> map.setMaximumSize(1, null));
+        map.close();
+    }
+
+    @Test
+    public void testMaximumSizeWithCleaningThread() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(60_000, 0, 10);
+        AtomicInteger evicted = new AtomicInteger();
+        map.addListener((key, value) -> evicted.incrementAndGet());
+        map.setMaximumSize(10, EvictionPolicy.LEAST_RECENTLY_USED);
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        await().atMost(5, TimeUnit.SECONDS).until(() -> map.size() <= 10);
+        assertEquals(100 - map.size(), evicted.get());
+        map.close();
+    }
+
+    @Test
+    public void testMaximumSizeTinyLfu() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(1000);
+        map.setTicker(time::get);
+        List<String> evicted = new ArrayList<>();
+        map.addListener((key, value) -> evicted.add(key));
+        map.setMaximumSize(3, EvictionPolicy.TINY_LFU);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        map.put("key3", "value3");
+        for (int i = 0; i < 3; i++) {
+            map.get("key1");
+            map.get("key2");
+        }
+        map.get("key3");
+        // A key written once does not evict a key used more frequently
+        time.incrementAndGet();
+        map.put("scan", "value");
+        assertEquals(List.of("scan"), evicted);
+        // A key missed often is admitted and evicts the least frequently used key
+        for (int i = 0; i < 5; i++) {
+            assertNull(map.get("key4"));
+        }
+        map.put("key4", "value4");
+        assertEquals(List.of("scan", "key3"), evicted);
+        assertEquals(Set.of("key1", "key2", "key4"), map.keySet());
+        map.close();
+    }
+
+    @Test
+    public void testTinyLfuHitRateWithScans() {
+        // A Zipf distributed working set of 5000 keys, interrupted every 10000 requests by a scan of 2000 keys read only once
+        long[] trace = hitRateTrace(new Random(42), 5_000, 200_000, 10_000, 2_000);
+        double leastRecentlyUsed = hitRate(trace, 500, EvictionPolicy.LEAST_RECENTLY_USED);
+        double tinyLfu = hitRate(trace, 500, EvictionPolicy.TINY_LFU);
+        assertTrue(tinyLfu > leastRecentlyUsed + 0.03, "TINY_LFU " + tinyLfu + " LEAST_RECENTLY_USED " + leastRecentlyUsed);
+    }
+
+    /**
+     * Replays a trace in a map that loads the missing keys, the time advances by one millisecond per request.
+     *
+     * @return the fraction of the requests that found their key in the map
+     */
+    private static double hitRate(long[] trace, int maximumSize, EvictionPolicy policy) {
+        AtomicLong time = new AtomicLong();
+        ConcurrentHashMapAutoCleaning<Long, Long> map = new ConcurrentHashMapAutoCleaning<>(Long.MAX_VALUE / 4);
+        map.setTicker(time::get);
+        map.setMaximumSize(maximumSize, policy);
+        long hits = 0;
+        for (long key : trace) {
+            time.incrementAndGet();
+            if (map.getAndUpdateTimeSinceLastUse(key) != null) {
+                hits++;
+            } else {
+                map.put(key, key);
+            }
+        }
+        map.close();
+        return (double) hits / trace.length;
+    }
+
+    /**
+     * @return the keys of the requests, the keys of the scans are negative so they are never requested again
+     */
+    private static long[] hitRateTrace(Random random, int hotKeys, int requests, int scanEvery, int scanLength) {
+        double[] cumulative = new double[hotKeys];
+        double sum = 0;
+        for (int i = 0; i < hotKeys; i++) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+        long[] trace = new long[requests];
+        long nextScanKey = -1;
+        for (int i = 0; i < requests; i++) {
+            if (i % scanEvery < scanLength && i >= scanEvery) {
+                trace[i] = nextScanKey--;
+            } else {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                trace[i] = index >= 0 ? index : -index - 1;
+            }
+        }
+        return trace;
+    }
+
+    @Test
+    public void testMaximumWeight() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(1000);
+        map.setTicker(time::get);
+        List<String> evicted = new ArrayList<>();
+        map.addListener((key, value) -> evicted.add(key));
+        map.setMaximumWeight(10, (key, value) -> value.length(), EvictionPolicy.EARLIEST_EXPIRATION);
+        map.put("key1", "aaaa");
+        time.incrementAndGet();
+        map.put("key2", "bbbb");
+        assertEquals(8, map.weightedSize());
+        // Replacing a value releases the weight of the previous one
+        map.put("key2", "bb");
+        assertEquals(6, map.weightedSize());
+        time.incrementAndGet();
+        map.put("key3", "cccccc");
+        assertEquals(List.of("key1"), evicted);
+        assertEquals(8, map.weightedSize());
+        map.remove("key2");
+        assertEquals(6, map.weightedSize());
+        map.computeIfAbsent("key4", key -> "dd");
+        assertEquals(8, map.weightedSize());
+        // The expired entries are evicted before the valid ones
+        time.addAndGet(1000);
+        map.put("key5", "eeeeeeeeee");
+        assertEquals(List.of("key1", "key3", "key4"), evicted.stream().sorted().toList());
+        assertEquals(10, map.weightedSize());
+        map.clear();
+        assertEquals(0, map.weightedSize());
+        map.setMaximumWeight(10, (key, value) -> -1, EvictionPolicy.EARLIEST_EXPIRATION);
+        assertThrows(IllegalArgumentException.class, () -> map.put("key6", "f"));
+        assertThrows(IllegalArgumentException.class, () -> map.setMaximumWeight(-1, null, EvictionPolicy.EARLIEST_EXPIRATION));
+        map.close();
+    }
+
+    @Test
+    public void testLifeTimeJitter() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<Integer, String> map = new ConcurrentHashMapAutoCleaning<>(1000);
+        map.setTicker(time::get);
+        map.setCompactEntries(true);
+        map.setLifeTimeJitter(0.5);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "value" + i);
+        }
+        time.addAndGet(500);
+        assertEquals(100, map.size());
+        // The entries written together expire between half and all of their lifetime
+        time.addAndGet(250);
+        assertTrue(map.size() > 0 && map.size() < 100);
+        time.addAndGet(250);
+        assertEquals(0, map.size());
+        assertThrows(IllegalArgumentException.class, () -> map.setLifeTimeJitter(1));
+        assertThrows(IllegalArgumentException.class, () -> map.setLifeTimeJitter(-0.1));
+        map.close();
+    }
+
+    @Test
+    public void testCompactEntries() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100, 50);
+        map.setTicker(time::get);
+        map.setCompactEntries(true);
+        map.put("key1", "value1");
+        map.put("key2", "value2", 1000, 0);
+        time.addAndGet(80);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        assertEquals(1_000_000, map.getCreationTimeMillis("key1"));
+        assertEquals(1_000_080, map.getLastTimeUsedMillis("key1"));
+        time.addAndGet(40);
+        assertEquals("value1", map.get("key1"));
+        // Changing the times of a compact entry keeps its value and its other times
+        assertEquals(100, map.setLifeTimeMillis("key1", 200));
+        assertEquals(1_000_080, map.getLastTimeUsedMillis("key1"));
+        time.addAndGet(70);
+        assertEquals("value1", map.get("key1"));
+        time.addAndGet(10);
+        assertNull(map.get("key1"));
+        assertEquals("value2", map.get("key2"));
+        map.close();
+    }
+
+    @Test
+    public void testSizeWithoutScan() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        map.put("key1", "value1");
+        map.put("key2", "value2", 50);
+        assertEquals(2, map.size());
+        assertEquals(2, map.mappingCount());
+        time.addAndGet(50);
+        // key2 is expired, it is not counted but it is not removed either
+        assertEquals(1, map.size());
+        assertEquals(1, map.mappingCount());
+        assertFalse(map.isEmpty());
+        assertEquals(2, map.sizeWithExpired());
+        // Once the expired entry is removed, the watermark becomes the expiration time of key1
+        map.cleanBlocking();
+        assertEquals(1, map.sizeWithExpired());
+        assertEquals(1, map.size());
+        // A shorter lifetime lowers the watermark
+        map.setLifeTimeMillis("key1", 60);
+        time.addAndGet(10);
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertEquals(1, map.sizeWithExpired());
+        map.close();
+    }
+
+    @Test
+    public void testSizeWithCleaningEnabled() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        map.setCleanPeriod(60 * 60 * 1000);
+        // After this first cleaning pass, the cleaning process does not run again during the test
+        map.put("key0", "value0", 0);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 0);
+        map.put("key1", "value1");
+        for (int i = 2; i <= 11; i++) {
+            map.put("key" + i, "value" + i, 50);
+        }
+        // The new value of key2 reuses the node of the previous one
+        map.put("key2", "value2b", 60);
+        time.addAndGet(50);
+        // The expired entries are found with the expiration index and are not counted, they are left to the cleaning process
+        assertEquals(2, map.size());
+        assertEquals(11, map.sizeWithExpired());
+        map.cleanBlocking();
+        assertEquals(2, map.size());
+        assertEquals(2, map.sizeWithExpired());
+        time.addAndGet(10);
+        assertEquals(1, map.size());
+        assertFalse(map.isEmpty());
+        assertEquals(2, map.sizeWithExpired());
+        map.cleanBlocking();
+        assertEquals(1, map.size());
+        assertEquals(1, map.sizeWithExpired());
+        time.addAndGet(40);
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        assertEquals(1, map.sizeWithExpired());
+        map.close();
+    }
+
+    @Test
+    public void testOverwrittenKeyWithCleaningEnabled() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        map.setCleanPeriod(60 * 60 * 1000);
+        for (int i = 0; i < 1000; i++) {
+            map.put("key1", "value" + i);
+            time.incrementAndGet();
+        }
+        // The first value expires, the last one is still valid and is not removed
+        time.set(1_000_100);
+        map.cleanBlocking();
+        assertEquals("value999", map.get("key1"));
+        time.set(1_001_099);
+        map.cleanBlocking();
+        assertEquals(0, map.sizeWithExpired());
+        map.close();
+    }
+
+    @Test
+    public void testComputeIfAbsent() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("value1", map.computeIfAbsent("key1", key -> "value" + calls.incrementAndGet()));
+        assertEquals("value1", map.computeIfAbsent("key1", key -> "value" + calls.incrementAndGet()));
+        assertEquals(1, calls.get());
+        // An expired value is treated as absent
+        time.addAndGet(100);
+        assertEquals("value2", map.computeIfAbsent("key1", key -> "value" + calls.incrementAndGet(), 500));
+        time.addAndGet(499);
+        assertEquals("value2", map.get("key1"));
+        time.addAndGet(1);
+        assertNull(map.computeIfAbsent("key1", key -> null));
+        assertEquals(0, map.sizeWithExpired());
+        ConcurrentHashMapAutoCleaning<String, String> mapWithoutLifeTime = new ConcurrentHashMapAutoCleaning<>(-1);
+        assertThrows(IllegalStateException.class, () -> mapWithoutLifeTime.computeIfAbsent("key1", key -> "value1"));
+        assertEquals("value1", mapWithoutLifeTime.computeIfAbsent("key1", key -> "value1", 100, 0));
+        map.close();
+        mapWithoutLifeTime.close();
+    }
+
+    @Test
+    public void testComputeIfPresent() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        assertNull(map.computeIfPresent("key1", (key, value) -> value + "!"));
+        map.put("key1", "value1");
+        time.addAndGet(50);
+        // The new value has a new lifetime
+        assertEquals("value1!", map.computeIfPresent("key1", (key, value) -> value + "!"));
+        time.addAndGet(99);
+        assertEquals("value1!", map.get("key1"));
+        time.addAndGet(1);
+        assertNull(map.computeIfPresent("key1", (key, value) -> fail()));
+        assertEquals(0, map.sizeWithExpired());
+        map.put("key1", "value1");
+        assertNull(map.computeIfPresent("key1", (key, value) -> null));
+        assertFalse(map.containsKey("key1"));
+        map.close();
+    }
+
+    @Test
+    public void testCompute() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, Integer> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        assertEquals(1, map.compute("key1", (key, value) -> value == null ? 1 : value + 1));
+        assertEquals(2, map.compute("key1", (key, value) -> value == null ? 1 : value + 1));
+        time.addAndGet(100);
+        assertEquals(1, map.compute("key1", (key, value) -> value == null ? 1 : value + 1, 200, 0));
+        time.addAndGet(150);
+        assertEquals(1, map.get("key1"));
+        assertNull(map.compute("key1", (key, value) -> null));
+        assertEquals(0, map.sizeWithExpired());
+        map.close();
+    }
+
+    @Test
+    public void testMerge() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, Integer> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        assertEquals(1, map.merge("key1", 1, Integer::sum));
+        assertEquals(3, map.merge("key1", 2, Integer::sum));
+        time.addAndGet(100);
+        assertEquals(5, map.merge("key1", 5, Integer::sum, 1000));
+        time.addAndGet(500);
+        assertEquals(5, map.get("key1"));
+        assertNull(map.merge("key1", 5, (oldValue, value) -> null));
+        assertFalse(map.containsKey("key1"));
+        assertThrows(NullPointerException.class, () -> map.merge("key1", null, Integer::sum));
+        map.close();
+    }
+
+    @Test
+    public void testComputeIsAtomic() throws InterruptedException {
+        ConcurrentHashMapAutoCleaning<String, Integer> map = new ConcurrentHashMapAutoCleaning<>(60 * 1000);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    map.merge("key1", 1, Integer::sum);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, map.get("key1"));
+        map.close();
+    }
+
+    @Test
+    public void testPutIfAbsentIsAtomic() throws InterruptedException {
+        ConcurrentHashMapAutoCleaning<String, Integer> map = new ConcurrentHashMapAutoCleaning<>(60 * 1000);
+        AtomicInteger winners = new AtomicInteger();
+        Integer[] seen = new Integer[8];
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            int value = i;
+            threads[i] = new Thread(() -> {
+                Integer previous = map.putIfAbsent("key1", value);
+                if (previous == null) {
+                    winners.incrementAndGet();
+                    seen[value] = value;
+                } else {
+                    seen[value] = previous;
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, winners.get());
+        for (Integer value : seen) {
+            assertEquals(map.get("key1"), value);
+        }
+        map.close();
+    }
+
+    @Test
+    public void testConditionalOperationsWithExpiredEntry() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(100);
+        map.setTicker(time::get);
+        map.put("key1", "value1");
+        time.addAndGet(100);
+        assertNull(map.putIfAbsent("key1", "value2"));
+        assertEquals("value2", map.get("key1"));
+        assertEquals("value2", map.putIfAbsent("key1", "value3"));
+        time.addAndGet(100);
+        assertFalse(map.remove("key1", "value2"));
+        assertFalse(map.replace("key1", "value2", "value3"));
+        assertNull(map.replace("key1", "value3"));
+        assertEquals(0, map.size());
+        map.put("key1", "value1");
+        assertTrue(map.replace("key1", "value1", "value2"));
+        assertEquals("value2", map.replace("key1", "value3"));
+        assertFalse(map.remove("key1", null));
+        assertTrue(map.remove("key1", "value3"));
+        assertThrows(NullPointerException.class, () -> map.remove(null, "value1"));
+        assertThrows(NullPointerException.class, () -> map.replace("key1", null, "value1"));
+        map.close();
+    }
+
+    @Test
+    public void testCleanBudget() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(0, 0);
+        assertThrows(IllegalArgumentException.class, () -> map.setCleanBudget(0));
+        for (int i = 0; i < 5000; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        AtomicInteger removed = new AtomicInteger();
+        map.addListener((key, value) -> removed.incrementAndGet());
+        map.setCleanBudget(100);
+        map.setCleanBudgetNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        map.setCleanPeriod(60 * 60 * 1000);
+        await().atMost(2, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 0);
+        assertEquals(5000, removed.get());
+        map.close();
+    }
+
     @Test
     public void testContainsValue() {
         ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(24 * 60 * 60 * 1000);
@@ -0,0 +1,49 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestExpirationWatermark {
+
+    @Test
+    public void testLower() {
+        ExpirationWatermark watermark = new ExpirationWatermark();
+        assertEquals(Long.MAX_VALUE, watermark.get());
+        watermark.lower(200);
+        watermark.lower(100);
+        watermark.lower(300);
+        assertEquals(100, watermark.get());
+    }
+
+    @Test
+    public void testScan() {
+        ExpirationWatermark watermark = new ExpirationWatermark();
+        watermark.lower(100);
+        assertTrue(watermark.tryBeginScan());
+        // The watermark is still a lower bound during the scan
+        assertEquals(100, watermark.get());
+        // A scan is already running in this thread, another thread cannot start one
+        boolean[] started = new boolean[1];
+        Thread thread = new Thread(() -> started[0] = watermark.tryBeginScan());
+        thread.start();
+        assertDoesNotThrow(() -> thread.join());
+        assertFalse(started[0]);
+        // An entry written during the scan is kept even if the scan does not see it
+        watermark.lower(150);
+        watermark.endScan(500);
+        assertEquals(150, watermark.get());
+        assertTrue(watermark.tryBeginScan());
+        watermark.endScan(500);
+        assertEquals(500, watermark.get());
+    }
+
+    @Test
+    public void testAbortScan() {
+        ExpirationWatermark watermark = new ExpirationWatermark();
+        watermark.lower(100);
+        assertTrue(watermark.tryBeginScan());
+        watermark.abortScan();
+        assertEquals(100, watermark.get());
+    }
+}
@@ -0,0 +1,93 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestExpiryQueue {
+
+    @Test
+    public void testInsertionOrder() {
+        ExpiryQueue<String, String> queue = new ExpiryQueue<>();
+        assertNull(queue.peek());
+        for (int i = 0; i < 10; i++) {
+            queue.offer("key" + i, new ValueWithTime<>("value" + i, 100, 0, i));
+        }
+        for (int i = 0; i < 10; i++) {
+            ExpiryQueue.Node<String, String> node = queue.peek();
+            assertEquals("key" + i, node.key);
+            assertEquals("value" + i, node.value.getValue());
+            assertEquals(i + 100, node.expirationTimeMillis);
+            queue.poll();
+        }
+        assertNull(queue.peek());
+    }
+
+    @Test
+    public void testEntryQueuedOutOfOrder() {
+        ExpiryQueue<String, String> queue = new ExpiryQueue<>();
+        assertTrue(queue.offer("key1", new ValueWithTime<>("value1", 100, 0, 10)));
+        // The time of key2 was read before the time of key1, but key2 is queued after it
+        assertFalse(queue.offer("key2", new ValueWithTime<>("value2", 100, 0, 5)));
+        assertTrue(queue.offer("key3", new ValueWithTime<>("value3", 100, 0, 20)));
+        long[] times = {110, 110, 120};
+        for (long time : times) {
+            assertEquals(time, queue.peek().expirationTimeMillis);
+            queue.poll();
+        }
+        assertNull(queue.peek());
+    }
+
+    @Test
+    public void testClear() {
+        ExpiryQueue<String, String> queue = new ExpiryQueue<>();
+        queue.offer("key1", new ValueWithTime<>("value1", 100, 0, 0));
+        queue.offer("key2", new ValueWithTime<>("value2", 100, 0, 0));
+        queue.clear();
+        assertNull(queue.peek());
+        queue.offer("key3", new ValueWithTime<>("value3", 100, 0, 0));
+        assertEquals("key3", queue.peek().key);
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        int nbThreads = 8;
+        int nbIterations = 100_000;
+        ExpiryQueue<Integer, Integer> queue = new ExpiryQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nbThreads; t++) {
+            int threadNumber = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < nbIterations; i++) {
+                    queue.offer(threadNumber, new ValueWithTime<>(i, 0, 0, 0));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        // The consumer takes the nodes while the producers are adding them
+        Map<Integer, Integer> lastValueByThread = new HashMap<>();
+        int taken = 0;
+        while (taken < nbThreads * nbIterations) {
+            ExpiryQueue.Node<Integer, Integer> node = queue.peek();
+            if (node == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int value = node.value.getValue();
+            Integer last = lastValueByThread.put(node.key, value);
+            // The nodes added by a thread are taken in the order in which they were added
+            assertEquals(last == null ? 0 : last + 1, value);
+            queue.poll();
+            taken++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(queue.peek());
+    }
+}
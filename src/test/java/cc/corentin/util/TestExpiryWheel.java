@@ -0,0 +1,338 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestExpiryWheel {
+
+    private static final long START = 1_700_000_000_000L;
+
+    private static ValueWithTime<String> put(ConcurrentHashMap<String, TimedValue<String>> map, ExpiryWheel<String, String> wheel,
+                                             String key, long lifeTimeMillis) {
+        ValueWithTime<String> valueWithTime = new ValueWithTime<>("value-" + key, lifeTimeMillis, 0, START);
+        map.put(key, valueWithTime);
+        wheel.schedule(key, valueWithTime);
+        return valueWithTime;
+    }
+
+    @Test
+    public void testExpireOnEachLevel() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        long[] lifeTimes = {10, 5_000, 10 * 60 * 1000, 3 * 60 * 60 * 1000, 2 * 24 * 60 * 60 * 1000L, 30 * 24 * 60 * 60 * 1000L};
+        for (long lifeTime : lifeTimes) {
+            put(map, wheel, "key" + lifeTime, lifeTime);
+        }
+        List<String> removedKeys = new ArrayList<>();
+        for (long lifeTime : lifeTimes) {
+            // Nothing is removed one millisecond before the expiration time
+            assertEquals(0, wheel.expire(START + lifeTime - 1, (key, value) -> removedKeys.add(key)));
+            assertTrue(map.containsKey("key" + lifeTime));
+            assertEquals(1, wheel.expire(START + lifeTime, (key, value) -> removedKeys.add(key)));
+            assertFalse(map.containsKey("key" + lifeTime));
+        }
+        assertEquals(lifeTimes.length, removedKeys.size());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testExpireAfterLongPause() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        for (int i = 0; i < 1000; i++) {
+            put(map, wheel, "key" + i, i * 1000L);
+        }
+        assertEquals(500, wheel.expire(START + 500 * 1000L - 1, (key, value) -> {
+        }));
+        assertEquals(500, map.size());
+        assertEquals(500, wheel.expire(START + 1000 * 1000L, (key, value) -> {
+        }));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testReplacedEntryIsNotRemoved() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        put(map, wheel, "key1", 100);
+        // The key is associated with an equal value that lives longer, the first node must not remove it
+        ValueWithTime<String> replacement = new ValueWithTime<>("value-key1", 1000, 0, START);
+        map.put("key1", replacement);
+        wheel.schedule("key1", replacement);
+        assertEquals(0, wheel.expire(START + 100, (key, value) -> fail()));
+        assertSame(replacement, map.get("key1"));
+        assertEquals(1, wheel.expire(START + 1000, (key, value) -> {
+        }));
+        assertFalse(map.containsKey("key1"));
+    }
+
+    @Test
+    public void testOverwrittenKeyKeepsOneNode() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        for (int i = 0; i < 1000; i++) {
+            ValueWithTime<String> valueWithTime = new ValueWithTime<>("value" + i, 100, 0, START + i);
+            TimedValue<String> previous = map.put("key1", valueWithTime);
+            wheel.schedule("key1", valueWithTime, previous);
+            assertEquals(1, wheel.size());
+        }
+        ValueWithTime<String> last = (ValueWithTime<String>) map.get("key1");
+        // The node of the first value is reached first, it is reused for the last value
+        assertEquals(0, wheel.expire(START + 100, (key, value) -> fail()));
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.expire(START + 1099, (key, value) -> assertSame(last, value)));
+        assertEquals(0, wheel.size());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testOverwrittenKeyInQueueKeepsOneNode() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        for (int i = 0; i < 1000; i++) {
+            ValueWithTime<String> valueWithTime = new ValueWithTime<>("value" + i, 100, 0, START + i);
+            wheel.scheduleInOrder("key1", valueWithTime, map.put("key1", valueWithTime));
+            assertEquals(1, wheel.size());
+        }
+        assertEquals(0, wheel.expire(START + 100, (key, value) -> fail()));
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.expire(START + 1099, (key, value) -> assertEquals("value999", value.getValue())));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testValueExpiringEarlierGetsItsOwnNode() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        ValueWithTime<String> first = put(map, wheel, "key1", 1000);
+        ValueWithTime<String> second = new ValueWithTime<>("value2", 100, 0, START);
+        wheel.schedule("key1", second, map.put("key1", second));
+        assertEquals(2, wheel.size());
+        assertEquals(1, wheel.expire(START + 100, (key, value) -> assertSame(second, value)));
+        // The node of the first value finds no entry and is dropped
+        assertEquals(0, wheel.expire(START + 1000, (key, value) -> fail()));
+        assertEquals(0, wheel.size());
+        assertNotSame(first, map.get("key1"));
+    }
+
+    @Test
+    public void testExtendedEntryIsRescheduled() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        ValueWithTime<String> valueWithTime = put(map, wheel, "key1", 100);
+        valueWithTime.setLifeTimeMillis(10_000);
+        assertEquals(0, wheel.expire(START + 100, (key, value) -> {
+        }));
+        assertTrue(map.containsKey("key1"));
+        assertEquals(0, wheel.expire(START + 10_000 - 1, (key, value) -> {
+        }));
+        assertEquals(1, wheel.expire(START + 10_000, (key, value) -> {
+        }));
+        assertFalse(map.containsKey("key1"));
+    }
+
+    @Test
+    public void testExpireInOrder() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        for (int i = 0; i < 100; i++) {
+            ValueWithTime<String> valueWithTime = new ValueWithTime<>("value" + i, 1000, 0, START + i);
+            map.put("key" + i, valueWithTime);
+            wheel.scheduleInOrder("key" + i, valueWithTime);
+        }
+        List<String> removedKeys = new ArrayList<>();
+        assertEquals(0, wheel.expire(START + 999, (key, value) -> removedKeys.add(key)));
+        assertEquals(50, wheel.expire(START + 1049, (key, value) -> removedKeys.add(key)));
+        for (int i = 0; i < 50; i++) {
+            assertEquals("key" + i, removedKeys.get(i));
+        }
+        assertEquals(50, wheel.expire(START + 1099, (key, value) -> removedKeys.add(key)));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testExtendedEntryIsMovedFromQueueToWheel() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        ValueWithTime<String> extended = new ValueWithTime<>("value1", 1000, 0, START);
+        ValueWithTime<String> other = new ValueWithTime<>("value2", 1000, 0, START + 1);
+        map.put("key1", extended);
+        wheel.scheduleInOrder("key1", extended);
+        map.put("key2", other);
+        wheel.scheduleInOrder("key2", other);
+        extended.setLifeTimeMillis(5000);
+        // The extended entry at the head of the queue does not prevent the next one from being removed
+        assertEquals(1, wheel.expire(START + 1001, (key, value) -> assertEquals("key2", key)));
+        assertTrue(map.containsKey("key1"));
+        assertEquals(0, wheel.expire(START + 4999, (key, value) -> {
+        }));
+        assertEquals(1, wheel.expire(START + 5000, (key, value) -> assertEquals("key1", key)));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testEntryQueuedOutOfOrder() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        ValueWithTime<String> later = new ValueWithTime<>("value1", 1000, 0, START + 10);
+        ValueWithTime<String> earlier = new ValueWithTime<>("value2", 1000, 0, START);
+        map.put("key1", later);
+        wheel.scheduleInOrder("key1", later);
+        // The time of key2 was read first but it is queued after key1, it must not wait for key1 to expire
+        map.put("key2", earlier);
+        wheel.scheduleInOrder("key2", earlier);
+        assertEquals(START + 1000, wheel.nextExpirationTimeMillis());
+        assertEquals(1, wheel.expire(START + 1000, (key, value) -> assertEquals("key2", key)));
+        assertTrue(map.containsKey("key1"));
+        assertEquals(1, wheel.expire(START + 1010, (key, value) -> assertEquals("key1", key)));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testNextExpirationTime() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        assertEquals(Long.MAX_VALUE, wheel.nextExpirationTimeMillis());
+        put(map, wheel, "key1", 60 * 60 * 1000);
+        // Before the pass, the time of the scheduled node is known exactly
+        assertEquals(START + 60 * 60 * 1000, wheel.nextExpirationTimeMillis());
+        put(map, wheel, "key2", 10);
+        assertEquals(START + 10, wheel.nextExpirationTimeMillis());
+        wheel.expire(START, (key, value) -> {
+        });
+        // The first level is exact to the millisecond
+        assertEquals(START + 10, wheel.nextExpirationTimeMillis());
+        wheel.expire(START + 10, (key, value) -> {
+        });
+        // The upper levels give a lower bound that is never later than the expiration time
+        long next = wheel.nextExpirationTimeMillis();
+        assertTrue(next > START + 10);
+        assertTrue(next <= START + 60 * 60 * 1000);
+        while (map.containsKey("key1")) {
+            assertTrue(wheel.nextExpirationTimeMillis() <= START + 60 * 60 * 1000);
+            wheel.expire(wheel.nextExpirationTimeMillis(), (key, value) -> {
+            });
+        }
+        assertEquals(Long.MAX_VALUE, wheel.nextExpirationTimeMillis());
+    }
+
+    @Test
+    public void testNextExpirationTimeOfQueue() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        for (int i = 0; i < 10; i++) {
+            ValueWithTime<String> valueWithTime = new ValueWithTime<>("value" + i, 1000, 0, START + i * 100);
+            map.put("key" + i, valueWithTime);
+            wheel.scheduleInOrder("key" + i, valueWithTime);
+        }
+        assertEquals(START + 1000, wheel.nextExpirationTimeMillis());
+        wheel.expire(START + 1000, (key, value) -> {
+        });
+        assertEquals(START + 1100, wheel.nextExpirationTimeMillis());
+    }
+
+    @Test
+    public void testClockGoingBackwards() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START + 60_000);
+        put(map, wheel, "key1", 60_000 + 100);
+        assertEquals(0, wheel.expire(START + 60_000, (key, value) -> {
+        }));
+        // The clock is set back by 1 minute, the entry is still removed at its expiration time
+        assertEquals(0, wheel.expire(START, (key, value) -> {
+        }));
+        assertEquals(0, wheel.expire(START + 60_000 + 99, (key, value) -> {
+        }));
+        assertEquals(1, wheel.expire(START + 60_000 + 100, (key, value) -> {
+        }));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testBudget() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        for (int i = 0; i < 50; i++) {
+            put(map, wheel, "key" + i, 10);
+            ValueWithTime<String> valueWithTime = new ValueWithTime<>("value" + i, 10, 0, START);
+            map.put("queued" + i, valueWithTime);
+            wheel.scheduleInOrder("queued" + i, valueWithTime);
+        }
+        assertEquals(30, wheel.expire(START + 10, 30, 0, (key, value) -> {
+        }));
+        assertTrue(wheel.isBudgetExhausted());
+        // The expired entries left can be removed immediately
+        assertTrue(wheel.nextExpirationTimeMillis() <= START + 10);
+        assertEquals(30, wheel.expire(START + 10, 30, 0, (key, value) -> {
+        }));
+        assertEquals(30, wheel.expire(START + 11, 30, 0, (key, value) -> {
+        }));
+        assertEquals(10, wheel.expire(START + 11, 30, 0, (key, value) -> {
+        }));
+        assertFalse(wheel.isBudgetExhausted());
+        assertTrue(map.isEmpty());
+        assertEquals(Long.MAX_VALUE, wheel.nextExpirationTimeMillis());
+    }
+
+    @Test
+    public void testTimeBudget() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        for (int i = 0; i < 200; i++) {
+            put(map, wheel, "key" + i, 10);
+        }
+        // The clock is read every 64 nodes, the deadline of 1 nanosecond is exceeded the first time
+        assertEquals(64, wheel.expire(START + 10, Integer.MAX_VALUE, 1, (key, value) -> {
+        }));
+        assertTrue(wheel.isBudgetExhausted());
+        assertEquals(136, wheel.expire(START + 10, Integer.MAX_VALUE, 0, (key, value) -> {
+        }));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testParallelExpire() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        wheel.setParallelism(pool, 16);
+        for (int i = 0; i < 1000; i++) {
+            put(map, wheel, "key" + i, 10);
+            ValueWithTime<String> valueWithTime = new ValueWithTime<>("value" + i, 10, 0, START);
+            map.put("queued" + i, valueWithTime);
+            wheel.scheduleInOrder("queued" + i, valueWithTime);
+        }
+        // An extended entry and a replaced entry are not removed
+        ((ValueWithTime<String>) map.get("key0")).setLifeTimeMillis(100);
+        map.put("queued0", new ValueWithTime<>("value0", 1000, 0, START));
+        Thread thread = Thread.currentThread();
+        List<String> removedKeys = new ArrayList<>();
+        assertEquals(1998, wheel.expire(START + 10, (key, value) -> {
+            // The listener is called by the thread running the pass
+            assertSame(thread, Thread.currentThread());
+            removedKeys.add(key);
+        }));
+        assertEquals(1998, removedKeys.size());
+        assertEquals(2, map.size());
+        assertEquals(1, wheel.expire(START + 100, (key, value) -> assertEquals("key0", key)));
+        assertEquals(1, map.size());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testClear() {
+        ConcurrentHashMap<String, TimedValue<String>> map = new ConcurrentHashMap<>();
+        ExpiryWheel<String, String> wheel = new ExpiryWheel<>(map, START);
+        put(map, wheel, "key1", 100);
+        wheel.clear();
+        assertEquals(0, wheel.expire(START + 100, (key, value) -> {
+        }));
+        assertTrue(map.containsKey("key1"));
+    }
+}
@@ -0,0 +1,39 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFrequencySketch {
+
+    @Test
+    public void testFrequency() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        assertEquals(0, sketch.frequency("key1"));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("key1");
+        }
+        sketch.increment("key2");
+        assertEquals(5, sketch.frequency("key1"));
+        assertEquals(1, sketch.frequency("key2"));
+        // The counters saturate
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("key1");
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency("key1"));
+    }
+
+    @Test
+    public void testAging() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 12; i++) {
+            sketch.increment("hot");
+        }
+        // 10 increments per tracked key halve all the counters
+        for (int i = 0; i < 160; i++) {
+            sketch.increment(i);
+        }
+        assertTrue(sketch.frequency("hot") <= 6);
+        assertTrue(sketch.frequency("hot") >= 3);
+    }
+}
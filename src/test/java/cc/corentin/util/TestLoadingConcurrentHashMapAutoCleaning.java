@@ -0,0 +1,290 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLoadingConcurrentHashMapAutoCleaning {
+
+    @Test
+    public void testGetOrLoad() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        AtomicInteger loads = new AtomicInteger();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100,
+                key -> key.equals("absent") ? null : key + loads.incrementAndGet());
+        map.setTicker(time::get);
+        assertEquals("key1", map.getOrLoad("key"));
+        assertEquals("key1", map.getOrLoad("key"));
+        // The loaded value is stored with the default lifetime
+        time.addAndGet(100);
+        assertEquals("key2", map.getOrLoad("key"));
+        assertNull(map.getOrLoad("absent"));
+        assertFalse(map.containsKey("absent"));
+        assertEquals("other", map.get("other", key -> "other"));
+        assertEquals(0, map.loadsInProgress());
+        map.close();
+    }
+
+    @Test
+    public void testLoadFailure() {
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100, key -> {
+            throw new IOException("unavailable");
+        });
+        CompletionException e = assertThrows(CompletionException.class, () -> map.getOrLoad("key"));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertThrows(IllegalStateException.class, () -> map.get("key", key -> {
+            throw new IllegalStateException();
+        }));
+        assertTrue(map.isEmptyWithInvalid());
+        assertEquals(0, map.loadsInProgress());
+        assertThrows(IllegalArgumentException.class, () -> new LoadingConcurrentHashMapAutoCleaning<String, String>(-1, key -> key));
+        map.close();
+    }
+
+    @Test
+    public void testValueStoredBeforeTheLoad() {
+        AtomicInteger loads = new AtomicInteger();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100,
+                key -> "value" + loads.incrementAndGet()) {
+            private final AtomicBoolean missed = new AtomicBoolean();
+
+            @Override
+            public String get(Object key) {
+                // The first read misses, as if the load of another thread stored the value just after it
+                return missed.compareAndSet(false, true) ? null : super.get(key);
+            }
+        };
+        map.put("key", "stored");
+        CacheLookup<String> lookup = map.lookup("key");
+        assertEquals("stored", lookup.getValue());
+        assertEquals(CacheLookup.Status.FRESH, lookup.getStatus());
+        assertEquals(0, loads.get());
+        assertEquals(0, map.loadsInProgress());
+        map.close();
+    }
+
+    @Test
+    public void testRefreshAfterWrite() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        AtomicInteger loads = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100,
+                key -> "value" + loads.incrementAndGet());
+        map.setTicker(time::get);
+        map.setCompactEntries(true);
+        map.setRefreshAfterWrite(60, tasks::add);
+        assertEquals("value1", map.getOrLoad("key"));
+        time.addAndGet(59);
+        assertEquals("value1", map.getOrLoad("key"));
+        assertTrue(tasks.isEmpty());
+        // The first read after the refresh point starts a single reload and still gets the current value
+        time.incrementAndGet();
+        assertEquals("value1", map.getOrLoad("key"));
+        assertEquals("value1", map.getOrLoad("key"));
+        assertEquals(1, tasks.size());
+        assertEquals(1, map.loadsInProgress());
+        tasks.remove(0).run();
+        assertEquals(0, map.loadsInProgress());
+        // The reloaded value gets a new lifetime
+        time.addAndGet(50);
+        assertEquals("value2", map.getOrLoad("key"));
+        assertTrue(tasks.isEmpty());
+        assertEquals(2, loads.get());
+        // A value written during the reload is not overwritten
+        time.addAndGet(10);
+        assertEquals("value2", map.getOrLoad("key"));
+        map.put("key", "written");
+        tasks.remove(0).run();
+        assertEquals("written", map.get("key"));
+        assertThrows(IllegalArgumentException.class, () -> map.setRefreshAfterWrite(100, Runnable::run));
+        assertThrows(NullPointerException.class, () -> map.setRefreshAfterWrite(50, null));
+        map.close();
+    }
+
+    @Test
+    public void testEarlyExpiration() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        AtomicInteger loads = new AtomicInteger();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100, key -> {
+            Thread.sleep(10);
+            return "value" + loads.incrementAndGet();
+        });
+        map.setTicker(time::get);
+        assertEquals("value1", map.getOrLoad("key"));
+        // With a load of about 10 ms and a large beta, a read close to the expiration reloads the value almost surely
+        map.setEarlyExpiration(1000);
+        time.addAndGet(90);
+        String value = "value1";
+        for (int i = 0; i < 20 && value.equals("value1"); i++) {
+            value = map.getOrLoad("key");
+        }
+        assertEquals("value2", value);
+        assertEquals(1_000_090, map.getCreationTimeMillis("key"));
+        // Without early expiration, the value is only reloaded once expired
+        map.setEarlyExpiration(0);
+        time.addAndGet(99);
+        assertEquals("value2", map.getOrLoad("key"));
+        assertThrows(IllegalArgumentException.class, () -> map.setEarlyExpiration(-1));
+        map.close();
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        AtomicInteger loads = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean();
+        List<Runnable> tasks = new ArrayList<>();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100, key -> {
+            if (failing.get()) {
+                throw new IOException("unavailable");
+            }
+            return "value" + loads.incrementAndGet();
+        });
+        map.setTicker(time::get);
+        map.setStaleWhileRevalidate(50, 200, tasks::add);
+        assertEquals(CacheLookup.Status.LOADED, map.lookup("key").getStatus());
+        assertEquals(CacheLookup.Status.FRESH, map.lookup("key").getStatus());
+        // After the expiration time, the stale value is served while a single reload runs in the background
+        time.addAndGet(100);
+        CacheLookup<String> lookup = map.lookup("key");
+        assertEquals("value1", lookup.getValue());
+        assertTrue(lookup.isStale());
+        assertEquals(CacheLookup.Status.STALE, map.lookup("key").getStatus());
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals("value2", map.lookup("key").getValue());
+        assertEquals(CacheLookup.Status.FRESH, map.lookup("key").getStatus());
+        // If the reloads fail, the stale value is served up to its maximum staleness
+        failing.set(true);
+        time.addAndGet(160);
+        lookup = map.lookup("key");
+        assertEquals("value2", lookup.getValue());
+        assertEquals(CacheLookup.Status.STALE_ON_ERROR, lookup.getStatus());
+        assertEquals("value2", map.getOrLoad("key"));
+        time.addAndGet(140);
+        assertThrows(CompletionException.class, () -> map.lookup("key"));
+        failing.set(false);
+        assertEquals(new CacheLookup<>("value3", CacheLookup.Status.LOADED).toString(), map.lookup("key").toString());
+        assertThrows(IllegalArgumentException.class, () -> map.setStaleWhileRevalidate(-1, 0, Runnable::run));
+        map.close();
+    }
+
+    @Test
+    public void testStaleValuesFollowTheirOwnExpiration() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        AtomicBoolean failing = new AtomicBoolean();
+        List<Runnable> tasks = new ArrayList<>();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100, 50, -1, key -> {
+            if (failing.get()) {
+                throw new IOException("unavailable");
+            }
+            return "value";
+        });
+        map.setTicker(time::get);
+        map.setStaleWhileRevalidate(50, 200, tasks::add);
+        assertEquals("value", map.getOrLoad("key"));
+        failing.set(true);
+        // Each read renews the extra lifetime after use, so the value stays fresh after its lifetime
+        for (int i = 0; i < 4; i++) {
+            time.addAndGet(40);
+            assertEquals("value", map.getAndUpdateTimeSinceLastUse("key"));
+            assertEquals(CacheLookup.Status.FRESH, map.lookup("key").getStatus());
+        }
+        // Once expired, the value is only served by the lookups, the other methods see it as absent and the reads do not extend it
+        time.addAndGet(50);
+        assertNull(map.getAndUpdateTimeSinceLastUse("key"));
+        assertNull(map.get("key"));
+        assertFalse(map.containsKey("key"));
+        assertEquals(0, map.size());
+        assertTrue(map.isEmpty());
+        map.cleanBlocking();
+        assertEquals(1, map.sizeWithExpired());
+        assertEquals(CacheLookup.Status.STALE, map.lookup("key").getStatus());
+        tasks.forEach(Runnable::run);
+        tasks.clear();
+        time.addAndGet(100);
+        assertEquals(CacheLookup.Status.STALE_ON_ERROR, map.lookup("key").getStatus());
+        // The value is removed at the end of its grace period, 200 milliseconds after its expiration time
+        time.addAndGet(99);
+        map.cleanBlocking();
+        assertEquals(1, map.sizeWithExpired());
+        time.incrementAndGet();
+        map.cleanBlocking();
+        assertEquals(0, map.sizeWithExpired());
+        assertThrows(CompletionException.class, () -> map.lookup("key"));
+        map.close();
+    }
+
+    @Test
+    public void testStaleValuesAreNotCounted() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        AtomicInteger loads = new AtomicInteger();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(100,
+                key -> "value" + loads.incrementAndGet());
+        map.setTicker(time::get);
+        map.setCleanPeriod(60 * 60 * 1000);
+        // After this first cleaning pass, the cleaning process does not run again during the test
+        map.put("key0", "value0", 0);
+        await().atMost(1, TimeUnit.SECONDS).until(() -> map.sizeWithExpired() == 0);
+        map.setStaleWhileRevalidate(0, 200, null);
+        map.getOrLoad("key1");
+        map.getOrLoad("key2");
+        map.put("key3", "value", 1000);
+        time.addAndGet(100);
+        assertEquals(1, map.size());
+        map.cleanBlocking();
+        // The expired values are kept by the cleaning and counted apart, so they are still not counted by size()
+        assertEquals(3, map.sizeWithExpired());
+        assertEquals(1, map.size());
+        assertEquals(CacheLookup.Status.LOADED, map.lookup("key1").getStatus());
+        assertEquals(2, map.size());
+        time.addAndGet(200);
+        map.cleanBlocking();
+        assertEquals(2, map.sizeWithExpired());
+        assertEquals(1, map.size());
+        assertFalse(map.isEmpty());
+        time.addAndGet(200);
+        map.cleanBlocking();
+        assertEquals(1, map.sizeWithExpired());
+        assertEquals(1, map.size());
+        map.close();
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        LoadingConcurrentHashMapAutoCleaning<String, String> map = new LoadingConcurrentHashMapAutoCleaning<>(60_000, key -> {
+            loads.incrementAndGet();
+            release.await();
+            return "value";
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(executor.submit(() -> map.getOrLoad("key")));
+        }
+        await().atMost(5, TimeUnit.SECONDS).until(() -> map.loadsInProgress() == 1);
+        release.countDown();
+        for (Future<String> result : results) {
+            assertEquals("value", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        executor.shutdown();
+        map.close();
+    }
+}
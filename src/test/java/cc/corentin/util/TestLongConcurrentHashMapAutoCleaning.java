@@ -0,0 +1,143 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLongConcurrentHashMapAutoCleaning {
+
+    @Test
+    public void testMapContract() {
+        LongConcurrentHashMapAutoCleaning<String> mapToTest = new LongConcurrentHashMapAutoCleaning<>(Long.MAX_VALUE);
+        Map<Long, String> mapRef = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(5000) - 2500;
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1:
+                    assertEquals(mapRef.put(key, "value" + i), mapToTest.put(key, "value" + i));
+                    break;
+                case 2:
+                    assertEquals(mapRef.remove(key), mapToTest.remove(key));
+                    break;
+                case 3:
+                    assertEquals(mapRef.putIfAbsent(key, "value" + i), mapToTest.putIfAbsent(key, "value" + i));
+                    break;
+                default:
+                    assertEquals(mapRef.replace(key, "value" + i), mapToTest.replace(key, "value" + i));
+            }
+        }
+        assertEquals(mapRef.size(), mapToTest.size());
+        for (long key = -2500; key < 2500; key++) {
+            assertEquals(mapRef.get(key), mapToTest.get(key));
+        }
+        long key = mapRef.keySet().iterator().next();
+        assertFalse(mapToTest.remove(key, "other"));
+        assertTrue(mapToTest.remove(key, mapRef.get(key)));
+        assertFalse(mapToTest.containsKey(key));
+        assertNull(mapToTest.put(Long.MIN_VALUE, "value"));
+        assertEquals("value", mapToTest.get(Long.MIN_VALUE));
+        mapToTest.clear();
+        assertTrue(mapToTest.isEmpty());
+        assertThrows(NullPointerException.class, () -> mapToTest.put(1, null));
+        mapToTest.close();
+    }
+
+    @Test
+    public void testNoDefaultLifeTime() {
+        LongConcurrentHashMapAutoCleaning<String> map = new LongConcurrentHashMapAutoCleaning<>(-1);
+        assertThrows(IllegalStateException.class, () -> map.put(1, "value1"));
+        assertThrows(IllegalStateException.class, () -> map.putIfAbsent(1, "value1"));
+        assertThrows(IllegalStateException.class, () -> map.replace(1, "value1"));
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+        assertNull(map.put(1, "value1", 100, 0));
+        assertEquals("value1", map.get(1));
+        map.close();
+    }
+
+    @Test
+    public void testExpiration() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        LongConcurrentHashMapAutoCleaning<String> map = new LongConcurrentHashMapAutoCleaning<>(100, 50);
+        map.setTicker(time::get);
+        map.put(1, "value1");
+        map.put(2, "value2");
+        map.put(3, "value3", 1000, 0);
+        time.addAndGet(80);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse(1));
+        time.addAndGet(20);
+        assertEquals("value1", map.get(1));
+        assertNull(map.get(2));
+        assertNull(map.putIfAbsent(2, "value2b"));
+        assertEquals("value2b", map.get(2));
+        time.addAndGet(30);
+        assertNull(map.get(1));
+        assertNull(map.replace(1, "value1b"));
+        assertEquals(2, map.size());
+        List<Long> removedKeys = new ArrayList<>();
+        map.addListener((key, value) -> removedKeys.add(key));
+        map.cleanBlocking();
+        assertEquals(List.of(1L), removedKeys);
+        assertEquals("value3", map.get(3));
+        map.close();
+    }
+
+    @Test
+    public void testCleaningKeepsValidEntriesReachable() {
+        AtomicLong time = new AtomicLong(0);
+        LongConcurrentHashMapAutoCleaning<Long> map = new LongConcurrentHashMapAutoCleaning<>(100, 0, 1, "test");
+        map.setTicker(time::get);
+        // Half of the entries expire, the deletions move the other entries of their clusters
+        for (long key = 0; key < 10_000; key++) {
+            map.put(key, key, key % 2 == 0 ? 10 : 1000, 0);
+        }
+        time.set(50);
+        map.cleanBlocking();
+        assertEquals(5000, map.size());
+        for (long key = 0; key < 10_000; key++) {
+            assertEquals(key % 2 == 0 ? null : key, map.get(key));
+        }
+        map.close();
+    }
+
+    @Test
+    public void testAutomaticCleaning() {
+        LongConcurrentHashMapAutoCleaning<String> map = new LongConcurrentHashMapAutoCleaning<>(0);
+        AtomicInteger removed = new AtomicInteger();
+        map.addListener((key, value) -> removed.incrementAndGet());
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "value" + i);
+        }
+        map.setCleanPeriod(10);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> removed.get() == 100);
+        map.close();
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        LongConcurrentHashMapAutoCleaning<Long> map = new LongConcurrentHashMapAutoCleaning<>(Long.MAX_VALUE, 0, 4, "test");
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            long offset = t * 10_000L;
+            threads[t] = new Thread(() -> {
+                for (long i = 0; i < 10_000; i++) {
+                    map.put(offset + i, i);
+                    assertEquals(i, map.get(offset + i));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, map.size());
+        map.close();
+    }
+}
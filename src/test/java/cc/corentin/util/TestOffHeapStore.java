@@ -0,0 +1,121 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestOffHeapStore {
+
+    @Test
+    public void testWriteAndRead() {
+        OffHeapStore<String, String> store = new OffHeapStore<>(ValueSerializer.strings(), 1024);
+        OffHeapValue<String> value1 = store.write("key1", "value1", 100, 50, 1000);
+        OffHeapValue<String> value2 = store.write("key2", "vâlue2", 200, 0, 1000);
+        assertEquals("value1", value1.getValue());
+        assertEquals("vâlue2", value2.getValue());
+        assertEquals(value1, new ValueWithTime<>("value1", 0, 0, 0));
+        assertEquals(1100, value1.getExpirationTimeMillis());
+        value1.recordUse(1080, 0, 0);
+        assertEquals(1130, value1.getExpirationTimeMillis());
+        assertTrue(value1.isValid(1129));
+        assertFalse(value1.isValid(1130));
+        assertTrue(value1.hasLifeTimes(100, 50));
+        ValueWithTime<String> valueWithTime = value1.toValueWithTime(0, 0);
+        assertEquals(1000, valueWithTime.getCreationTimeMillis());
+        assertEquals(1080, valueWithTime.getLastTimeUsedMillis());
+        assertEquals(100, valueWithTime.getLifeTimeMillis());
+    }
+
+    @Test
+    public void testRelease() {
+        OffHeapStore<Integer, byte[]> store = new OffHeapStore<>(ValueSerializer.byteArrays(), 256);
+        for (int i = 0; i < 10; i++) {
+            store.write(i, new byte[60], 100, 0, i * 100);
+        }
+        // Two values fit in a slab, a value larger than a slab gets its own slab
+        OffHeapValue<byte[]> large = store.write(10, new byte[1000], 10_000, 0, 0);
+        assertEquals(1000, large.getValue().length);
+        assertEquals(6, store.slabCount());
+        // The slabs are released once all their values are expired, the use of a value keeps its slab
+        assertEquals(2, store.release(400, (key, value) -> true));
+        assertEquals(4, store.slabCount());
+        assertEquals(3, store.release(1100, (key, value) -> true));
+        assertEquals(1, store.slabCount());
+        assertEquals(1, store.release(10_000, (key, value) -> true));
+        assertEquals(0, store.slabCount());
+    }
+
+    @Test
+    public void testRecycle() {
+        OffHeapStore<Integer, byte[]> store = new OffHeapStore<>(ValueSerializer.byteArrays(), 256);
+        List<Integer> removedKeys = new ArrayList<>();
+        List<OffHeapValue<byte[]>> values = new ArrayList<>();
+        for (int cycle = 0; cycle < 10; cycle++) {
+            values.clear();
+            for (int i = 0; i < 6; i++) {
+                values.add(store.write(i, new byte[60], 100, 0, cycle * 100));
+            }
+            removedKeys.clear();
+            // The entries of the released slabs are removed before the slabs are reused
+            assertEquals(3, store.release(cycle * 100 + 100, (key, value) -> removedKeys.add(key)));
+            assertEquals(List.of(0, 1, 2, 3, 4, 5), removedKeys);
+        }
+        // The memory of the released slabs is reused instead of allocating new slabs
+        assertEquals(3, store.allocatedSlabCount());
+        OffHeapValue<byte[]> value = store.write(0, new byte[]{10}, 100, 0, 1000);
+        // A value whose slab is recycled is expired and has no value, even if its record holds a new value
+        assertFalse(values.get(0).isValid(1000));
+        assertNull(values.get(0).getValue());
+        assertEquals(Long.MIN_VALUE, values.get(0).getExpirationTimeMillis());
+        values.get(0).recordUse(1050, 0, 0);
+        assertEquals(1000, value.toValueWithTime(0, 0).getLastTimeUsedMillis());
+        assertArrayEquals(new byte[]{10}, value.getValue());
+    }
+
+    @Test
+    public void testReleaseKeepsTheSlabsStillInTheMap() {
+        OffHeapStore<Integer, byte[]> store = new OffHeapStore<>(ValueSerializer.byteArrays(), 256);
+        OffHeapValue<byte[]> value = store.write(0, new byte[60], 100, 0, 0);
+        store.write(1, new byte[60], 100, 0, 0);
+        // The map still holds the value of key 0, the slab is kept until the next release
+        assertEquals(0, store.release(100, (key, offHeapValue) -> key != 0));
+        assertEquals(1, store.slabCount());
+        assertArrayEquals(new byte[60], value.getValue());
+        assertEquals(1, store.release(100, (key, offHeapValue) -> true));
+        assertEquals(0, store.slabCount());
+        // The free list keeps at most as many slabs as were in use, the slabs of the large values are dropped
+        store.write(2, new byte[1000], 100, 0, 200);
+        assertEquals(1, store.release(300, (key, offHeapValue) -> true));
+        assertEquals(2, store.allocatedSlabCount());
+        store.write(3, new byte[60], 100, 0, 300);
+        assertEquals(2, store.allocatedSlabCount());
+    }
+
+    @Test
+    public void testCustomSerializer() {
+        ValueSerializer<Long> longs = new ValueSerializer<>() {
+            @Override
+            public int serializedSize(Long value) {
+                return Long.BYTES;
+            }
+
+            @Override
+            public void serialize(Long value, ByteBuffer target) {
+                target.putLong(value);
+            }
+
+            @Override
+            public Long deserialize(ByteBuffer source) {
+                return source.getLong();
+            }
+        };
+        OffHeapStore<Long, Long> store = new OffHeapStore<>(longs, 64);
+        for (long i = 0; i < 100; i++) {
+            assertEquals(i, store.write(i, i, 100, 0, 0).getValue());
+        }
+    }
+}
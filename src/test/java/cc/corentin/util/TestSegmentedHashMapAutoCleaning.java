@@ -0,0 +1,257 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSegmentedHashMapAutoCleaning extends MapAutoCleaningContract {
+
+    @Override
+    protected ConcurrentMap<String, String> createMap(long lifeTimeMillis, Ticker ticker) {
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(lifeTimeMillis);
+        map.setTicker(ticker);
+        return map;
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new SegmentedHashMapAutoCleaning<String, String>(100, 0, -1, 0.75f, 16, "cleaning"));
+        assertEquals("initialCapacity must not be negative", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> new SegmentedHashMapAutoCleaning<String, String>(100, 0, 16, 0, 16, "cleaning"));
+        assertThrows(IllegalArgumentException.class, () -> new SegmentedHashMapAutoCleaning<String, String>(100, 0, 16, 0.75f, 0, "cleaning"));
+    }
+
+    @Test
+    public void testNoDefaultLifeTime() {
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(-1);
+        assertThrows(IllegalStateException.class, () -> map.put("key1", "value1"));
+        assertThrows(IllegalStateException.class, () -> map.putIfAbsent("key1", "value1"));
+        assertThrows(IllegalStateException.class, () -> map.replace("key1", "value1"));
+        assertThrows(IllegalStateException.class, () -> map.replace("key1", "value1", "value2"));
+        assertNull(map.put("key1", "value1", 100, 0));
+        assertEquals("value1", map.get("key1"));
+        map.close();
+    }
+
+    @Test
+    public void testLifeTimeDoesNotOverflow() {
+        AtomicLong time = new AtomicLong(Long.MIN_VALUE + 10);
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(100, 0);
+        map.setTicker(time::get);
+        map.put("key1", "value1");
+        assertEquals("value1", map.get("key1"));
+        // The time elapsed since the creation does not fit in a long, the entry is expired
+        time.set(100);
+        assertNull(map.get("key1"));
+        map.close();
+    }
+
+    @Test
+    public void testExpiration() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(100, 50);
+        map.setTicker(time::get);
+        map.put("key1", "value1");
+        map.put("key2", "value2");
+        map.put("key3", "value3", 1000, 0);
+        time.addAndGet(80);
+        assertEquals("value1", map.getAndUpdateTimeSinceLastUse("key1"));
+        assertEquals(1_000_080, map.getLastTimeUsedMillis("key1"));
+        assertEquals(1_000_000, map.getCreationTimeMillis("key1"));
+        time.addAndGet(20);
+        assertEquals(Set.of("key1", "key3"), map.keySet());
+        assertNull(map.get("key2"));
+        assertNull(map.putIfAbsent("key2", "value2b"));
+        assertEquals("value2b", map.get("key2"));
+        time.addAndGet(30);
+        assertNull(map.get("key1"));
+        assertFalse(map.replace("key1", "value1", "value1b"));
+        assertEquals(2, map.size());
+        List<String> removedKeys = new ArrayList<>();
+        map.addListener((key, value) -> removedKeys.add(key));
+        map.cleanBlocking();
+        assertEquals(List.of("key1"), removedKeys);
+        map.close();
+    }
+
+    @Test
+    public void testComputeWithLifeTimes() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(100, 0);
+        map.setTicker(time::get);
+        assertEquals("value1", map.computeIfAbsent("key1", k -> "value1", 50));
+        assertEquals("value1", map.computeIfAbsent("key1", k -> "value1b"));
+        assertEquals("value2", map.compute("key2", (k, v) -> v == null ? "value2" : v + "b", 200, 0));
+        assertEquals("value3", map.merge("key3", "value3", String::concat, 50, 0));
+        assertEquals("value3value3", map.merge("key3", "value3", String::concat, 50));
+        assertNull(map.computeIfPresent("key4", (k, v) -> "value4"));
+        assertNull(map.putIfAbsent("key4", "value4", 50));
+        assertEquals("value4", map.put("key4", "value4b", 50));
+        assertEquals(4, map.size());
+        time.addAndGet(50);
+        assertNull(map.get("key1"));
+        assertEquals("value2", map.get("key2"));
+        assertNull(map.get("key3"));
+        assertNull(map.get("key4"));
+        assertEquals(1, map.size());
+        assertEquals("value2b", map.computeIfPresent("key2", (k, v) -> v + "b", 10));
+        time.addAndGet(10);
+        assertTrue(map.isEmpty());
+        assertNull(map.computeIfPresent("key2", (k, v) -> v + "c"));
+        map.close();
+    }
+
+    @Test
+    public void testCountAndCleanOnlyTheExpiredEntries() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        // A small table, so the segments are resized while the entries are added
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(100, 0, 0, 0.75f, 4, "test");
+        map.setTicker(time::get);
+        AtomicInteger removed = new AtomicInteger();
+        map.addListener((key, value) -> removed.incrementAndGet());
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                map.put("key" + i, "value" + i, 100, 50);
+            } else {
+                map.put("key" + i, "value" + i, 200, 0);
+            }
+        }
+        time.addAndGet(90);
+        // The use of key0 pushes its expiration time after its place in the heap
+        assertEquals("value0", map.getAndUpdateTimeSinceLastUse("key0"));
+        time.addAndGet(10);
+        assertEquals(501, map.size());
+        assertEquals(0, removed.get());
+        map.cleanBlocking();
+        assertEquals(499, removed.get());
+        assertEquals("value0", map.get("key0"));
+        time.addAndGet(40);
+        assertEquals(500, map.size());
+        map.cleanBlocking();
+        assertEquals(500, removed.get());
+        time.addAndGet(60);
+        assertTrue(map.isEmpty());
+        map.cleanBlocking();
+        assertEquals(1000, removed.get());
+        map.put("key1", "value1");
+        assertEquals(1, map.size());
+        map.close();
+    }
+
+    @Test
+    public void testRandomOperations() {
+        AtomicLong time = new AtomicLong(1_000_000);
+        SegmentedHashMapAutoCleaning<Integer, Integer> map = new SegmentedHashMapAutoCleaning<>(100, 20, 0, 0.75f, 4, "test");
+        map.setTicker(time::get);
+        // The expected value, expiration time and extra lifetime after use of each key
+        Map<Integer, long[]> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(500);
+            long now = time.get();
+            long[] entry = expected.get(key);
+            boolean valid = entry != null && now < entry[1];
+            switch (random.nextInt(6)) {
+                case 0 -> {
+                    int lifeTimeMillis = random.nextInt(200);
+                    map.put(key, i, lifeTimeMillis, 0);
+                    expected.put(key, new long[]{i, now + lifeTimeMillis, 0});
+                }
+                case 1 -> {
+                    map.remove(key);
+                    expected.remove(key);
+                }
+                case 2 -> {
+                    map.compute(key, (k, v) -> v == null ? null : v + 1);
+                    if (valid) {
+                        expected.put(key, new long[]{entry[0] + 1, now + 100, 20});
+                    } else {
+                        expected.remove(key);
+                    }
+                }
+                case 3 -> {
+                    if (map.getAndUpdateTimeSinceLastUse(key) != null) {
+                        entry[1] = Math.max(entry[1], now + entry[2]);
+                    }
+                }
+                case 4 -> time.addAndGet(random.nextInt(10));
+                default -> map.cleanBlocking();
+            }
+        }
+        long now = time.get();
+        expected.values().removeIf(entry -> now >= entry[1]);
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, long[]> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue()[0], map.get(entry.getKey()));
+        }
+        map.cleanBlocking();
+        assertEquals(expected.keySet(), map.keySet());
+        time.addAndGet(300);
+        assertTrue(map.isEmpty());
+        map.close();
+    }
+
+    @Test
+    public void testSetCleaningSchedulerMovesTheTask() {
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(0, 0, 16, 0.75f, 4, "testSetCleaningScheduler");
+        AtomicInteger removed = new AtomicInteger();
+        map.addListener((key, value) -> removed.incrementAndGet());
+        map.setCleanPeriod(10);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        map.setCleaningScheduler(scheduler);
+        // The thread of the map is stopped, the cleaning task runs in the given scheduler
+        await().atMost(5, TimeUnit.SECONDS).until(() -> Thread.getAllStackTraces().keySet().stream()
+                .noneMatch(thread -> thread.getName().equals("testSetCleaningScheduler")));
+        for (int i = 0; i < 10; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        await().atMost(5, TimeUnit.SECONDS).until(() -> removed.get() == 10);
+        map.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testAutomaticCleaning() {
+        SegmentedHashMapAutoCleaning<String, String> map = new SegmentedHashMapAutoCleaning<>(0);
+        AtomicInteger removed = new AtomicInteger();
+        map.addListener((key, value) -> removed.incrementAndGet());
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        map.setCleanPeriod(10);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> removed.get() == 100);
+        map.close();
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        SegmentedHashMapAutoCleaning<Integer, Integer> map = new SegmentedHashMapAutoCleaning<>(Long.MAX_VALUE, 0, 0, 0.75f, 4, "test");
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t * 10_000;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    map.put(offset + i, i);
+                    assertEquals(i, map.get(offset + i));
+                    map.merge(-1, 1, Integer::sum);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_001, map.size());
+        assertEquals(80_000, map.get(-1));
+        map.close();
+    }
+}
@@ -0,0 +1,69 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTicker {
+
+    @Test
+    public void testSystemTicker() {
+        long before = System.currentTimeMillis();
+        long time = Ticker.system().currentTimeMillis();
+        assertTrue(time >= before);
+        assertTrue(time <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void testCoarseTicker() {
+        Ticker ticker = Ticker.coarse();
+        assertSame(ticker, Ticker.coarse());
+        // The published time follows the clock of the system
+        assertTrue(Math.abs(ticker.currentTimeMillis() - System.currentTimeMillis()) < 1000);
+        long time = ticker.currentTimeMillis();
+        await().atMost(1, TimeUnit.SECONDS).until(() -> ticker.currentTimeMillis() > time);
+    }
+
+    @Test
+    public void testMonotonicTicker() {
+        long now = System.currentTimeMillis();
+        MonotonicTicker ticker = new MonotonicTicker(1000, System.nanoTime());
+        assertTrue(ticker.currentTimeMillis() >= 1000);
+        assertTrue(ticker.currentTimeMillis() < 2000);
+        try (MockedStatic<TimeHelper> theMock = Mockito.mockStatic(TimeHelper.class)) {
+            theMock.when(TimeHelper::currentTimeMillis).thenReturn(now);
+            long time = ticker.currentTimeMillis();
+            // The conversions use the current offset between the two clocks
+            assertEquals(now, ticker.toWallClockMillis(time), 100);
+            assertEquals(time, ticker.fromWallClockMillis(now), 100);
+            // The clock of the system is set back by one hour, the ticker does not go backwards
+            theMock.when(TimeHelper::currentTimeMillis).thenReturn(now - 60 * 60 * 1000);
+            assertTrue(ticker.currentTimeMillis() >= time);
+            assertEquals(now - 60 * 60 * 1000, ticker.toWallClockMillis(time), 100);
+        }
+    }
+
+    @Test
+    public void testMapWithMonotonicTicker() {
+        ConcurrentHashMapAutoCleaning<String, String> map = new ConcurrentHashMapAutoCleaning<>(60 * 1000);
+        map.setTicker(Ticker.monotonic());
+        long now = System.currentTimeMillis();
+        // The clock of the system is mocked before the entry is created, so the creation of the mock is not measured
+        try (MockedStatic<TimeHelper> theMock = Mockito.mockStatic(TimeHelper.class)) {
+            theMock.when(TimeHelper::currentTimeMillis).thenReturn(now);
+            map.put("key1", "value1");
+            assertEquals(now, map.getCreationTimeMillis("key1"), 100);
+            // A step of the clock of the system neither expires nor resurrects the entries
+            theMock.when(TimeHelper::currentTimeMillis).thenReturn(now + 24 * 60 * 60 * 1000);
+            assertEquals("value1", map.get("key1"));
+            // The creation time is reported on the clock of the system
+            assertEquals(now + 24 * 60 * 60 * 1000, map.getCreationTimeMillis("key1"), 100);
+        }
+        map.close();
+    }
+}
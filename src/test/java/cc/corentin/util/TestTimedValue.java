@@ -0,0 +1,51 @@
+package cc.corentin.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTimedValue {
+
+    @Test
+    public void testDeadlineValue() {
+        DeadlineValue<String> value = new DeadlineValue<>("value1", 100, 1000);
+        assertTrue(value.isValid(1099));
+        assertFalse(value.isValid(1100));
+        assertEquals(1100, value.getExpirationTimeMillis());
+        value.recordUse(1050, 0, 0);
+        assertEquals(1100, value.getExpirationTimeMillis());
+        assertEquals("value1", value.getValueIfValid(1000));
+        assertNull(value.getValueIfValid(1100));
+        ValueWithTime<String> valueWithTime = value.toValueWithTime(100, 0);
+        assertEquals(1000, valueWithTime.getCreationTimeMillis());
+        assertEquals(100, valueWithTime.getLifeTimeMillis());
+        assertEquals(1100, valueWithTime.getExpirationTimeMillis());
+        assertEquals(valueWithTime, value);
+    }
+
+    @Test
+    public void testDeadlineAccessValue() {
+        DeadlineAccessValue<String> value = new DeadlineAccessValue<>("value1", 100, 50, 1000);
+        assertEquals(1100, value.getExpirationTimeMillis());
+        value.recordUse(1080, 0, 50);
+        assertEquals(1130, value.getExpirationTimeMillis());
+        assertTrue(value.isValid(1129));
+        assertFalse(value.isValid(1130));
+        // The use is not recorded if the last one is more recent than the granularity
+        value.recordUse(1085, 10, 50);
+        assertEquals(1130, value.getExpirationTimeMillis());
+        value.recordUse(1090, 10, 50);
+        assertEquals(1140, value.getExpirationTimeMillis());
+        ValueWithTime<String> valueWithTime = value.toValueWithTime(100, 50);
+        assertEquals(1000, valueWithTime.getCreationTimeMillis());
+        assertEquals(1090, valueWithTime.getLastTimeUsedMillis());
+        assertEquals(1140, valueWithTime.getExpirationTimeMillis());
+    }
+
+    @Test
+    public void testHasLifeTimes() {
+        assertTrue(new ValueWithTime<>("value1", 100, 50, 0).hasLifeTimes(100, 50));
+        assertFalse(new ValueWithTime<>("value1", 100, 50, 0).hasLifeTimes(100, 0));
+        assertTrue(new DeadlineValue<>("value1", 100, 0).hasLifeTimes(100, 0));
+    }
+}